@@ -43,8 +43,13 @@ import org.apache.sling.distribution.packaging.impl.DistributionPackageImporter;
 import org.apache.sling.distribution.packaging.impl.exporter.LocalDistributionPackageExporter;
 import org.apache.sling.distribution.packaging.impl.importer.RemoteDistributionPackageImporter;
 import org.apache.sling.distribution.queue.impl.AsyncDeliveryDispatchingStrategy;
+import org.apache.sling.distribution.queue.impl.DistributionQueueCapacity;
 import org.apache.sling.distribution.queue.impl.DistributionQueueDispatchingStrategy;
+import org.apache.sling.distribution.queue.impl.DistributionQueueLanes;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProvider;
+import org.apache.sling.distribution.queue.impl.DistributionQueueRetryBackoff;
+import org.apache.sling.distribution.queue.impl.DistributionQueueSettings;
+import org.apache.sling.distribution.queue.impl.DistributionQueueStatusCache;
 import org.apache.sling.distribution.queue.impl.ErrorQueueDispatchingStrategy;
 import org.apache.sling.distribution.queue.impl.MultipleQueueDispatchingStrategy;
 import org.apache.sling.distribution.queue.impl.PriorityQueueDispatchingStrategy;
@@ -54,6 +59,7 @@ import org.apache.sling.distribution.queue.impl.simple.SimpleDistributionQueuePr
 import org.apache.sling.distribution.transport.DistributionTransportSecretProvider;
 import org.apache.sling.distribution.transport.impl.HttpConfiguration;
 import org.apache.sling.distribution.trigger.DistributionTrigger;
+import org.apache.sling.event.impl.jobs.config.ConfigurationConstants;
 import org.apache.sling.event.jobs.JobManager;
 import org.apache.sling.jcr.api.SlingRepository;
 import org.apache.sling.settings.SlingSettingsService;
@@ -87,9 +93,22 @@ public class ForwardDistributionAgentFactory extends AbstractDistributionAgentFa
     private static final String PASSIVE_QUEUES = "passiveQueues";
     private static final String PRIORITY_QUEUES = "priorityQueues";
     private static final String QUEUE_PROVIDER = "queue.provider";
+    private static final String QUEUE_PARALLELISM = "queue.parallelism";
+    private static final String QUEUE_SKIP_AHEAD = "queue.skipAhead";
+    private static final String QUEUE_COALESCE = "queue.coalesce";
+    private static final String QUEUE_STATUS_TTL = "queue.status.ttl";
+    private static final String QUEUE_MAX_PARALLEL = "queue.maxParallel";
+    private static final String QUEUE_CAPACITY = "queue.capacity";
+    private static final String QUEUE_CAPACITY_POLICY = "queue.capacity.policy";
+    private static final String QUEUE_CAPACITY_TIMEOUT = "queue.capacity.timeout";
+    private static final String QUEUE_LANES = "queue.lanes";
+    private static final String QUEUE_LANES_DEFAULT_WEIGHT = "queue.lanes.defaultWeight";
+    private static final String QUEUE_LANES_MAX_WAIT = "queue.lanes.maxWait";
     private static final String ASYNC_DELIVERY = "async.delivery";
     private static final String RETRY_STRATEGY = "retry.strategy";
     private static final String RETRY_ATTEMPTS = "retry.attempts";
+    private static final String RETRY_DELAY = "retry.delay";
+    private static final String RETRY_DELAY_MAX = "retry.delay.max";
     private static final String IMPORTER_ENDPOINTS = "packageImporter.endpoints";
     private static final String HTTP = "http.conn.timeout";
 
@@ -126,6 +145,8 @@ public class ForwardDistributionAgentFactory extends AbstractDistributionAgentFa
     @Reference
     private ConfigurationAdmin configAdmin;
 
+    private DistributionQueueProvider queueProvider;
+
     public ForwardDistributionAgentFactory() {
         super(ForwardDistributionAgentMBean.class);
     }
@@ -158,6 +179,11 @@ public class ForwardDistributionAgentFactory extends AbstractDistributionAgentFa
     @Deactivate
     protected void deactivate(BundleContext context) {
         super.deactivate(context);
+        // the queue provider is owned by the agent created with it, release the resources held by its queues
+        if (queueProvider != null) {
+            queueProvider.close();
+            queueProvider = null;
+        }
     }
 
     @Override
@@ -184,12 +210,40 @@ public class ForwardDistributionAgentFactory extends AbstractDistributionAgentFa
         DistributionPackageExporter packageExporter = new LocalDistributionPackageExporter(packageBuilder);
 
         DistributionQueueProvider queueProvider;
+        String[] queueLanes = PropertiesUtil.toStringArray(config.get(QUEUE_LANES), new String[0]);
+        boolean queueCoalesce = PropertiesUtil.toBoolean(config.get(QUEUE_COALESCE), false);
+        DistributionQueueSettings queueSettings = new DistributionQueueSettings(
+                PropertiesUtil.toInteger(config.get(QUEUE_PARALLELISM), 1),
+                new DistributionQueueRetryBackoff(
+                        PropertiesUtil.toLong(
+                                config.get(RETRY_DELAY), DistributionQueueRetryBackoff.DEFAULT_INITIAL_DELAY),
+                        PropertiesUtil.toLong(
+                                config.get(RETRY_DELAY_MAX), DistributionQueueRetryBackoff.DEFAULT_MAX_DELAY)),
+                PropertiesUtil.toBoolean(config.get(QUEUE_SKIP_AHEAD), false),
+                new DistributionQueueLanes(
+                        SettingsUtils.removeEmptyEntries(queueLanes, new String[0]),
+                        PropertiesUtil.toInteger(
+                                config.get(QUEUE_LANES_DEFAULT_WEIGHT), DistributionQueueLanes.DEFAULT_WEIGHT),
+                        PropertiesUtil.toLong(
+                                config.get(QUEUE_LANES_MAX_WAIT), DistributionQueueLanes.DEFAULT_MAX_WAIT)),
+                queueCoalesce);
         String queueProviderName =
                 PropertiesUtil.toString(config.get(QUEUE_PROVIDER), JobHandlingDistributionQueueProvider.TYPE);
         if (JobHandlingDistributionQueueProvider.TYPE.equals(queueProviderName)) {
-            queueProvider = new JobHandlingDistributionQueueProvider(agentName, jobManager, context, configAdmin);
+            long statusTtl =
+                    PropertiesUtil.toLong(config.get(QUEUE_STATUS_TTL), DistributionQueueStatusCache.DEFAULT_TTL);
+            int queueMaxParallel = PropertiesUtil.toInteger(
+                    config.get(QUEUE_MAX_PARALLEL), ConfigurationConstants.DEFAULT_MAX_PARALLEL);
+            queueProvider = new JobHandlingDistributionQueueProvider(
+                    agentName,
+                    jobManager,
+                    context,
+                    configAdmin,
+                    statusTtl,
+                    queueMaxParallel,
+                    queueSettings.getRetryBackoff());
         } else if (SimpleDistributionQueueProvider.TYPE.equals(queueProviderName)) {
-            queueProvider = new SimpleDistributionQueueProvider(scheduler, agentName, false);
+            queueProvider = new SimpleDistributionQueueProvider(scheduler, agentName, queueProviderName, queueSettings);
         } else if (ResourceQueueProvider.TYPE.equals(queueProviderName)) {
             queueProvider = new ResourceQueueProvider(
                     context,
@@ -197,11 +251,18 @@ public class ForwardDistributionAgentFactory extends AbstractDistributionAgentFa
                     SimpleDistributionAgent.DEFAULT_AGENT_SERVICE,
                     agentName,
                     scheduler,
-                    true);
+                    true,
+                    1,
+                    queueSettings);
+        } else if (SimpleDistributionQueueProvider.TYPE_WAL.equals(queueProviderName)
+                || SimpleDistributionQueueProvider.TYPE_LOG.equals(queueProviderName)) {
+            queueProvider = new SimpleDistributionQueueProvider(scheduler, agentName, queueProviderName, queueSettings);
         } else { // when SimpleDistributionQueueProvider.TYPE_CHECKPOINT is "queueProviderName"
-            queueProvider = new SimpleDistributionQueueProvider(scheduler, agentName, true);
+            queueProvider = new SimpleDistributionQueueProvider(
+                    scheduler, agentName, SimpleDistributionQueueProvider.TYPE_CHECKPOINT, queueSettings);
         }
         queueProvider = new MonitoringDistributionQueueProvider(queueProvider, context);
+        this.queueProvider = queueProvider;
 
         DistributionQueueDispatchingStrategy exportQueueStrategy;
         DistributionQueueDispatchingStrategy errorQueueStrategy = null;
@@ -219,9 +280,15 @@ public class ForwardDistributionAgentFactory extends AbstractDistributionAgentFa
         // names of all the queues
         String[] queueNames = endpointsAndPassiveQueues.toArray(new String[endpointsAndPassiveQueues.size()]);
 
+        DistributionQueueCapacity queueCapacity = new DistributionQueueCapacity(
+                PropertiesUtil.toInteger(config.get(QUEUE_CAPACITY), 0),
+                "block".equalsIgnoreCase(PropertiesUtil.toString(config.get(QUEUE_CAPACITY_POLICY), "reject"))
+                        ? DistributionQueueCapacity.Policy.BLOCK
+                        : DistributionQueueCapacity.Policy.REJECT,
+                PropertiesUtil.toLong(config.get(QUEUE_CAPACITY_TIMEOUT), DistributionQueueCapacity.DEFAULT_TIMEOUT));
         if (priorityQueues != null) {
             PriorityQueueDispatchingStrategy dispatchingStrategy =
-                    new PriorityQueueDispatchingStrategy(priorityQueues, queueNames);
+                    new PriorityQueueDispatchingStrategy(priorityQueues, queueNames, queueCoalesce, queueCapacity);
             Map<String, String> queueAliases = dispatchingStrategy.getMatchingQueues(null);
             importerEndpointsMap = SettingsUtils.expandUriMap(importerEndpointsMap, queueAliases);
             exportQueueStrategy = dispatchingStrategy;
@@ -236,10 +303,10 @@ public class ForwardDistributionAgentFactory extends AbstractDistributionAgentFa
                 }
 
                 processingQueues.addAll(deliveryQueues.values());
-                exportQueueStrategy = new AsyncDeliveryDispatchingStrategy(deliveryQueues);
+                exportQueueStrategy = new AsyncDeliveryDispatchingStrategy(deliveryQueues, queueCapacity);
             } else {
-                exportQueueStrategy =
-                        new MultipleQueueDispatchingStrategy(endpointNames.toArray(new String[endpointNames.size()]));
+                exportQueueStrategy = new MultipleQueueDispatchingStrategy(
+                        endpointNames.toArray(new String[endpointNames.size()]), queueCoalesce, queueCapacity);
             }
         }
 
@@ -105,6 +105,17 @@ public @interface ForwardDistributionAgentFactoryConfig {
             description = "The number of times to retry until the retry strategy is applied.")
     int retry_attempts() default 100;
 
+    @AttributeDefinition(
+            name = "Retry delay",
+            description =
+                    "The delay in milliseconds before reattempting an item which failed to be delivered, doubling with each further attempt.")
+    long retry_delay() default 1000;
+
+    @AttributeDefinition(
+            name = "Maximum retry delay",
+            description = "The maximum delay in milliseconds before reattempting an item which failed to be delivered.")
+    long retry_delay_max() default 30000;
+
     @AttributeDefinition(
             name = "Request Authorization Strategy",
             description =
@@ -139,10 +150,76 @@ public @interface ForwardDistributionAgentFactoryConfig {
                 @Option(label = JobHandlingDistributionQueueProvider.TYPE, value = "jobs"),
                 @Option(label = ResourceQueueProvider.TYPE, value = "Resource Backed"),
                 @Option(label = SimpleDistributionQueueProvider.TYPE, value = "In-memory"),
-                @Option(label = SimpleDistributionQueueProvider.TYPE_CHECKPOINT, value = "In-file")
+                @Option(label = SimpleDistributionQueueProvider.TYPE_CHECKPOINT, value = "In-file"),
+                @Option(label = SimpleDistributionQueueProvider.TYPE_WAL, value = "In-file write-ahead log"),
+                @Option(label = SimpleDistributionQueueProvider.TYPE_LOG, value = "In-file append-only log")
             })
     String queue_provider() default "jobs";
 
+    @AttributeDefinition(
+            name = "Queue parallelism",
+            description =
+                    "The number of workers processing each parallel queue (e.g. the async delivery queues) of the in-memory, in-file and resource backed queue providers.")
+    int queue_parallelism() default 1;
+
+    @AttributeDefinition(
+            name = "Queue skip ahead",
+            description =
+                    "Process the items of an ordered queue behind a blocked item ahead of it, as long as their paths do not overlap the paths of the blocked items. "
+                            + "Applies to the in-memory, in-file and resource backed queue providers.")
+    boolean queue_skipAhead() default false;
+
+    @AttributeDefinition(
+            name = "Queue coalescing",
+            description =
+                    "Remove the queued add items which have not been attempted yet when a new add item for the same (non deep) paths is queued.")
+    boolean queue_coalesce() default false;
+
+    @AttributeDefinition(
+            name = "Queue status cache time",
+            description = "The time in milliseconds the status of a queue of the jobs queue provider is cached for.")
+    long queue_status_ttl() default 30000;
+
+    @AttributeDefinition(
+            name = "Queue max parallel",
+            description =
+                    "The maximum number of items of a parallel queue of the jobs queue provider processed at once.")
+    int queue_maxParallel() default 15;
+
+    @AttributeDefinition(
+            name = "Queue capacity",
+            description =
+                    "The maximum number of items of a queue, beyond which new packages are not queued. 0 for unbounded queues.")
+    int queue_capacity() default 0;
+
+    @AttributeDefinition(
+            name = "Queue capacity policy",
+            description = "What to do when a queue is full: reject the request right away or block until it drains.",
+            options = {@Option(label = "reject", value = "reject"), @Option(label = "block", value = "block")})
+    String queue_capacity_policy() default "reject";
+
+    @AttributeDefinition(
+            name = "Queue capacity timeout",
+            description = "The maximum time in milliseconds a request blocks waiting for a full queue to drain.")
+    long queue_capacity_timeout() default 10000;
+
+    @AttributeDefinition(
+            cardinality = 100,
+            name = "Queue priority lanes",
+            description =
+                    "List of priority lanes of each queue, dequeued in proportion to their weight, in the format {weight}={pathMatcher}, e.g. 10=/content/news/.*. "
+                            + "Items not matching any lane go to a default lane. Applies to the in-memory and in-file queue providers.")
+    String[] queue_lanes();
+
+    @AttributeDefinition(name = "Queue default lane weight", description = "The weight of the default priority lane.")
+    int queue_lanes_defaultWeight() default 1;
+
+    @AttributeDefinition(
+            name = "Queue lanes max wait",
+            description =
+                    "The time in milliseconds after which an item is dequeued ahead of the turn of its priority lane. 0 to disable.")
+    long queue_lanes_maxWait() default 60000;
+
     @AttributeDefinition(
             name = "Async delivery",
             description =
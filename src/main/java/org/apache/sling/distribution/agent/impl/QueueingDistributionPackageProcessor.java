@@ -23,6 +23,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 import org.apache.sling.distribution.DistributionRequestState;
 import org.apache.sling.distribution.DistributionResponse;
@@ -35,9 +36,11 @@ import org.apache.sling.distribution.log.impl.DefaultDistributionLog;
 import org.apache.sling.distribution.packaging.DistributionPackage;
 import org.apache.sling.distribution.packaging.impl.DistributionPackageProcessor;
 import org.apache.sling.distribution.packaging.impl.DistributionPackageUtils;
+import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.apache.sling.distribution.queue.DistributionQueueItemState;
 import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
 import org.apache.sling.distribution.queue.impl.DistributionQueueDispatchingStrategy;
+import org.apache.sling.distribution.queue.impl.DistributionQueueFullException;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProvider;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -45,6 +48,10 @@ import org.jetbrains.annotations.Nullable;
 /**
  * The package exporter callback function is responsible to process the exported packages.
  * The exported packages are scheduled for import by passing them to a {@link DistributionQueueDispatchingStrategy}.
+ * A package which cannot be queued because its queues are full is deleted. If no package of the request has been
+ * queued before, the request is reported as {@link DistributionRequestState#NOT_EXECUTED}, so that it can be retried
+ * later. Otherwise the request is only partially accepted, the rejected package is reported as
+ * {@link DistributionRequestState#DROPPED}.
  */
 class QueueingDistributionPackageProcessor implements DistributionPackageProcessor {
 
@@ -64,6 +71,7 @@ class QueueingDistributionPackageProcessor implements DistributionPackageProcess
     private final DistributionQueueDispatchingStrategy scheduleQueueStrategy;
     private final DistributionQueueProvider queueProvider;
     private final DefaultDistributionLog log;
+    private final BiConsumer<String, DistributionQueueItem> superseded;
 
     public List<DistributionResponse> getAllResponses() {
         return allResponses;
@@ -86,6 +94,31 @@ class QueueingDistributionPackageProcessor implements DistributionPackageProcess
             @NotNull DistributionQueueProvider queueProvider,
             @NotNull DefaultDistributionLog log,
             @NotNull String agentName) {
+        this(
+                callingUser,
+                requestId,
+                requestStartTime,
+                distributionEventFactory,
+                scheduleQueueStrategy,
+                queueProvider,
+                log,
+                agentName,
+                null);
+    }
+
+    /**
+     * @param superseded notified of the queued items superseded by the dispatched packages, if any
+     */
+    QueueingDistributionPackageProcessor(
+            @Nullable String callingUser,
+            @NotNull String requestId,
+            long requestStartTime,
+            @NotNull DistributionEventFactory distributionEventFactory,
+            @NotNull DistributionQueueDispatchingStrategy scheduleQueueStrategy,
+            @NotNull DistributionQueueProvider queueProvider,
+            @NotNull DefaultDistributionLog log,
+            @NotNull String agentName,
+            @Nullable BiConsumer<String, DistributionQueueItem> superseded) {
         this.callingUser = callingUser;
         this.requestId = requestId;
         this.requestStartTime = requestStartTime;
@@ -94,6 +127,7 @@ class QueueingDistributionPackageProcessor implements DistributionPackageProcess
         this.queueProvider = queueProvider;
         this.log = log;
         this.agentName = agentName;
+        this.superseded = superseded;
     }
 
     @Override
@@ -131,8 +165,9 @@ class QueueingDistributionPackageProcessor implements DistributionPackageProcess
                     .put(DistributionPackageUtils.PACKAGE_INFO_PROPERTY_REQUEST_START_TIME, startTime);
 
             // put the package in the queue
-            Iterable<DistributionQueueItemStatus> states =
-                    scheduleQueueStrategy.add(distributionPackage, queueProvider);
+            Iterable<DistributionQueueItemStatus> states = superseded != null && scheduleQueueStrategy.isCoalescing()
+                    ? scheduleQueueStrategy.add(distributionPackage, queueProvider, superseded)
+                    : scheduleQueueStrategy.add(distributionPackage, queueProvider);
             for (DistributionQueueItemStatus state : states) {
                 DistributionRequestState requestState = getRequestStateFromQueueState(state.getItemState());
                 distributionResponses.add(new SimpleDistributionResponse(
@@ -144,6 +179,19 @@ class QueueingDistributionPackageProcessor implements DistributionPackageProcess
                     DistributionComponentKind.AGENT,
                     agentName,
                     distributionPackage.getInfo());
+        } catch (DistributionQueueFullException e) {
+            log.warn("package {} not queued: {}", distributionPackage.getId(), e.getMessage());
+            DistributionPackageUtils.deleteSafely(distributionPackage);
+            int queued = getAcceptedCount();
+            if (queued > 0) {
+                distributionResponses.add(new SimpleDistributionResponse(
+                        DistributionRequestState.DROPPED,
+                        "partially accepted, package " + distributionPackage.getId() + " not queued after " + queued
+                                + " queued items: " + e.getMessage()));
+            } else {
+                distributionResponses.add(
+                        new SimpleDistributionResponse(DistributionRequestState.NOT_EXECUTED, e.getMessage()));
+            }
         } catch (DistributionException e) {
             log.error("an error happened during dispatching items to the queue(s)", e);
             distributionResponses.add(new SimpleDistributionResponse(DistributionRequestState.DROPPED, e.toString()));
@@ -152,6 +200,17 @@ class QueueingDistributionPackageProcessor implements DistributionPackageProcess
         return distributionResponses;
     }
 
+    /* Count the items of the request queued so far */
+    private int getAcceptedCount() {
+        int count = 0;
+        for (DistributionResponse response : allResponses) {
+            if (DistributionRequestState.ACCEPTED.equals(response.getState())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     /* Convert the state of a certain item in the queue into a request state */
     private DistributionRequestState getRequestStateFromQueueState(DistributionQueueItemState itemState) {
         DistributionRequestState requestState;
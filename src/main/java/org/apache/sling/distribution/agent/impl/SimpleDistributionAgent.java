@@ -45,6 +45,8 @@ import org.apache.sling.distribution.packaging.DistributionPackage;
 import org.apache.sling.distribution.packaging.impl.DistributionPackageExporter;
 import org.apache.sling.distribution.packaging.impl.DistributionPackageImporter;
 import org.apache.sling.distribution.packaging.impl.DistributionPackageProcessor;
+import org.apache.sling.distribution.packaging.impl.DistributionPackageUtils;
+import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.apache.sling.distribution.queue.DistributionQueueState;
 import org.apache.sling.distribution.queue.impl.DistributionQueueDispatchingStrategy;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProcessor;
@@ -277,7 +279,8 @@ public class SimpleDistributionAgent implements DistributionAgent {
                     scheduleQueueStrategy,
                     queueProvider,
                     log,
-                    name);
+                    name,
+                    (queueName, item) -> releaseSuperseded(agentResourceResolver, queueName, item));
         }
         // export packages
         distributionPackageExporter.exportPackages(agentResourceResolver, distributionRequest, packageProcessor);
@@ -419,6 +422,17 @@ public class SimpleDistributionAgent implements DistributionAgent {
         }
     }
 
+    private void releaseSuperseded(
+            ResourceResolver agentResourceResolver, String queueName, DistributionQueueItem item) {
+        try {
+            DistributionPackage distributionPackage =
+                    distributionPackageExporter.getPackage(agentResourceResolver, item.getPackageId());
+            DistributionPackageUtils.releaseOrDelete(distributionPackage, queueName);
+        } catch (DistributionException e) {
+            log.warn("cannot release superseded package {}", item.getPackageId(), e);
+        }
+    }
+
     private void generatePackageEvent(String topic, DistributionPackage... distributionPackages) {
         for (DistributionPackage distributionPackage : distributionPackages) {
             distributionEventFactory.generatePackageEvent(
@@ -47,6 +47,7 @@ import org.slf4j.LoggerFactory;
  * If item can be delivered it can be removed from the queue, if it cannot be delivered because of a {@link RecoverableDistributionException}
  * like a connection issue the item will stay in the queue, for other types of errors the item will be moved to the
  * current queue "error queue" if that exists.
+ * The delay before reattempting an item is left to the queue processing, the processor never waits for it.
  */
 class SimpleDistributionAgentQueueProcessor implements DistributionQueueProcessor {
 
@@ -120,13 +121,6 @@ class SimpleDistributionAgentQueueProcessor implements DistributionQueueProcesso
         DistributionQueueItemStatus queueItemStatus = queueEntry.getStatus();
         try {
 
-            int processingAttempt = queueItemStatus.getAttempts();
-            if (processingAttempt > 0) {
-                // since there is a retry, it is possible that the same error is observed again
-                // we should add a linear backoff using random delay before re-attempting to distribute the same item.
-                addRandomDelay(queueItemStatus.getAttempts());
-            }
-
             String callingUser =
                     queueItem.get(DistributionPackageUtils.PACKAGE_INFO_PROPERTY_REQUEST_USER, String.class);
             String requestId = queueItem.get(DistributionPackageUtils.PACKAGE_INFO_PROPERTY_REQUEST_ID, String.class);
@@ -226,18 +220,6 @@ class SimpleDistributionAgentQueueProcessor implements DistributionQueueProcesso
         return removeItemFromQueue;
     }
 
-    private void addRandomDelay(int retryAttempts) {
-        int min = 1;
-        int max = Math.min(retryAttempts, 30);
-        int random = (int) (Math.random() * (max - min + 1) + min);
-        try {
-            Thread.sleep(random * 1000);
-        } catch (InterruptedException ign) {
-            // eat this exception
-            // If there is an exception in Thread.sleep(), we will retry to distribute queueItem immediately.
-        }
-    }
-
     private boolean reEnqueuePackage(DistributionPackage distributionPackage) {
 
         if (errorQueueStrategy == null) {
@@ -125,6 +125,14 @@ public class CompositeDistributionResponse extends SimpleDistributionResponse {
                     aggregatedState = first;
                 }
                 break;
+            case NOT_EXECUTED:
+                // the request can be retried unless some part of it was dropped
+                if (first.equals(DistributionRequestState.DROPPED)) {
+                    aggregatedState = first;
+                } else {
+                    aggregatedState = DistributionRequestState.NOT_EXECUTED;
+                }
+                break;
             default:
                 aggregatedState = DistributionRequestState.DROPPED;
         }
@@ -87,4 +87,32 @@ public interface DistributionQueueMBean {
      * @return the first item date time when joined the queue or {@code null} if the queue is empty
      */
     Calendar getHeadEnqueuingDate();
+
+    /**
+     * Get the maximum number of items of this queue processed at once.
+     *
+     * @return the maximum number of items processed at once or {@code -1} if unknown
+     */
+    int getMaxParallel();
+
+    /**
+     * Get the number of service logins made by the queues of the agent of this queue.
+     *
+     * @return the number of service logins or {@code -1} if unknown
+     */
+    long getServiceLogins();
+
+    /**
+     * Get the number of statuses of the queues of the agent of this queue read from the status cache.
+     *
+     * @return the number of cache hits or {@code -1} if the statuses are not cached
+     */
+    long getStatusCacheHits();
+
+    /**
+     * Get the number of statuses of the queues of the agent of this queue computed as they were not cached.
+     *
+     * @return the number of cache misses or {@code -1} if the statuses are not cached
+     */
+    long getStatusCacheMisses();
 }
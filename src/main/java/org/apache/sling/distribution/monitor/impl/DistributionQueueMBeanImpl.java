@@ -20,6 +20,8 @@ package org.apache.sling.distribution.monitor.impl;
 
 import java.util.Calendar;
 
+import org.apache.sling.distribution.queue.impl.DistributionQueueProvider;
+import org.apache.sling.distribution.queue.impl.DistributionQueueStatusCache;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 
 /**
@@ -29,8 +31,26 @@ public final class DistributionQueueMBeanImpl implements DistributionQueueMBean
 
     private final DistributionQueue distributionQueue;
 
+    private final int maxParallel;
+
+    private final DistributionQueueProvider queueProvider;
+
     public DistributionQueueMBeanImpl(DistributionQueue distributionQueue) {
+        this(distributionQueue, -1);
+    }
+
+    public DistributionQueueMBeanImpl(DistributionQueue distributionQueue, int maxParallel) {
+        this(distributionQueue, maxParallel, null);
+    }
+
+    /**
+     * @param queueProvider the provider of the queue, if known
+     */
+    public DistributionQueueMBeanImpl(
+            DistributionQueue distributionQueue, int maxParallel, DistributionQueueProvider queueProvider) {
         this.distributionQueue = distributionQueue;
+        this.maxParallel = maxParallel;
+        this.queueProvider = queueProvider;
     }
 
     @Override
@@ -89,4 +109,30 @@ public final class DistributionQueueMBeanImpl implements DistributionQueueMBean
         }
         return null;
     }
+
+    @Override
+    public int getMaxParallel() {
+        return maxParallel;
+    }
+
+    @Override
+    public long getServiceLogins() {
+        return queueProvider != null ? queueProvider.getLoginCount() : -1;
+    }
+
+    @Override
+    public long getStatusCacheHits() {
+        DistributionQueueStatusCache statusCache = getStatusCache();
+        return statusCache != null ? statusCache.getHits() : -1;
+    }
+
+    @Override
+    public long getStatusCacheMisses() {
+        DistributionQueueStatusCache statusCache = getStatusCache();
+        return statusCache != null ? statusCache.getMisses() : -1;
+    }
+
+    private DistributionQueueStatusCache getStatusCache() {
+        return queueProvider != null ? queueProvider.getStatusCache() : null;
+    }
 }
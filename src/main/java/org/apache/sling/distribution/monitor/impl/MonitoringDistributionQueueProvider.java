@@ -31,6 +31,7 @@ import org.apache.sling.distribution.common.DistributionException;
 import org.apache.sling.distribution.queue.DistributionQueueType;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProcessor;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProvider;
+import org.apache.sling.distribution.queue.impl.DistributionQueueStatusCache;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
@@ -59,14 +60,14 @@ public class MonitoringDistributionQueueProvider implements DistributionQueuePro
     @Override
     public DistributionQueue getQueue(String queueName) throws DistributionException {
         DistributionQueue distributionQueue = wrapped.getQueue(queueName);
-        monitorQueue(distributionQueue);
+        monitorQueue(distributionQueue, wrapped.getMaxParallel(queueName, DistributionQueueType.ORDERED));
         return distributionQueue;
     }
 
     @Override
     public DistributionQueue getQueue(String queueName, DistributionQueueType type) {
         DistributionQueue distributionQueue = wrapped.getQueue(queueName, type);
-        monitorQueue(distributionQueue);
+        monitorQueue(distributionQueue, wrapped.getMaxParallel(queueName, type));
         return distributionQueue;
     }
 
@@ -88,10 +89,30 @@ public class MonitoringDistributionQueueProvider implements DistributionQueuePro
         monitoredQueues.clear();
     }
 
-    private void monitorQueue(DistributionQueue distributionQueue) {
+    @Override
+    public int getMaxParallel(String queueName, DistributionQueueType type) {
+        return wrapped.getMaxParallel(queueName, type);
+    }
+
+    @Override
+    public long getLoginCount() {
+        return wrapped.getLoginCount();
+    }
+
+    @Override
+    public DistributionQueueStatusCache getStatusCache() {
+        return wrapped.getStatusCache();
+    }
+
+    @Override
+    public void close() {
+        wrapped.close();
+    }
+
+    private void monitorQueue(DistributionQueue distributionQueue, int maxParallel) {
         try {
             if (monitoredQueues.add(distributionQueue.getName())) {
-                DistributionQueueMBean mBean = new DistributionQueueMBeanImpl(distributionQueue);
+                DistributionQueueMBean mBean = new DistributionQueueMBeanImpl(distributionQueue, maxParallel, wrapped);
 
                 Dictionary<String, String> mBeanProps = new Hashtable<String, String>();
                 mBeanProps.put(
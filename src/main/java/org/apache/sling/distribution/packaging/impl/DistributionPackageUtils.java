@@ -57,6 +57,7 @@ import org.apache.sling.distribution.packaging.DistributionPackage;
 import org.apache.sling.distribution.packaging.DistributionPackageInfo;
 import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
+import org.apache.sling.distribution.queue.impl.DistributionQueueUtils;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -141,7 +142,7 @@ public class DistributionPackageUtils {
      * Delete a distribution package, if deletion fails, ignore it
      * @param distributionPackage the package to delete
      */
-    private static void deleteSafely(DistributionPackage distributionPackage) {
+    public static void deleteSafely(DistributionPackage distributionPackage) {
         if (distributionPackage != null) {
             try {
                 distributionPackage.delete();
@@ -187,6 +188,8 @@ public class DistributionPackageUtils {
 
     public static void mergeQueueEntry(DistributionPackageInfo packageInfo, DistributionQueueEntry entry) {
         packageInfo.putAll(entry.getItem());
+        // the claim only concerns the entry in its queue
+        packageInfo.remove(DistributionQueueUtils.PROPERTY_CLAIMED);
         packageInfo.put(PACKAGE_INFO_PROPERTY_ORIGIN_QUEUE, entry.getStatus().getQueueName());
     }
 
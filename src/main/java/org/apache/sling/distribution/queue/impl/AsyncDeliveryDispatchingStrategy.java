@@ -34,24 +34,42 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Dispatching strategy that delivers items to their target queue unless the queue contains too many items (beyond {@code MAX_QUEUE_ITEMS_THRESHOLD}),
+ * Dispatching strategy that delivers items to their target queue unless the queue contains too many items (beyond {@link #MAX_QUEUE_ITEMS_THRESHOLD}),
  * in such a case a reference package is created and put into that queue while the actual package is sent using a different
  * queue for storage at the receiving side so that it'll be installed only once the reference is processed.
  * This guarantees delivery order while maximizing the network throughput when there're many items in the queues.
+ * When the queues are bounded, a package is only added once all the target queues have room for its reference.
  */
 public class AsyncDeliveryDispatchingStrategy implements DistributionQueueDispatchingStrategy {
 
+    /**
+     * number of items in a target queue beyond which packages are delivered separately from their references
+     */
+    static final int MAX_QUEUE_ITEMS_THRESHOLD = 100;
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final List<String> queues;
     private final Map<String, String> deliveryMappings;
+    private final DistributionQueueCapacity capacity;
 
     /**
      * create an async delivery strategy
      * @param deliveryMappings the mappings (by name) between the default queue for a certain endpoint and its respective delivery queue
      */
     public AsyncDeliveryDispatchingStrategy(Map<String, String> deliveryMappings) {
+        this(deliveryMappings, DistributionQueueCapacity.UNBOUNDED);
+    }
+
+    /**
+     * create an async delivery strategy
+     * @param deliveryMappings the mappings (by name) between the default queue for a certain endpoint and its respective delivery queue
+     * @param capacity the capacity of the queues of the endpoints
+     */
+    public AsyncDeliveryDispatchingStrategy(
+            Map<String, String> deliveryMappings, @NotNull DistributionQueueCapacity capacity) {
         this.deliveryMappings = deliveryMappings;
+        this.capacity = capacity;
         this.queues = new LinkedList<String>();
         queues.addAll(deliveryMappings.keySet());
         queues.addAll(deliveryMappings.values());
@@ -71,10 +89,15 @@ public class AsyncDeliveryDispatchingStrategy implements DistributionQueueDispat
 
         List<DistributionQueueItemStatus> result = new LinkedList<DistributionQueueItemStatus>();
 
+        List<DistributionQueue> referenceQueues = new LinkedList<DistributionQueue>();
+        for (String referenceQueueName : deliveryMappings.keySet()) {
+            referenceQueues.add(queueProvider.getQueue(referenceQueueName));
+        }
+        capacity.await(referenceQueues);
+
         for (String referenceQueueName : deliveryMappings.keySet()) {
             DistributionQueue queue = queueProvider.getQueue(referenceQueueName);
 
-            int MAX_QUEUE_ITEMS_THRESHOLD = 100;
             if (queue.getStatus().getItemsCount() > MAX_QUEUE_ITEMS_THRESHOLD) {
                 // too many items in the queue, let's send actual packages and references separately
 
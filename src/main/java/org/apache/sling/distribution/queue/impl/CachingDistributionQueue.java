@@ -18,8 +18,8 @@
  */
 package org.apache.sling.distribution.queue.impl;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
@@ -29,66 +29,78 @@ import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.jetbrains.annotations.NotNull;
 
 /**
- * {@link DistributionQueueWrapper} that caches entries for 30s.
+ * {@link DistributionQueueWrapper} that caches the queue status in a {@link DistributionQueueStatusCache},
+ * as it is expensive to count items. The cached status is invalidated whenever items are added or removed
+ * through this queue.
  */
 public class CachingDistributionQueue extends DistributionQueueWrapper {
-    // cache status for 30 sec as it is expensive to count items
-    private static final int EXPIRY_QUEUE_CACHE = 30 * 1000;
 
-    private static final Map<String, DistributionQueueStatus> queueCache =
-            new ConcurrentHashMap<String, DistributionQueueStatus>();
-    private static final Map<String, Long> queueCacheExpiry = new ConcurrentHashMap<String, Long>();
+    private final DistributionQueueStatusCache statusCache;
     private final String cacheKey;
 
-    public CachingDistributionQueue(String cacheKey, DistributionQueue wrappedQueue) {
+    public CachingDistributionQueue(
+            String cacheKey, DistributionQueue wrappedQueue, DistributionQueueStatusCache statusCache) {
         super(wrappedQueue);
         this.cacheKey = cacheKey;
+        this.statusCache = statusCache;
     }
 
     @NotNull
     @Override
     public DistributionQueueStatus getStatus() {
+        return statusCache.get(cacheKey, wrappedQueue::getStatus);
+    }
 
-        DistributionQueueStatus queueStatus = null;
-        long now = System.currentTimeMillis();
+    @NotNull
+    @Override
+    public DistributionQueueType getType() {
+        return wrappedQueue.getType();
+    }
 
-        Long expiryDate = queueCacheExpiry.get(cacheKey);
-        if (expiryDate != null && expiryDate < now) {
-            queueCache.remove(cacheKey);
-            queueCacheExpiry.remove(cacheKey);
+    @Override
+    public DistributionQueueEntry add(@NotNull DistributionQueueItem item) {
+        try {
+            return super.add(item);
+        } finally {
+            statusCache.invalidate(cacheKey);
         }
+    }
 
-        queueStatus = queueCache.get(cacheKey);
-
-        if (queueStatus != null) {
-            return queueStatus;
+    @Override
+    public DistributionQueueEntry remove(@NotNull String itemId) {
+        try {
+            return super.remove(itemId);
+        } finally {
+            statusCache.invalidate(cacheKey);
         }
-
-        queueStatus = wrappedQueue.getStatus();
-
-        queueCache.put(cacheKey, queueStatus);
-        queueCacheExpiry.put(cacheKey, System.currentTimeMillis() + EXPIRY_QUEUE_CACHE);
-
-        return queueStatus;
     }
 
     @NotNull
     @Override
-    public DistributionQueueType getType() {
-        return wrappedQueue.getType();
+    public Iterable<DistributionQueueEntry> remove(@NotNull Set<String> entryIds) {
+        try {
+            return super.remove(entryIds);
+        } finally {
+            statusCache.invalidate(cacheKey);
+        }
     }
 
+    @NotNull
     @Override
-    public DistributionQueueEntry add(@NotNull DistributionQueueItem item) {
-        queueCache.remove(cacheKey);
-        queueCacheExpiry.remove(cacheKey);
-        return super.add(item);
+    public Iterable<DistributionQueueEntry> clear(int limit) {
+        try {
+            return super.clear(limit);
+        } finally {
+            statusCache.invalidate(cacheKey);
+        }
     }
 
     @Override
-    public DistributionQueueEntry remove(@NotNull String itemId) {
-        queueCache.remove(cacheKey);
-        queueCacheExpiry.remove(cacheKey);
-        return super.remove(itemId);
+    public int clear(int limit, @NotNull Consumer<DistributionQueueEntry> removed) {
+        try {
+            return super.clear(limit, removed);
+        } finally {
+            statusCache.invalidate(cacheKey);
+        }
     }
 }
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl;
+
+import java.util.Collection;
+
+import org.apache.sling.distribution.queue.spi.DistributionQueue;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The maximum number of items of the queues packages are dispatched to.
+ *
+ * Once one of the target queues holds as many items as its high-water mark, dispatching either fails right away or
+ * waits for the queue to drain, up to a timeout, depending on the {@link Policy}.
+ */
+public class DistributionQueueCapacity {
+
+    public static final long DEFAULT_TIMEOUT = 10000;
+
+    public static final DistributionQueueCapacity UNBOUNDED = new DistributionQueueCapacity(0, Policy.REJECT, 0);
+
+    /**
+     * the interval in milliseconds at which full queues are checked while waiting for them to drain
+     */
+    static final long POLL_INTERVAL = 100;
+
+    public enum Policy {
+        /**
+         * fail dispatching right away
+         */
+        REJECT,
+
+        /**
+         * wait for the queues to drain, up to the timeout
+         */
+        BLOCK
+    }
+
+    private final int highWaterMark;
+
+    private final Policy policy;
+
+    private final long timeout;
+
+    /**
+     * @param highWaterMark the maximum number of items of a queue, {@code 0} or less for unbounded queues
+     * @param policy what to do when a queue is full
+     * @param timeout the maximum time in milliseconds to wait for full queues to drain, with {@link Policy#BLOCK}
+     */
+    public DistributionQueueCapacity(int highWaterMark, @NotNull Policy policy, long timeout) {
+        this.highWaterMark = Math.max(0, highWaterMark);
+        this.policy = policy;
+        this.timeout = Math.max(0, timeout);
+    }
+
+    public boolean isBounded() {
+        return highWaterMark > 0;
+    }
+
+    /**
+     * make sure that none of the given queues is full, waiting for them to drain if required by the policy
+     *
+     * @param queues the queues packages are about to be added to
+     * @throws DistributionQueueFullException if one of the queues is full
+     */
+    public void await(@NotNull Collection<DistributionQueue> queues) throws DistributionQueueFullException {
+        if (!isBounded()) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + (policy == Policy.BLOCK ? timeout : 0);
+        DistributionQueue full;
+        while ((full = getFullQueue(queues)) != null) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new DistributionQueueFullException(full.getName(), highWaterMark);
+            }
+            try {
+                Thread.sleep(Math.min(POLL_INTERVAL, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DistributionQueueFullException(full.getName(), highWaterMark);
+            }
+        }
+    }
+
+    private DistributionQueue getFullQueue(Collection<DistributionQueue> queues) {
+        for (DistributionQueue queue : queues) {
+            if (queue.getStatus().getItemsCount() >= highWaterMark) {
+                return queue;
+            }
+        }
+        return null;
+    }
+
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    @NotNull
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public String toString() {
+        return "DistributionQueueCapacity{" + "highWaterMark=" + highWaterMark + ", policy=" + policy + ", timeout="
+                + timeout + '}';
+    }
+}
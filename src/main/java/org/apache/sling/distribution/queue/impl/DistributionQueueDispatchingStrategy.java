@@ -19,9 +19,11 @@
 package org.apache.sling.distribution.queue.impl;
 
 import java.util.List;
+import java.util.function.BiConsumer;
 
 import org.apache.sling.distribution.common.DistributionException;
 import org.apache.sling.distribution.packaging.DistributionPackage;
+import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.jetbrains.annotations.NotNull;
@@ -53,6 +55,36 @@ public interface DistributionQueueDispatchingStrategy {
             @NotNull DistributionPackage distributionPackage, @NotNull DistributionQueueProvider queueProvider)
             throws DistributionException;
 
+    /**
+     * synchronously distribute a {@link DistributionPackage}
+     * to one or more {@link DistributionQueue}s provided by the given {@link DistributionQueueProvider},
+     * possibly removing the queued items which the package supersedes
+     *
+     * @param distributionPackage a {@link DistributionPackage} to distribute
+     * @param queueProvider       the {@link DistributionQueueProvider} used to provide the queues to be used for the given package
+     * @param superseded          notified with the queue name and the item of each queued item removed because superseded
+     *                            by the package, so that the package of the item can be released
+     * @return an {@link java.lang.Iterable} of {@link org.apache.sling.distribution.queue.DistributionQueueItemStatus}s representing
+     * the states of the {@link org.apache.sling.distribution.queue.DistributionQueueItem}s added to one or more {@link DistributionQueue}s
+     * @throws DistributionException if any internal error happens during distribution
+     */
+    default Iterable<DistributionQueueItemStatus> add(
+            @NotNull DistributionPackage distributionPackage,
+            @NotNull DistributionQueueProvider queueProvider,
+            @NotNull BiConsumer<String, DistributionQueueItem> superseded)
+            throws DistributionException {
+        return add(distributionPackage, queueProvider);
+    }
+
+    /**
+     * Returns whether adding a package may remove the queued items it supersedes.
+     *
+     * @return {@code true} if the strategy coalesces queued items
+     */
+    default boolean isCoalescing() {
+        return false;
+    }
+
     /**
      * Returns the queue names available for this strategy.
      *
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.sling.distribution.packaging.DistributionPackageInfo;
+import org.apache.sling.distribution.queue.DistributionQueueItem;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The priority lanes of a single queue.
+ *
+ * Each lane is selected by a path matcher and has a weight; an item goes to the first lane matching one of its paths,
+ * or to the default lane, which comes last. The item property {@link #PROPERTY_LANE} overrides the path selection.
+ * Queues supporting lanes dequeue them by smooth weighted round robin, so that each non empty lane gets a share of
+ * the processing proportional to its weight, and serve first the items which waited longer than the maximum wait.
+ * An item is never dequeued ahead of an item with overlapping paths queued before it, whatever their lanes.
+ */
+public class DistributionQueueLanes {
+
+    /**
+     * the item property holding the index of the lane of an item
+     */
+    public static final String PROPERTY_LANE = "internal.queue.lane";
+
+    public static final int DEFAULT_WEIGHT = 1;
+
+    public static final long DEFAULT_MAX_WAIT = 60000;
+
+    public static final DistributionQueueLanes NONE =
+            new DistributionQueueLanes(new String[0], DEFAULT_WEIGHT, DEFAULT_MAX_WAIT);
+
+    private final Pattern[] matchers;
+
+    private final int[] weights;
+
+    private final long maxWait;
+
+    /**
+     * @param selectors the lanes, in order of precedence, in the format {@code {weight}={pathMatcher}},
+     *                  e.g. {@code 10=/content/news/.*}
+     * @param defaultWeight the weight of the default lane
+     * @param maxWait the time in milliseconds after which an item is served ahead of its lane turn, {@code 0} or less
+     *                to never serve items ahead of their turn
+     */
+    public DistributionQueueLanes(@NotNull String[] selectors, int defaultWeight, long maxWait) {
+        List<Pattern> matchers = new ArrayList<Pattern>(selectors.length);
+        List<Integer> weights = new ArrayList<Integer>(selectors.length + 1);
+        for (String selector : selectors) {
+            int idx = selector.indexOf('=');
+            if (idx <= 0 || idx == selector.length() - 1) {
+                throw new IllegalArgumentException("invalid lane selector " + selector);
+            }
+            try {
+                weights.add(
+                        Math.max(1, Integer.parseInt(selector.substring(0, idx).trim())));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid lane weight in selector " + selector, e);
+            }
+            matchers.add(Pattern.compile(selector.substring(idx + 1).trim()));
+        }
+        weights.add(Math.max(1, defaultWeight));
+
+        this.matchers = matchers.toArray(new Pattern[matchers.size()]);
+        this.weights = new int[weights.size()];
+        for (int i = 0; i < this.weights.length; i++) {
+            this.weights[i] = weights.get(i);
+        }
+        this.maxWait = Math.max(0, maxWait);
+    }
+
+    /**
+     * @return {@code true} if there is more than the default lane
+     */
+    public boolean isEnabled() {
+        return weights.length > 1;
+    }
+
+    public int getLaneCount() {
+        return weights.length;
+    }
+
+    public int getDefaultLane() {
+        return weights.length - 1;
+    }
+
+    public int getWeight(int lane) {
+        return weights[lane];
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * @param item a queue item
+     * @return the lane of the item
+     */
+    public int getLane(@NotNull DistributionQueueItem item) {
+        Integer lane = item.get(PROPERTY_LANE, Integer.class);
+        if (lane != null) {
+            return lane >= 0 && lane < weights.length ? lane : getDefaultLane();
+        }
+        return getLane(item.get(DistributionPackageInfo.PROPERTY_REQUEST_PATHS, String[].class));
+    }
+
+    private int getLane(String[] paths) {
+        if (paths != null) {
+            for (int i = 0; i < matchers.length; i++) {
+                for (String path : paths) {
+                    if (path != null && matchers[i].matcher(path).matches()) {
+                        return i;
+                    }
+                }
+            }
+        }
+        return getDefaultLane();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder lanes = new StringBuilder();
+        for (int i = 0; i < matchers.length; i++) {
+            lanes.append(weights[i]).append('=').append(matchers[i].pattern()).append(", ");
+        }
+        return "DistributionQueueLanes{" + "lanes=[" + lanes + "default=" + weights[getDefaultLane()] + "], maxWait="
+                + maxWait + '}';
+    }
+}
@@ -22,6 +22,7 @@ import org.apache.sling.distribution.common.DistributionException;
 import org.apache.sling.distribution.queue.DistributionQueueType;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.annotation.versioning.ProviderType;
 
 /**
@@ -61,4 +62,39 @@ public interface DistributionQueueProvider {
      *
      */
     void disableQueueProcessing() throws DistributionException;
+
+    /**
+     * get the maximum number of items of a queue processed at once
+     *
+     * @param queueName the name of the queue
+     * @param type the type of the queue
+     * @return the maximum number of items processed at once, or {@code -1} if unknown
+     */
+    default int getMaxParallel(@NotNull String queueName, @NotNull DistributionQueueType type) {
+        return -1;
+    }
+
+    /**
+     * get the number of service logins made by the queues of this provider
+     *
+     * @return the number of service logins, or {@code -1} if unknown
+     */
+    default long getLoginCount() {
+        return -1;
+    }
+
+    /**
+     * get the cache of the statuses of the queues of this provider
+     *
+     * @return the status cache, or {@code null} if the statuses are not cached
+     */
+    @Nullable
+    default DistributionQueueStatusCache getStatusCache() {
+        return null;
+    }
+
+    /**
+     * release the resources held by the queues of this provider, once it is not used anymore
+     */
+    default void close() {}
 }
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Jittered exponential backoff applied before reattempting a queue entry which failed to be processed.
+ *
+ * The delay before the n-th reattempt doubles with each attempt, starting from the initial delay and capped
+ * by the maximum delay; a random amount of up to half of it is subtracted so that entries failing together
+ * are not all reattempted at once.
+ */
+public class DistributionQueueRetryBackoff {
+
+    public static final long DEFAULT_INITIAL_DELAY = 1000;
+
+    public static final long DEFAULT_MAX_DELAY = 30000;
+
+    public static final DistributionQueueRetryBackoff DEFAULT =
+            new DistributionQueueRetryBackoff(DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY);
+
+    private final long initialDelay;
+
+    private final long maxDelay;
+
+    /**
+     * @param initialDelay the delay in milliseconds before the first reattempt
+     * @param maxDelay the maximum delay in milliseconds before a reattempt
+     */
+    public DistributionQueueRetryBackoff(long initialDelay, long maxDelay) {
+        this.initialDelay = Math.max(0, initialDelay);
+        this.maxDelay = Math.max(this.initialDelay, maxDelay);
+    }
+
+    /**
+     * @param attempts the number of failed processing attempts of the entry
+     * @return the delay in milliseconds before the entry is attempted again
+     */
+    public long getDelay(int attempts) {
+        if (attempts <= 0 || initialDelay == 0) {
+            return 0;
+        }
+        long delay = initialDelay;
+        for (int i = 1; i < attempts && delay < maxDelay; i++) {
+            delay <<= 1;
+        }
+        delay = Math.min(delay, maxDelay);
+        return delay - ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    @Override
+    public String toString() {
+        return "DistributionQueueRetryBackoff{" + "initialDelay=" + initialDelay + ", maxDelay=" + maxDelay + '}';
+    }
+}
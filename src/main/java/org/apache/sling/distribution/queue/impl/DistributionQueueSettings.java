@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl;
+
+import org.apache.sling.distribution.queue.DistributionQueueType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Settings that control the processing of the queues of the simple and resource queue providers.
+ */
+public class DistributionQueueSettings {
+
+    public static final DistributionQueueSettings DEFAULT =
+            new DistributionQueueSettings(1, DistributionQueueRetryBackoff.DEFAULT, false, DistributionQueueLanes.NONE);
+
+    private final int parallelism;
+    private final DistributionQueueRetryBackoff retryBackoff;
+    private final boolean skipAhead;
+    private final DistributionQueueLanes lanes;
+    private final boolean coalesce;
+
+    /**
+     * @param parallelism the number of workers processing each {@link DistributionQueueType#PARALLEL} queue
+     * @param retryBackoff the backoff applied before reattempting the entries which failed to be processed
+     * @param skipAhead whether the entries of ordered queues not overlapping the paths of a blocked entry
+     *                  are processed ahead of it
+     * @param lanes the priority lanes the items of each queue are dequeued from
+     */
+    public DistributionQueueSettings(
+            int parallelism,
+            @NotNull DistributionQueueRetryBackoff retryBackoff,
+            boolean skipAhead,
+            @NotNull DistributionQueueLanes lanes) {
+        this(parallelism, retryBackoff, skipAhead, lanes, false);
+    }
+
+    /**
+     * @param parallelism the number of workers processing each {@link DistributionQueueType#PARALLEL} queue
+     * @param retryBackoff the backoff applied before reattempting the entries which failed to be processed
+     * @param skipAhead whether the entries of ordered queues not overlapping the paths of a blocked entry
+     *                  are processed ahead of it
+     * @param lanes the priority lanes the items of each queue are dequeued from
+     * @param coalesce whether queued items may be superseded by newer ones, in which case the entries
+     *                 are claimed before being processed
+     */
+    public DistributionQueueSettings(
+            int parallelism,
+            @NotNull DistributionQueueRetryBackoff retryBackoff,
+            boolean skipAhead,
+            @NotNull DistributionQueueLanes lanes,
+            boolean coalesce) {
+        this.parallelism = Math.max(1, parallelism);
+        this.retryBackoff = retryBackoff;
+        this.skipAhead = skipAhead;
+        this.lanes = lanes;
+        this.coalesce = coalesce;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @NotNull
+    public DistributionQueueRetryBackoff getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    public boolean isSkipAhead() {
+        return skipAhead;
+    }
+
+    @NotNull
+    public DistributionQueueLanes getLanes() {
+        return lanes;
+    }
+
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+
+    @Override
+    public String toString() {
+        return "DistributionQueueSettings{" + "parallelism=" + parallelism + ", retryBackoff=" + retryBackoff
+                + ", skipAhead=" + skipAhead + ", lanes=" + lanes + ", coalesce=" + coalesce + '}';
+    }
+}
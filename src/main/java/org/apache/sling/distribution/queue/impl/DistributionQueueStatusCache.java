@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.sling.distribution.queue.DistributionQueueStatus;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A cache of {@link DistributionQueueStatus}es, by key, expiring after a given time.
+ *
+ * Only one thread at a time computes the status for a given key, the other threads asking for it meanwhile wait
+ * for and get the computed status. The least recently used keys are evicted once the cache is full.
+ * A status computed while its key is invalidated is returned to the thread which computed it but not cached.
+ */
+public class DistributionQueueStatusCache {
+
+    public static final long DEFAULT_TTL = 30000;
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final long ttl;
+
+    private final Map<String, CacheEntry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public DistributionQueueStatusCache() {
+        this(DEFAULT_TTL, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param ttl the time in milliseconds a status is cached for
+     * @param maxSize the maximum number of cached statuses
+     */
+    public DistributionQueueStatusCache(long ttl, final int maxSize) {
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param key the cache key
+     * @param loader computes the status if it is not cached or expired
+     * @return the cached or computed status
+     */
+    @NotNull
+    public DistributionQueueStatus get(@NotNull String key, @NotNull Supplier<DistributionQueueStatus> loader) {
+        CacheEntry entry = getEntry(key);
+        Cached cached = entry.cached;
+        if (cached != null && cached.isValid()) {
+            hits.incrementAndGet();
+            return cached.status;
+        }
+        synchronized (entry) {
+            // computed by another thread meanwhile
+            cached = entry.cached;
+            if (cached != null && cached.isValid()) {
+                hits.incrementAndGet();
+                return cached.status;
+            }
+            misses.incrementAndGet();
+            long invalidations = entry.invalidations.get();
+            DistributionQueueStatus status = loader.get();
+            if (ttl > 0 && invalidations == entry.invalidations.get()) {
+                entry.cached = new Cached(status, System.currentTimeMillis() + ttl);
+            }
+            return status;
+        }
+    }
+
+    /**
+     * drop the status cached for the given key, if any
+     *
+     * @param key the cache key
+     */
+    public void invalidate(@NotNull String key) {
+        CacheEntry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            entry.invalidations.incrementAndGet();
+            entry.cached = null;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the number of statuses returned from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of statuses computed
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private CacheEntry getEntry(String key) {
+        synchronized (entries) {
+            CacheEntry entry = entries.get(key);
+            if (entry == null) {
+                entry = new CacheEntry();
+                entries.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    private static final class CacheEntry {
+
+        private volatile Cached cached;
+
+        private final AtomicLong invalidations = new AtomicLong();
+    }
+
+    private static final class Cached {
+
+        private final DistributionQueueStatus status;
+
+        private final long expiry;
+
+        private Cached(DistributionQueueStatus status, long expiry) {
+            this.status = status;
+            this.expiry = expiry;
+        }
+
+        private boolean isValid() {
+            return expiry > System.currentTimeMillis();
+        }
+    }
+}
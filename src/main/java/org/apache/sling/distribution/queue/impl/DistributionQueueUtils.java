@@ -18,6 +18,8 @@
  */
 package org.apache.sling.distribution.queue.impl;
 
+import org.apache.sling.distribution.packaging.DistributionPackageInfo;
+import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
 import org.apache.sling.distribution.queue.DistributionQueueState;
@@ -27,6 +29,11 @@ import org.apache.sling.distribution.queue.DistributionQueueState;
  */
 public class DistributionQueueUtils {
 
+    /**
+     * item property set on the entries claimed by a queue processor, which may be being processed
+     */
+    public static final String PROPERTY_CLAIMED = "internal.queue.claimed";
+
     /**
      * Calculate the {@link DistributionQueueState} of an item given its status.
      * @param item a queue item
@@ -48,4 +55,48 @@ public class DistributionQueueUtils {
             return DistributionQueueState.IDLE;
         }
     }
+
+    /**
+     * Check whether a queue processor has claimed an entry, which may then be being processed.
+     * @param entry a queue entry
+     * @return {@code true} if the entry has been claimed
+     */
+    public static boolean isClaimed(DistributionQueueEntry entry) {
+        return Boolean.TRUE.equals(entry.getItem().get(PROPERTY_CLAIMED, Boolean.class));
+    }
+
+    /**
+     * Get the paths distributed by a queue item.
+     * @param item a queue item
+     * @return the paths of the item, or {@code null} if they are not known
+     */
+    public static String[] getPaths(DistributionQueueItem item) {
+        String[] paths = item.get(DistributionPackageInfo.PROPERTY_REQUEST_PATHS, String[].class);
+        return paths != null && paths.length > 0 ? paths : null;
+    }
+
+    /**
+     * Check whether two sets of paths overlap, i.e. whether a path of one set is equal to, an ancestor or
+     * a descendant of a path of the other set.
+     * @param paths some paths
+     * @param otherPaths some other paths
+     * @return {@code true} if the paths overlap
+     */
+    public static boolean overlaps(String[] paths, String[] otherPaths) {
+        for (String path : paths) {
+            for (String otherPath : otherPaths) {
+                if (isSameOrAncestor(path, otherPath) || isSameOrAncestor(otherPath, path)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSameOrAncestor(String path, String otherPath) {
+        if (!otherPath.startsWith(path)) {
+            return false;
+        }
+        return otherPath.length() == path.length() || path.endsWith("/") || otherPath.charAt(path.length()) == '/';
+    }
 }
@@ -22,6 +22,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
@@ -61,6 +62,12 @@ public abstract class DistributionQueueWrapper implements DistributionQueue {
         return wrappedQueue.getHead();
     }
 
+    @NotNull
+    @Override
+    public Iterable<DistributionQueueEntry> getHead(int limit) {
+        return wrappedQueue.getHead(limit);
+    }
+
     @NotNull
     @Override
     public Iterable<DistributionQueueEntry> getEntries(int skip, int limit) {
@@ -95,6 +102,11 @@ public abstract class DistributionQueueWrapper implements DistributionQueue {
         return wrappedQueue.clear(limit);
     }
 
+    @Override
+    public int clear(int limit, @NotNull Consumer<DistributionQueueEntry> removed) {
+        return wrappedQueue.clear(limit, removed);
+    }
+
     @Override
     public boolean hasCapability(@NotNull String capability) {
         return CAPABILITIES.contains(capability);
@@ -20,10 +20,15 @@ package org.apache.sling.distribution.queue.impl;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
+import org.apache.sling.distribution.DistributionRequestType;
 import org.apache.sling.distribution.common.DistributionException;
 import org.apache.sling.distribution.packaging.DistributionPackage;
+import org.apache.sling.distribution.packaging.DistributionPackageInfo;
 import org.apache.sling.distribution.packaging.impl.DistributionPackageUtils;
 import org.apache.sling.distribution.packaging.impl.SharedDistributionPackage;
 import org.apache.sling.distribution.queue.DistributionQueueEntry;
@@ -32,25 +37,67 @@ import org.apache.sling.distribution.queue.DistributionQueueItemState;
 import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * The default strategy for delivering packages to queues. Each package can be dispatched to multiple queues.
+ *
+ * When coalescing, adding an {@link DistributionRequestType#ADD} package removes the queued items which have not been
+ * attempted yet and add the same (non deep) paths, as the new package supersedes them. The items
+ * {@link DistributionQueueUtils#isClaimed claimed} by a queue processor, which may be being processed, and the items
+ * at the head of the queues are left.
+ *
+ * When the queues are bounded, a package is only added once all of its target queues have room for it.
  */
 public class MultipleQueueDispatchingStrategy implements DistributionQueueDispatchingStrategy {
 
+    /**
+     * number of items at the head of a queue which are never superseded, claimed or not
+     */
+    static final int COALESCE_SKIP = 10;
+
+    /**
+     * number of items after the head of a queue looked at for superseded items
+     */
+    static final int COALESCE_LIMIT = 1000;
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final String[] queueNames;
 
+    private final boolean coalesce;
+
+    private final DistributionQueueCapacity capacity;
+
     public MultipleQueueDispatchingStrategy(String[] queueNames) {
+        this(queueNames, false);
+    }
+
+    public MultipleQueueDispatchingStrategy(String[] queueNames, boolean coalesce) {
+        this(queueNames, coalesce, DistributionQueueCapacity.UNBOUNDED);
+    }
+
+    public MultipleQueueDispatchingStrategy(
+            String[] queueNames, boolean coalesce, @NotNull DistributionQueueCapacity capacity) {
         this.queueNames = Arrays.copyOf(queueNames, queueNames.length);
+        this.coalesce = coalesce;
+        this.capacity = capacity;
     }
 
     public Iterable<DistributionQueueItemStatus> add(
             @NotNull DistributionPackage distributionPackage, @NotNull DistributionQueueProvider queueProvider)
             throws DistributionException {
+        return add(distributionPackage, queueProvider, null);
+    }
+
+    @Override
+    public Iterable<DistributionQueueItemStatus> add(
+            @NotNull DistributionPackage distributionPackage,
+            @NotNull DistributionQueueProvider queueProvider,
+            @Nullable BiConsumer<String, DistributionQueueItem> superseded)
+            throws DistributionException {
 
         if (!(distributionPackage instanceof SharedDistributionPackage) && queueNames.length > 1) {
             throw new DistributionException(
@@ -60,15 +107,27 @@ public class MultipleQueueDispatchingStrategy implements DistributionQueueDispat
         DistributionQueueItem queueItem = getItem(distributionPackage);
         List<DistributionQueueItemStatus> result = new ArrayList<DistributionQueueItemStatus>();
 
+        List<DistributionQueue> queues = new ArrayList<DistributionQueue>(queueNames.length);
+        for (String queueName : queueNames) {
+            queues.add(queueProvider.getQueue(queueName));
+        }
+        // the package is added to all the queues or to none of them
+        capacity.await(queues);
+
         // first acquire the package for all queues
         DistributionPackageUtils.acquire(distributionPackage, queueNames);
 
         // second add the package to all queues
-        for (String queueName : queueNames) {
-            DistributionQueue queue = queueProvider.getQueue(queueName);
+        for (int i = 0; i < queueNames.length; i++) {
+            String queueName = queueNames[i];
+            DistributionQueue queue = queues.get(i);
             DistributionQueueItemStatus status =
                     new DistributionQueueItemStatus(DistributionQueueItemState.ERROR, queue.getName());
 
+            if (coalesce && superseded != null && isCoalescable(queueItem)) {
+                supersede(queue, queueItem, superseded);
+            }
+
             DistributionQueueEntry queueEntry = queue.add(queueItem);
 
             if (queueEntry != null) {
@@ -84,11 +143,66 @@ public class MultipleQueueDispatchingStrategy implements DistributionQueueDispat
         return result;
     }
 
+    @Override
+    public boolean isCoalescing() {
+        return coalesce;
+    }
+
     @NotNull
     public List<String> getQueueNames() {
         return Arrays.asList(queueNames);
     }
 
+    private void supersede(
+            DistributionQueue queue,
+            DistributionQueueItem queueItem,
+            BiConsumer<String, DistributionQueueItem> superseded) {
+        Set<String> paths = new HashSet<String>(Arrays.asList(DistributionQueueUtils.getPaths(queueItem)));
+        String packageType = queueItem.get(DistributionPackageInfo.PROPERTY_PACKAGE_TYPE, String.class);
+        Set<String> entryIds = new HashSet<String>();
+        for (DistributionQueueEntry entry : queue.getEntries(COALESCE_SKIP, COALESCE_LIMIT)) {
+            DistributionQueueItem item = entry.getItem();
+            if (entry.getStatus().getAttempts() == 0
+                    && !DistributionQueueUtils.isClaimed(entry)
+                    && isCoalescable(item)
+                    && paths.equals(new HashSet<String>(Arrays.asList(DistributionQueueUtils.getPaths(item))))
+                    && (packageType == null
+                            || packageType.equals(
+                                    item.get(DistributionPackageInfo.PROPERTY_PACKAGE_TYPE, String.class)))) {
+                entryIds.add(entry.getId());
+            }
+        }
+        if (entryIds.isEmpty()) {
+            return;
+        }
+        for (DistributionQueueEntry removed : queue.remove(entryIds)) {
+            if (DistributionQueueUtils.isClaimed(removed)) {
+                // claimed meanwhile, its processing releases the package
+                log.warn(
+                        "item {} in queue {} superseded by package {} while being processed",
+                        removed.getId(),
+                        queue.getName(),
+                        queueItem.getPackageId());
+                continue;
+            }
+            log.debug(
+                    "item {} in queue {} superseded by package {}",
+                    removed.getId(),
+                    queue.getName(),
+                    queueItem.getPackageId());
+            superseded.accept(queue.getName(), removed.getItem());
+        }
+    }
+
+    private boolean isCoalescable(DistributionQueueItem item) {
+        String[] deepPaths = item.get(DistributionPackageInfo.PROPERTY_REQUEST_DEEP_PATHS, String[].class);
+        return DistributionRequestType.ADD
+                        .name()
+                        .equals(String.valueOf(item.get(DistributionPackageInfo.PROPERTY_REQUEST_TYPE)))
+                && DistributionQueueUtils.getPaths(item) != null
+                && (deepPaths == null || deepPaths.length == 0);
+    }
+
     private DistributionQueueItem getItem(DistributionPackage distributionPackage) {
         return DistributionPackageUtils.toQueueItem(distributionPackage);
     }
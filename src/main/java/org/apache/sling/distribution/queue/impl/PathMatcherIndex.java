@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An index of path matchers, compiled once, finding the matchers a path matches.
+ *
+ * Each matcher is registered in a prefix trie under the literal prefix of its regular expression, so that only the
+ * matchers whose prefix starts the path are evaluated; matchers without a literal prefix are evaluated for any path.
+ */
+class PathMatcherIndex {
+
+    private static final String META_CHARACTERS = "\\[](){}.*+?^$|";
+
+    private final Pattern[] patterns;
+
+    private final Node root = new Node();
+
+    /**
+     * @param matchers the regular expressions of the matchers, identified by their position
+     */
+    PathMatcherIndex(@NotNull List<String> matchers) {
+        this.patterns = new Pattern[matchers.size()];
+        for (int i = 0; i < patterns.length; i++) {
+            String matcher = matchers.get(i);
+            patterns[i] = Pattern.compile(matcher);
+            Node node = root;
+            for (char c : getLiteralPrefix(matcher).toCharArray()) {
+                node = node.children.computeIfAbsent(c, k -> new Node());
+            }
+            node.matchers.add(i);
+        }
+    }
+
+    int size() {
+        return patterns.length;
+    }
+
+    /**
+     * @param path a path, {@code null} matching all the matchers
+     * @param matched the matchers matched so far, to which the matchers the path matches are added
+     */
+    void match(@Nullable String path, @NotNull BitSet matched) {
+        if (path == null) {
+            matched.set(0, patterns.length);
+            return;
+        }
+        Node node = root;
+        int i = 0;
+        while (node != null) {
+            for (int matcher : node.matchers) {
+                if (!matched.get(matcher) && patterns[matcher].matcher(path).matches()) {
+                    matched.set(matcher);
+                }
+            }
+            node = i < path.length() ? node.children.get(path.charAt(i++)) : null;
+        }
+    }
+
+    /**
+     * @return the characters any path matching the given regular expression starts with
+     */
+    static String getLiteralPrefix(String regex) {
+        if (regex.indexOf('|') >= 0) {
+            // alternatives may start with anything
+            return "";
+        }
+        int end = 0;
+        while (end < regex.length() && META_CHARACTERS.indexOf(regex.charAt(end)) < 0) {
+            end++;
+        }
+        if (end < regex.length() && end > 0 && "?*{+".indexOf(regex.charAt(end)) >= 0) {
+            // the last literal character is quantified
+            end--;
+        }
+        return regex.substring(0, end);
+    }
+
+    private static final class Node {
+
+        private final Map<Character, Node> children = new HashMap<Character, Node>();
+
+        private final List<Integer> matchers = new ArrayList<Integer>(1);
+    }
+}
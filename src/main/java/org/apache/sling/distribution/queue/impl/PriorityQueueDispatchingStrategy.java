@@ -20,48 +20,130 @@ package org.apache.sling.distribution.queue.impl;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
 
 import org.apache.sling.distribution.common.DistributionException;
 import org.apache.sling.distribution.packaging.DistributionPackage;
+import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+/**
+ * A {@link DistributionQueueDispatchingStrategy} adding packages to the priority queues selected by their paths,
+ * or to the main queues when no selector matches.
+ *
+ * The selectors are in the format {@code {queuePrefix}[|{mainQueueMatcher}]={pathMatcher}}; they are compiled once
+ * into a {@link PathMatcherIndex}, together with the priority queues each of them targets.
+ */
 public class PriorityQueueDispatchingStrategy implements DistributionQueueDispatchingStrategy {
 
-    private final Map<String, String> selectors;
     private final List<String> mainQueues;
     private final List<String> allQueues = new ArrayList<String>();
+    private final boolean coalesce;
+    private final DistributionQueueCapacity capacity;
+
+    private final PathMatcherIndex pathMatchers;
+
+    /**
+     * the priority queues targeted by each selector, mapped to their main queue
+     */
+    private final List<Map<String, String>> selectorQueues = new ArrayList<Map<String, String>>();
+
+    /**
+     * all the priority queues, mapped to their main queue
+     */
+    private final Map<String, String> queueAliases;
+
+    private final MultipleQueueDispatchingStrategy mainQueuesStrategy;
 
     public PriorityQueueDispatchingStrategy(Map<String, String> selectors, String[] queueNames) {
+        this(selectors, queueNames, false);
+    }
+
+    public PriorityQueueDispatchingStrategy(Map<String, String> selectors, String[] queueNames, boolean coalesce) {
+        this(selectors, queueNames, coalesce, DistributionQueueCapacity.UNBOUNDED);
+    }
 
-        this.selectors = selectors;
+    public PriorityQueueDispatchingStrategy(
+            Map<String, String> selectors,
+            String[] queueNames,
+            boolean coalesce,
+            @NotNull DistributionQueueCapacity capacity) {
+
+        this.coalesce = coalesce;
+        this.capacity = capacity;
         this.mainQueues = Arrays.asList(queueNames);
-        Map<String, String> selectorQueues = getMatchingQueues(null);
+
+        List<String> pathMatchers = new ArrayList<String>(selectors.size());
+        Map<String, String> queueAliases = new TreeMap<String, String>();
+        for (Map.Entry<String, String> selector : selectors.entrySet()) {
+            String queueSelector = selector.getKey();
+            int idx = queueSelector.indexOf('|');
+
+            String queuePrefix = queueSelector;
+            Pattern queueMatcher = null;
+            if (idx >= 0) {
+                queuePrefix = queueSelector.substring(0, idx);
+                queueMatcher = Pattern.compile(queueSelector.substring(idx + 1));
+            }
+
+            Map<String, String> queues = new TreeMap<String, String>();
+            for (String mainQueue : mainQueues) {
+                if (queueMatcher == null || queueMatcher.matcher(mainQueue).matches()) {
+                    queues.put(queuePrefix + "-" + mainQueue, mainQueue);
+                }
+            }
+            pathMatchers.add(selector.getValue());
+            selectorQueues.add(queues);
+            queueAliases.putAll(queues);
+        }
+        this.pathMatchers = new PathMatcherIndex(pathMatchers);
+        this.queueAliases = Collections.unmodifiableMap(queueAliases);
+        this.mainQueuesStrategy =
+                new MultipleQueueDispatchingStrategy(mainQueues.toArray(new String[0]), coalesce, capacity);
+
         this.allQueues.addAll(mainQueues);
-        this.allQueues.addAll(selectorQueues.keySet());
+        this.allQueues.addAll(queueAliases.keySet());
     }
 
     @Override
     public Iterable<DistributionQueueItemStatus> add(
             @NotNull DistributionPackage distributionPackage, @NotNull DistributionQueueProvider queueProvider)
             throws DistributionException {
+        return add(distributionPackage, queueProvider, null);
+    }
+
+    @Override
+    public Iterable<DistributionQueueItemStatus> add(
+            @NotNull DistributionPackage distributionPackage,
+            @NotNull DistributionQueueProvider queueProvider,
+            @Nullable BiConsumer<String, DistributionQueueItem> superseded)
+            throws DistributionException {
         String[] paths = distributionPackage.getInfo().getPaths();
-        Map<String, String> matchingQueues = paths != null ? getMatchingQueues(paths) : new HashMap<String, String>();
+        Map<String, String> matchingQueues =
+                paths != null ? getMatchingQueues(paths) : Collections.<String, String>emptyMap();
 
-        DistributionQueueDispatchingStrategy dispatchingStrategy = null;
+        MultipleQueueDispatchingStrategy dispatchingStrategy;
         if (matchingQueues.size() > 0) {
-            java.util.Set<String> var = matchingQueues.keySet();
-            dispatchingStrategy = new MultipleQueueDispatchingStrategy(var.toArray(new String[var.size()]));
+            dispatchingStrategy = new MultipleQueueDispatchingStrategy(
+                    matchingQueues.keySet().toArray(new String[0]), coalesce, capacity);
         } else {
-            dispatchingStrategy =
-                    new MultipleQueueDispatchingStrategy(mainQueues.toArray(new String[mainQueues.size()]));
+            dispatchingStrategy = mainQueuesStrategy;
         }
 
-        return dispatchingStrategy.add(distributionPackage, queueProvider);
+        return dispatchingStrategy.add(distributionPackage, queueProvider, superseded);
+    }
+
+    @Override
+    public boolean isCoalescing() {
+        return coalesce;
     }
 
     @NotNull
@@ -70,37 +152,30 @@ public class PriorityQueueDispatchingStrategy implements DistributionQueueDispat
         return allQueues;
     }
 
+    /**
+     * @param paths the paths of a package, {@code null} for all the priority queues
+     * @return the priority queues selected by the given paths, mapped to their main queue
+     */
     public Map<String, String> getMatchingQueues(String[] paths) {
-
-        Map<String, String> result = new TreeMap<String, String>();
-
         if (paths == null) {
-            paths = new String[] {null};
+            return queueAliases;
         }
 
-        for (String queueSelector : selectors.keySet()) {
-            String pathMatcher = selectors.get(queueSelector);
-            int idx = queueSelector.indexOf('|');
-
-            String queuePrefix = queueSelector;
-            String queueMatcher = null;
-            if (idx >= 0) {
-                queuePrefix = queueSelector.substring(0, idx);
-                queueMatcher = queueSelector.substring(idx + 1);
-            }
-
-            for (String path : paths) {
-                if (path == null || path.matches(pathMatcher)) {
-
-                    for (String mainQueue : mainQueues) {
-                        if (queueMatcher == null || mainQueue.matches(queueMatcher)) {
-                            result.put(queuePrefix + "-" + mainQueue, mainQueue);
-                        }
-                    }
-                }
+        BitSet matched = new BitSet(pathMatchers.size());
+        for (String path : paths) {
+            pathMatchers.match(path, matched);
+            if (matched.cardinality() == pathMatchers.size()) {
+                break;
             }
         }
 
+        if (matched.cardinality() == pathMatchers.size()) {
+            return queueAliases;
+        }
+        Map<String, String> result = new TreeMap<String, String>();
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            result.putAll(selectorQueues.get(i));
+        }
         return result;
     }
 }
@@ -21,36 +21,88 @@ package org.apache.sling.distribution.queue.impl.jobhandling;
 import org.apache.sling.distribution.agent.spi.DistributionAgent;
 import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProcessor;
+import org.apache.sling.distribution.queue.impl.DistributionQueueRetryBackoff;
 import org.apache.sling.event.jobs.Job;
 import org.apache.sling.event.jobs.consumer.JobConsumer;
+import org.apache.sling.event.jobs.consumer.JobExecutionContext;
+import org.apache.sling.event.jobs.consumer.JobExecutionResult;
+import org.apache.sling.event.jobs.consumer.JobExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * {@link JobConsumer} for {@link DistributionAgent}s using {@link JobHandlingDistributionQueue}
+ *
+ * As a {@link JobExecutor}, a failed job is reattempted by the job manager after a backoff growing with
+ * its retry count.
  */
-class DistributionAgentJobConsumer implements JobConsumer {
+class DistributionAgentJobConsumer implements JobConsumer, JobExecutor {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final DistributionQueueProcessor queueProcessor;
 
+    private final JobHandlingJobCache jobCache;
+
+    private final DistributionQueueRetryBackoff retryBackoff;
+
     public DistributionAgentJobConsumer(DistributionQueueProcessor queueProcessor) {
+        this(queueProcessor, null);
+    }
+
+    /**
+     * @param jobCache the recently read jobs, invalidated for the processed jobs as their state changes
+     */
+    DistributionAgentJobConsumer(DistributionQueueProcessor queueProcessor, JobHandlingJobCache jobCache) {
+        this(queueProcessor, jobCache, DistributionQueueRetryBackoff.DEFAULT);
+    }
+
+    /**
+     * @param jobCache the recently read jobs, invalidated for the processed jobs as their state changes
+     * @param retryBackoff the backoff applied before reattempting the jobs which failed to be processed
+     */
+    DistributionAgentJobConsumer(
+            DistributionQueueProcessor queueProcessor,
+            JobHandlingJobCache jobCache,
+            DistributionQueueRetryBackoff retryBackoff) {
         this.queueProcessor = queueProcessor;
+        this.jobCache = jobCache;
+        this.retryBackoff = retryBackoff;
+    }
+
+    public JobExecutionResult process(Job job, JobExecutionContext context) {
+        if (process(job) == JobResult.OK) {
+            return context.result().succeeded();
+        }
+        long delay = retryBackoff.getDelay(job.getRetryCount() + 1);
+        log.debug("job {} is reattempted in {}ms", job.getId(), delay);
+        return context.result().failed(delay);
     }
 
     public JobResult process(Job job) {
         log.debug("processing job {}", job.getId());
         DistributionQueueEntry entry = JobHandlingUtils.getEntry(job);
         boolean processingResult = false;
-        if (entry != null) {
-            String queueName = entry.getStatus().getQueueName();
-            log.debug("processing item {} in queue {}", entry.getId(), queueName);
-            processingResult = queueProcessor.process(queueName, entry);
-            log.debug("item {} processed {}", entry.getId());
-        } else {
-            log.warn("no entry for job {}", job.getId());
+        invalidate(job);
+        try {
+            if (entry != null) {
+                String queueName = entry.getStatus().getQueueName();
+                log.debug("processing item {} in queue {}", entry.getId(), queueName);
+                processingResult = queueProcessor.process(queueName, entry);
+                log.debug("item {} processed {}", entry.getId());
+            } else {
+                log.warn("no entry for job {}", job.getId());
+            }
+        } finally {
+            // the job manager is about to store the result
+            invalidate(job);
         }
         return processingResult ? JobResult.OK : JobResult.FAILED;
     }
+
+    private void invalidate(Job job) {
+        if (jobCache != null) {
+            jobCache.invalidate(job.getId());
+        }
+    }
 }
@@ -22,10 +22,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
@@ -38,6 +40,9 @@ import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.apache.sling.event.jobs.Job;
 import org.apache.sling.event.jobs.JobManager;
 import org.apache.sling.event.jobs.JobManager.QueryType;
+import org.apache.sling.event.jobs.Queue;
+import org.apache.sling.event.jobs.QueueConfiguration;
+import org.apache.sling.event.jobs.Statistics;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,6 +53,14 @@ import static org.apache.sling.distribution.queue.DistributionQueueCapabilities.
 
 /**
  * a {@link DistributionQueue} based on Sling Job Handling facilities
+ *
+ * The status is computed from the head job and, when the jobs of the queue topic are processed by a dedicated job
+ * queue on this instance, from the statistics of that job queue rather than by listing all the jobs. Otherwise the
+ * jobs are listed up to {@link #COUNT_LIMIT}, the number of items of larger queues is reported as that limit.
+ * Reading a page of entries which follows a previously read one continues after the last job of that page, using
+ * the creation time of the jobs as a cursor, instead of listing all the jobs before the page.
+ * The jobs just listed are kept for a short time, so that fetching or removing their entries right after does not
+ * look them up again.
  */
 public class JobHandlingDistributionQueue implements DistributionQueue {
 
@@ -56,6 +69,14 @@ public class JobHandlingDistributionQueue implements DistributionQueue {
     private static final Set<String> CAPABILITIES =
             Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(APPENDABLE, REMOVABLE, CLEARABLE)));
 
+    // number of jobs looked up at once when clearing the queue
+    private static final int CLEAR_BATCH_SIZE = 100;
+
+    /**
+     * maximum number of jobs listed to count the items of the queue, when no job queue statistics are available
+     */
+    static final int COUNT_LIMIT = 10000;
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final String name;
@@ -66,14 +87,29 @@ public class JobHandlingDistributionQueue implements DistributionQueue {
 
     private final boolean isActive;
     private final DistributionQueueType type;
+    private final JobHandlingPageCursors cursors;
+    private final JobHandlingJobCache jobCache;
 
     JobHandlingDistributionQueue(
             String name, String topic, JobManager jobManager, boolean isActive, DistributionQueueType type) {
+        this(name, topic, jobManager, isActive, type, new JobHandlingPageCursors(), new JobHandlingJobCache());
+    }
+
+    JobHandlingDistributionQueue(
+            String name,
+            String topic,
+            JobManager jobManager,
+            boolean isActive,
+            DistributionQueueType type,
+            JobHandlingPageCursors cursors,
+            JobHandlingJobCache jobCache) {
         this.name = name;
         this.topic = topic;
         this.jobManager = jobManager;
         this.isActive = isActive;
         this.type = type;
+        this.cursors = cursors;
+        this.jobCache = jobCache;
     }
 
     @NotNull
@@ -122,7 +158,12 @@ public class JobHandlingDistributionQueue implements DistributionQueue {
 
     private Job getJob(String itemId) {
         String jobId = JobHandlingUtils.unescapeId(itemId);
-        Job job = jobManager.getJobById(jobId);
+        Job job = jobCache.get(jobId);
+        if (job != null) {
+            log.debug("retrieved item with id {} from the recently read ones", itemId);
+            return job;
+        }
+        job = jobManager.getJobById(jobId);
 
         if (job == null) {
             log.warn("item with id {} cannot be found", itemId);
@@ -141,22 +182,102 @@ public class JobHandlingDistributionQueue implements DistributionQueue {
         int actualSkip = skip < 0 ? 0 : skip;
         int actualLimit = limit < 0 ? -1 : actualSkip + limit;
 
-        List<Job> result = new ArrayList<Job>();
-        try {
-            Collection<Job> jobs = jobManager.findJobs(QueryType.ALL, topic, actualLimit, (Map<String, Object>[]) null);
+        List<Job> result = null;
+        JobHandlingPageCursors.Cursor cursor = actualSkip > 0 && limit > 0 ? cursors.get(topic, actualSkip) : null;
+        if (cursor != null) {
+            result = getJobsAfter(cursor, limit);
+        }
 
-            int i = 0;
+        if (result == null) {
+            result = new ArrayList<Job>();
+            try {
+                Collection<Job> jobs =
+                        jobManager.findJobs(QueryType.ALL, topic, actualLimit, (Map<String, Object>[]) null);
+
+                int i = 0;
+                for (Job job : jobs) {
+                    if (i >= actualSkip) {
+                        result.add(job);
+                    }
+                    i++;
+                }
+            } catch (Exception e) {
+                log.warn("could not get jobs for topic {}", topic, e);
+            }
+        }
+
+        if (limit > 0 && result.size() == limit) {
+            // the next page may be read next
+            cursors.put(topic, actualSkip + limit, result);
+        }
+        for (Job job : result) {
+            jobCache.put(job);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the jobs created after the last job of the previous page, or {@code null} if they cannot be looked up
+     */
+    @SuppressWarnings("unchecked")
+    private List<Job> getJobsAfter(JobHandlingPageCursors.Cursor cursor, int limit) {
+        Map<String, Object> template = new HashMap<String, Object>();
+        template.put(">=" + Job.PROPERTY_JOB_CREATED, cursor.getCreated());
+        try {
+            Collection<Job> jobs = jobManager.findJobs(
+                    QueryType.ALL, topic, limit + cursor.getJobIds().size(), template);
+            if (jobs == null) {
+                return null;
+            }
+            List<Job> result = new ArrayList<Job>();
             for (Job job : jobs) {
-                if (i >= actualSkip) {
+                if (result.size() < limit && cursor.isBefore(job)) {
                     result.add(job);
                 }
-                i++;
             }
+            return result;
         } catch (Exception e) {
-            log.warn("could not get jobs for topic {}", topic, e);
+            log.warn("could not get jobs for topic {} after {}", topic, cursor, e);
+            return null;
         }
+    }
 
-        return result;
+    /**
+     * @return the number of queued and active jobs of the dedicated job queue, or {@code -1} if there is none
+     */
+    private long countJobs() {
+        try {
+            Queue queue = jobManager.getQueue(name);
+            if (queue == null) {
+                return -1;
+            }
+            QueueConfiguration configuration = queue.getConfiguration();
+            Statistics statistics = queue.getStatistics();
+            if (configuration == null
+                    || statistics == null
+                    || !Arrays.equals(new String[] {topic}, configuration.getTopics())) {
+                return -1;
+            }
+            return statistics.getNumberOfQueuedJobs() + statistics.getNumberOfActiveJobs();
+        } catch (Exception e) {
+            log.debug("could not count jobs for topic {}", topic, e);
+            return -1;
+        }
+    }
+
+    /**
+     * @return the number of jobs of the queue topic, up to {@link #COUNT_LIMIT}
+     */
+    @SuppressWarnings("unchecked")
+    private long listJobs() {
+        try {
+            Collection<Job> jobs = jobManager.findJobs(QueryType.ALL, topic, COUNT_LIMIT, (Map<String, Object>[]) null);
+            return jobs != null ? jobs.size() : 0;
+        } catch (Exception e) {
+            log.warn("could not count jobs for topic {}", topic, e);
+            return 0;
+        }
     }
 
     @NotNull
@@ -203,6 +324,7 @@ public class JobHandlingDistributionQueue implements DistributionQueue {
         if (job != null) {
             entry = JobHandlingUtils.getEntry(job);
             removed = jobManager.removeJobById(job.getId());
+            jobCache.invalidate(job.getId());
         }
 
         log.debug("item with id {} removed from the queue: {}", id, removed);
@@ -212,8 +334,7 @@ public class JobHandlingDistributionQueue implements DistributionQueue {
     @Override
     @NotNull
     public DistributionQueueStatus getStatus() {
-        List<Job> jobs = getJobs(0, -1);
-        Job firstJob = jobs.size() > 0 ? jobs.get(0) : null;
+        Job firstJob = getFirstJob();
 
         DistributionQueueItem firstItem = firstJob != null ? JobHandlingUtils.getItem(firstJob) : null;
         DistributionQueueItemStatus firstItemStatus = firstJob != null ? JobHandlingUtils.getStatus(firstJob) : null;
@@ -223,7 +344,12 @@ public class JobHandlingDistributionQueue implements DistributionQueue {
             state = DistributionQueueState.PASSIVE;
         }
 
-        int itemsCount = jobs.size();
+        // the statistics are only kept by the instance processing the jobs
+        long count = isActive ? countJobs() : -1;
+        if (count < 0 || (count == 0 && firstJob != null)) {
+            count = firstJob != null ? listJobs() : 0;
+        }
+        int itemsCount = (int) Math.min(count, Integer.MAX_VALUE);
 
         return new DistributionQueueStatus(itemsCount, state);
     }
@@ -238,13 +364,36 @@ public class JobHandlingDistributionQueue implements DistributionQueue {
     @Override
     public Iterable<DistributionQueueEntry> clear(int limit) {
         final List<DistributionQueueEntry> removedEntries = new ArrayList<DistributionQueueEntry>();
-        for (DistributionQueueEntry entry : getEntries(0, limit)) {
-            DistributionQueueEntry removed = remove(entry.getId());
-            if (removed != null) {
-                removedEntries.add(removed);
+        clear(limit, removedEntries::add);
+        return removedEntries;
+    }
+
+    @Override
+    public int clear(int limit, @NotNull Consumer<DistributionQueueEntry> removed) {
+        int count = 0;
+        while (limit < 0 || count < limit) {
+            int batch = limit < 0 ? CLEAR_BATCH_SIZE : Math.min(CLEAR_BATCH_SIZE, limit - count);
+            // the jobs are removed directly, without looking each of them up again by id
+            List<Job> jobs = getJobs(0, batch);
+            int batchCount = 0;
+            for (Job job : jobs) {
+                DistributionQueueEntry entry = JobHandlingUtils.getEntry(job);
+                boolean jobRemoved = jobManager.removeJobById(job.getId());
+                jobCache.invalidate(job.getId());
+                if (jobRemoved) {
+                    batchCount++;
+                    if (entry != null) {
+                        removed.accept(entry);
+                    }
+                }
+            }
+            count += batchCount;
+            if (jobs.size() < batch || batchCount == 0) {
+                break;
             }
         }
-        return removedEntries;
+        log.debug("cleared {} items from the queue", count);
+        return count;
     }
 
     @Override
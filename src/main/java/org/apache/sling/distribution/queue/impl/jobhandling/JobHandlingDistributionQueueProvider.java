@@ -32,22 +32,32 @@ import org.apache.sling.distribution.queue.DistributionQueueType;
 import org.apache.sling.distribution.queue.impl.CachingDistributionQueue;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProcessor;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProvider;
+import org.apache.sling.distribution.queue.impl.DistributionQueueRetryBackoff;
+import org.apache.sling.distribution.queue.impl.DistributionQueueStatusCache;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.apache.sling.event.impl.jobs.config.ConfigurationConstants;
 import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.NotificationConstants;
+import org.apache.sling.event.jobs.Queue;
 import org.apache.sling.event.jobs.QueueConfiguration;
-import org.apache.sling.event.jobs.consumer.JobConsumer;
+import org.apache.sling.event.jobs.consumer.JobExecutor;
 import org.jetbrains.annotations.NotNull;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.cm.Configuration;
 import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * a queue provider {@link DistributionQueueProvider} for sling jobs based
  * {@link DistributionQueue}s
+ *
+ * Each queue of a given type has its own topic, the jobs of {@link DistributionQueueType#PARALLEL} queues being
+ * processed by an unordered job queue running up to a configured number of jobs at once.
  */
 public class JobHandlingDistributionQueueProvider implements DistributionQueueProvider {
 
@@ -59,19 +69,83 @@ public class JobHandlingDistributionQueueProvider implements DistributionQueuePr
 
     private final JobManager jobManager;
 
-    private ServiceRegistration<JobConsumer> jobConsumer = null;
+    private ServiceRegistration<JobExecutor> jobConsumer = null;
+
+    /**
+     * invalidates the cached statuses of the queues once their jobs are done, as the job manager removes them
+     * without going through the queues
+     */
+    private ServiceRegistration<EventHandler> jobNotifications = null;
 
     private BundleContext context;
     private Set<String> processingQueueNames = null;
 
     private final ConfigurationAdmin configAdmin;
 
+    /**
+     * statuses of the queues of this provider, counting jobs being expensive
+     */
+    private final DistributionQueueStatusCache statusCache;
+
+    private final JobHandlingPageCursors cursors = new JobHandlingPageCursors();
+
+    /**
+     * jobs recently read from the queues of this provider, invalidated when processed
+     */
+    private final JobHandlingJobCache jobCache = new JobHandlingJobCache();
+
+    private final int maxParallel;
+
+    private final DistributionQueueRetryBackoff retryBackoff;
+
     public JobHandlingDistributionQueueProvider(String prefix, JobManager jobManager, BundleContext context) {
         this(prefix, jobManager, context, null);
     }
 
     public JobHandlingDistributionQueueProvider(
             String prefix, JobManager jobManager, BundleContext context, ConfigurationAdmin configAdmin) {
+        this(prefix, jobManager, context, configAdmin, DistributionQueueStatusCache.DEFAULT_TTL);
+    }
+
+    /**
+     * @param statusTtl the time in milliseconds the status of a queue is cached for
+     */
+    public JobHandlingDistributionQueueProvider(
+            String prefix,
+            JobManager jobManager,
+            BundleContext context,
+            ConfigurationAdmin configAdmin,
+            long statusTtl) {
+        this(prefix, jobManager, context, configAdmin, statusTtl, ConfigurationConstants.DEFAULT_MAX_PARALLEL);
+    }
+
+    /**
+     * @param statusTtl the time in milliseconds the status of a queue is cached for
+     * @param maxParallel the maximum number of jobs of a {@link DistributionQueueType#PARALLEL} queue processed at once
+     */
+    public JobHandlingDistributionQueueProvider(
+            String prefix,
+            JobManager jobManager,
+            BundleContext context,
+            ConfigurationAdmin configAdmin,
+            long statusTtl,
+            int maxParallel) {
+        this(prefix, jobManager, context, configAdmin, statusTtl, maxParallel, DistributionQueueRetryBackoff.DEFAULT);
+    }
+
+    /**
+     * @param statusTtl the time in milliseconds the status of a queue is cached for
+     * @param maxParallel the maximum number of jobs of a {@link DistributionQueueType#PARALLEL} queue processed at once
+     * @param retryBackoff the backoff applied before reattempting the jobs which failed to be processed
+     */
+    public JobHandlingDistributionQueueProvider(
+            String prefix,
+            JobManager jobManager,
+            BundleContext context,
+            ConfigurationAdmin configAdmin,
+            long statusTtl,
+            int maxParallel,
+            DistributionQueueRetryBackoff retryBackoff) {
         this.configAdmin = configAdmin;
         if (prefix == null || jobManager == null || context == null) {
             throw new IllegalArgumentException("all arguments are required");
@@ -79,6 +153,9 @@ public class JobHandlingDistributionQueueProvider implements DistributionQueuePr
         this.prefix = prefix;
         this.jobManager = jobManager;
         this.context = context;
+        this.statusCache = new DistributionQueueStatusCache(statusTtl, DistributionQueueStatusCache.DEFAULT_MAX_SIZE);
+        this.maxParallel = maxParallel > 0 ? maxParallel : ConfigurationConstants.DEFAULT_MAX_PARALLEL;
+        this.retryBackoff = retryBackoff;
     }
 
     @NotNull
@@ -87,16 +164,15 @@ public class JobHandlingDistributionQueueProvider implements DistributionQueuePr
         boolean isActive =
                 jobConsumer != null && (processingQueueNames == null || processingQueueNames.contains(queueName));
 
-        DistributionQueue queue =
-                new JobHandlingDistributionQueue(queueName, topic, jobManager, isActive, DistributionQueueType.ORDERED);
-        queue = new CachingDistributionQueue(topic, queue);
+        DistributionQueue queue = new JobHandlingDistributionQueue(
+                queueName, topic, jobManager, isActive, DistributionQueueType.ORDERED, cursors, jobCache);
+        queue = new CachingDistributionQueue(topic, queue, statusCache);
         return queue;
     }
 
     @Override
     public DistributionQueue getQueue(@NotNull String queueName, @NotNull DistributionQueueType type) {
-        String topic = JobHandlingDistributionQueue.DISTRIBUTION_QUEUE_TOPIC + '/'
-                + type.name().toLowerCase() + '/' + prefix + "/" + queueName;
+        String topic = getTopic(type) + '/' + queueName;
         boolean isActive =
                 jobConsumer != null && (processingQueueNames == null || processingQueueNames.contains(queueName));
 
@@ -114,21 +190,44 @@ public class JobHandlingDistributionQueueProvider implements DistributionQueuePr
                                 : QueueConfiguration.Type.ORDERED.name());
                 props.put(ConfigurationConstants.PROP_TOPICS, new String[] {topic});
                 props.put(ConfigurationConstants.PROP_RETRIES, -1);
-                props.put(ConfigurationConstants.PROP_RETRY_DELAY, 2000L);
+                // the delay of the first reattempt, the job consumer grows it with the retry count of a job
+                props.put(ConfigurationConstants.PROP_RETRY_DELAY, retryBackoff.getInitialDelay());
                 props.put(ConfigurationConstants.PROP_KEEP_JOBS, true);
                 props.put(ConfigurationConstants.PROP_PRIORITY, "MAX");
-                props.put(ConfigurationConstants.PROP_MAX_PARALLEL, ConfigurationConstants.DEFAULT_MAX_PARALLEL);
+                props.put(ConfigurationConstants.PROP_MAX_PARALLEL, maxParallel);
                 config.update(props);
             }
         } catch (IOException e) {
             throw new RuntimeException("could not create config for queue " + queueName, e);
         }
 
-        DistributionQueue queue = new JobHandlingDistributionQueue(queueName, topic, jobManager, isActive, type);
-        queue = new CachingDistributionQueue(topic, queue);
+        DistributionQueue queue =
+                new JobHandlingDistributionQueue(queueName, topic, jobManager, isActive, type, cursors, jobCache);
+        queue = new CachingDistributionQueue(topic, queue, statusCache);
         return queue;
     }
 
+    @Override
+    public int getMaxParallel(@NotNull String queueName, @NotNull DistributionQueueType type) {
+        if (DistributionQueueType.ORDERED.equals(type)) {
+            return 1;
+        }
+        try {
+            Queue queue = jobManager.getQueue(queueName);
+            if (queue != null && queue.getConfiguration() != null) {
+                return queue.getConfiguration().getMaxParallel();
+            }
+        } catch (Exception e) {
+            log.debug("could not get the job queue {}", queueName, e);
+        }
+        return maxParallel;
+    }
+
+    @Override
+    public DistributionQueueStatusCache getStatusCache() {
+        return statusCache;
+    }
+
     public void enableQueueProcessing(@NotNull DistributionQueueProcessor queueProcessor, String... queueNames)
             throws DistributionException {
         if (jobConsumer != null) {
@@ -138,24 +237,42 @@ public class JobHandlingDistributionQueueProvider implements DistributionQueuePr
         Dictionary<String, Object> jobProps = new Hashtable<String, Object>();
         String mainTopic = JobHandlingDistributionQueue.DISTRIBUTION_QUEUE_TOPIC + '/' + prefix;
 
+        // the queues of a given type have their own topics
+        List<String> topicPrefixes = new ArrayList<String>();
+        topicPrefixes.add(mainTopic);
+        for (DistributionQueueType type : DistributionQueueType.values()) {
+            topicPrefixes.add(getTopic(type));
+        }
+
         List<String> topicList = new ArrayList<String>();
         if (queueNames == null) {
-            topicList.add(mainTopic + "/*");
+            for (String topicPrefix : topicPrefixes) {
+                topicList.add(topicPrefix + "/*");
+            }
             processingQueueNames = null;
         } else {
-            for (String queueName : queueNames) {
-                topicList.add(mainTopic + '/' + queueName);
-                // TODO : register parallel topic too
+            for (String topicPrefix : topicPrefixes) {
+                for (String queueName : queueNames) {
+                    topicList.add(topicPrefix + '/' + queueName);
+                }
             }
             processingQueueNames = new HashSet<String>(Arrays.asList(queueNames));
         }
 
-        jobProps.put(JobConsumer.PROPERTY_TOPICS, topicList.toArray(new String[topicList.size()]));
+        jobProps.put(JobExecutor.PROPERTY_TOPICS, topicList.toArray(new String[topicList.size()]));
 
         log.debug("registering job consumer for prefix {}", prefix);
         log.info("qp: {}, jp: {}", queueProcessor, jobProps);
-        jobConsumer =
-                context.registerService(JobConsumer.class, new DistributionAgentJobConsumer(queueProcessor), jobProps);
+        jobConsumer = context.registerService(
+                JobExecutor.class, new DistributionAgentJobConsumer(queueProcessor, jobCache, retryBackoff), jobProps);
+
+        Dictionary<String, Object> notificationProps = new Hashtable<String, Object>();
+        notificationProps.put(EventConstants.EVENT_TOPIC, new String[] {
+            NotificationConstants.TOPIC_JOB_FINISHED,
+            NotificationConstants.TOPIC_JOB_CANCELLED,
+            NotificationConstants.TOPIC_JOB_REMOVED
+        });
+        jobNotifications = context.registerService(EventHandler.class, this::jobDone, notificationProps);
         log.debug("job consumer for prefix {} registered", prefix);
     }
 
@@ -165,7 +282,28 @@ public class JobHandlingDistributionQueueProvider implements DistributionQueuePr
             log.info("job consumer for agent {} unregistered", prefix);
             jobConsumer = null;
         }
+        if (jobNotifications != null) {
+            jobNotifications.unregister();
+            jobNotifications = null;
+        }
         processingQueueNames = null;
         log.info("unregistering job consumer for agent {}", prefix);
     }
+
+    void jobDone(Event event) {
+        Object topic = event.getProperty(NotificationConstants.NOTIFICATION_PROPERTY_JOB_TOPIC);
+        if (topic instanceof String
+                && ((String) topic).startsWith(JobHandlingDistributionQueue.DISTRIBUTION_QUEUE_TOPIC)) {
+            // the topic of a job is the cache key of its queue
+            statusCache.invalidate((String) topic);
+        }
+    }
+
+    private String getTopic(DistributionQueueType type) {
+        return JobHandlingDistributionQueue.DISTRIBUTION_QUEUE_TOPIC
+                + '/'
+                + type.name().toLowerCase()
+                + '/'
+                + prefix;
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl.jobhandling;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.sling.event.jobs.Job;
+
+/**
+ * Recently read jobs, by id, so that the entries just listed from a queue can be fetched or removed without
+ * looking their jobs up again.
+ *
+ * A job is only kept for a short time, as it may be processed meanwhile. Once invalidated, a job is not cached
+ * again until that time elapsed, so that a copy read before the job manager stored the outcome of its processing
+ * is not cached in place of the up to date job.
+ */
+class JobHandlingJobCache {
+
+    static final int MAX_SIZE = 256;
+
+    static final long TTL = 10000;
+
+    private final long ttl;
+
+    private final Map<String, Cached> jobs = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    JobHandlingJobCache() {
+        this(TTL);
+    }
+
+    /**
+     * @param ttl the time in milliseconds a job is kept for
+     */
+    JobHandlingJobCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param jobId the id of the job
+     * @return the job if recently read and not invalidated since, {@code null} otherwise
+     */
+    synchronized Job get(String jobId) {
+        Cached cached = jobs.get(jobId);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.expiry < System.currentTimeMillis()) {
+            jobs.remove(jobId);
+            return null;
+        }
+        return cached.job;
+    }
+
+    /**
+     * @param job a job just read from the job manager
+     */
+    synchronized void put(Job job) {
+        if (ttl <= 0 || job == null || job.getId() == null) {
+            return;
+        }
+        Cached cached = jobs.get(job.getId());
+        if (cached != null && cached.job == null && cached.expiry >= System.currentTimeMillis()) {
+            // recently invalidated
+            return;
+        }
+        jobs.put(job.getId(), new Cached(job, System.currentTimeMillis() + ttl));
+    }
+
+    /**
+     * drop the given job, whose state is being changed
+     *
+     * @param jobId the id of the job
+     */
+    synchronized void invalidate(String jobId) {
+        if (ttl <= 0 || jobId == null) {
+            return;
+        }
+        jobs.put(jobId, new Cached(null, System.currentTimeMillis() + ttl));
+    }
+
+    synchronized int size() {
+        return jobs.size();
+    }
+
+    private static final class Cached {
+
+        private final Job job;
+
+        private final long expiry;
+
+        private Cached(Job job, long expiry) {
+            this.job = job;
+            this.expiry = expiry;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl.jobhandling;
+
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.sling.event.jobs.Job;
+
+/**
+ * Positions of the last jobs of recently read pages of job queues, so that the following pages can be looked up
+ * by creation time rather than by skipping all the jobs before them.
+ *
+ * A position is only kept for a short time, as the jobs ahead of it are processed meanwhile.
+ */
+class JobHandlingPageCursors {
+
+    static final int MAX_SIZE = 64;
+
+    static final long TTL = 60000;
+
+    private final Map<String, Cursor> cursors = new LinkedHashMap<String, Cursor>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cursor> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /**
+     * @param topic the topic of the jobs
+     * @param position the number of jobs before the page to read
+     * @return the cursor after the last job of the page ending at the given position, if recently read
+     */
+    synchronized Cursor get(String topic, int position) {
+        String key = getKey(topic, position);
+        Cursor cursor = cursors.get(key);
+        if (cursor != null && cursor.expiry < System.currentTimeMillis()) {
+            cursors.remove(key);
+            return null;
+        }
+        return cursor;
+    }
+
+    /**
+     * @param topic the topic of the jobs
+     * @param position the number of jobs up to the end of the given page
+     * @param page the jobs of a page, in order
+     */
+    void put(String topic, int position, List<Job> page) {
+        Job last = page.get(page.size() - 1);
+        Calendar created = last.getCreated();
+        if (created == null) {
+            return;
+        }
+        Set<String> jobIds = new HashSet<String>();
+        for (Job job : page) {
+            if (job.getCreated() != null && created.compareTo(job.getCreated()) == 0) {
+                jobIds.add(job.getId());
+            }
+        }
+        Cursor cursor = new Cursor(created, jobIds, System.currentTimeMillis() + TTL);
+        synchronized (this) {
+            cursors.put(getKey(topic, position), cursor);
+        }
+    }
+
+    private static String getKey(String topic, int position) {
+        return topic + '#' + position;
+    }
+
+    static final class Cursor {
+
+        private final Calendar created;
+
+        private final Set<String> jobIds;
+
+        private final long expiry;
+
+        private Cursor(Calendar created, Set<String> jobIds, long expiry) {
+            this.created = created;
+            this.jobIds = jobIds;
+            this.expiry = expiry;
+        }
+
+        /**
+         * @return the creation time of the last job of the page
+         */
+        Calendar getCreated() {
+            return created;
+        }
+
+        /**
+         * @return the ids of the jobs of the page created at the same time as the last one
+         */
+        Set<String> getJobIds() {
+            return jobIds;
+        }
+
+        /**
+         * @param job a job
+         * @return {@code true} if the job comes after the page
+         */
+        boolean isBefore(Job job) {
+            Calendar jobCreated = job.getCreated();
+            if (jobCreated == null) {
+                return false;
+            }
+            int comparison = jobCreated.compareTo(created);
+            return comparison > 0 || (comparison == 0 && !jobIds.contains(job.getId()));
+        }
+
+        @Override
+        public String toString() {
+            return "Cursor{" + "created=" + created.getTimeInMillis() + ", jobIds=" + jobIds + '}';
+        }
+    }
+}
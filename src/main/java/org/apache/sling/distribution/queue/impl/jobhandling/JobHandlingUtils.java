@@ -26,6 +26,7 @@ import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.apache.sling.distribution.queue.DistributionQueueItemState;
 import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
+import org.apache.sling.distribution.queue.impl.DistributionQueueUtils;
 import org.apache.sling.event.jobs.Job;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
@@ -64,6 +65,10 @@ class JobHandlingUtils {
         } catch (Throwable t) {
             log.error("Cannot read job {} properties", job.getId(), t);
         }
+        if (Job.JobState.ACTIVE == job.getJobState()) {
+            // the job is being processed
+            properties.put(DistributionQueueUtils.PROPERTY_CLAIMED, true);
+        }
 
         return new DistributionQueueItem(packageId, size, properties);
     }
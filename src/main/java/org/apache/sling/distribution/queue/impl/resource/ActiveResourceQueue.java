@@ -18,6 +18,11 @@
  */
 package org.apache.sling.distribution.queue.impl.resource;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
 import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
@@ -28,8 +33,8 @@ import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
 import org.apache.sling.distribution.queue.DistributionQueueStatus;
 import org.apache.sling.distribution.queue.impl.DistributionQueueUtils;
-import org.apache.sling.distribution.util.impl.DistributionUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,27 +43,56 @@ import org.slf4j.LoggerFactory;
  * provides an Active, JCR resource-backed queue.
  *
  * It maintains the dequeue attempts in JCR to reflect consistent dequeue attempt status across all cluster instances
+ *
+ * The head of the queue is cached: as long as the cached head entry exists it is returned without traversing the
+ * queue tree, and once it has been removed the next head is looked up from the folder of the previous one, skipping
+ * the older (and usually empty) minute folders. The folders before the cursor are scanned again periodically, to pick
+ * up entries added by cluster instances with a skewed clock.
  */
 public class ActiveResourceQueue extends ResourceQueue {
 
+    static final long FULL_SCAN_INTERVAL_MILLIS = 60 * 1000;
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    /**
+     * id of the last head found, {@code null} once it has been removed
+     */
+    private volatile String headId;
+
+    /**
+     * folder path (relative to the queue root) of the last head found, {@code null} to scan the whole queue
+     */
+    private volatile String headFolderPath;
+
+    private volatile long lastFullScan;
+
     public ActiveResourceQueue(
             ResourceResolverFactory resolverFactory, String serviceName, String queueName, String rootPath) {
         super(resolverFactory, serviceName, queueName, rootPath);
     }
 
+    public ActiveResourceQueue(
+            ResourceResolverFactory resolverFactory,
+            ResourceResolverPool resolverPool,
+            String serviceName,
+            String queueName,
+            String rootPath,
+            int shards) {
+        super(resolverFactory, resolverPool, serviceName, queueName, rootPath, shards);
+    }
+
     @NotNull
     @Override
     public DistributionQueueStatus getStatus() {
         ResourceResolver resourceResolver = null;
         try {
-            resourceResolver = DistributionUtils.loginService(resolverFactory, serviceName);
+            resourceResolver = resolverPool.acquire();
             Resource queueRoot = ResourceQueueUtils.getRootResource(resourceResolver, queueRootPath);
 
-            int count = ResourceQueueUtils.getResourceCount(queueRoot);
+            int count = ResourceQueueUtils.getItemCount(queueRoot);
 
-            DistributionQueueEntry head = ResourceQueueUtils.getHead(queueRoot);
+            DistributionQueueEntry head = readHead(queueRoot);
             DistributionQueueItem firstItem = (null != head) ? head.getItem() : null;
             DistributionQueueItemStatus firstItemStatus = (null != head) ? head.getStatus() : null;
             log.debug("Queue has {} items, with following status for the head: {}", count, firstItemStatus);
@@ -67,14 +101,152 @@ public class ActiveResourceQueue extends ResourceQueue {
         } catch (LoginException | PersistenceException e) {
             throw new RuntimeException(e);
         } finally {
-            DistributionUtils.safelyLogout(resourceResolver);
+            resolverPool.release(resourceResolver);
+        }
+    }
+
+    @Override
+    public DistributionQueueEntry getHead() {
+        ResourceResolver resourceResolver = null;
+        try {
+            resourceResolver = resolverPool.acquire();
+            Resource queueRoot = ResourceQueueUtils.getRootResource(resourceResolver, queueRootPath);
+
+            DistributionQueueEntry head = readHead(queueRoot);
+
+            logEntry(head, "getHead");
+
+            return head;
+
+        } catch (LoginException | PersistenceException e) {
+            throw new RuntimeException(e);
+        } finally {
+            resolverPool.release(resourceResolver);
+        }
+    }
+
+    private DistributionQueueEntry readHead(Resource queueRoot) {
+        String cachedId = headId;
+        if (cachedId != null) {
+            DistributionQueueEntry head =
+                    ResourceQueueUtils.readEntry(queueRoot, ResourceQueueUtils.getResourceById(queueRoot, cachedId));
+            if (head != null) {
+                return head;
+            }
+        }
+
+        String fromFolderPath = headFolderPath;
+        long now = System.currentTimeMillis();
+        if (now - lastFullScan > FULL_SCAN_INTERVAL_MILLIS) {
+            fromFolderPath = null;
+            lastFullScan = now;
+        }
+
+        DistributionQueueEntry head = ResourceQueueUtils.getHead(queueRoot, fromFolderPath);
+        if (head != null) {
+            headId = head.getId();
+            headFolderPath = ResourceQueueUtils.getFolderPath(head.getId());
+        } else {
+            headId = null;
+        }
+        return head;
+    }
+
+    @Nullable
+    @Override
+    public DistributionQueueEntry add(@NotNull DistributionQueueItem item) {
+        DistributionQueueEntry entry = super.add(item);
+        checkCursor(entry);
+        return entry;
+    }
+
+    @NotNull
+    @Override
+    public List<DistributionQueueEntry> addAll(@NotNull List<DistributionQueueItem> items) {
+        List<DistributionQueueEntry> entries = super.addAll(items);
+        if (!entries.isEmpty()) {
+            checkCursor(entries.get(0));
+        }
+        return entries;
+    }
+
+    private void checkCursor(DistributionQueueEntry entry) {
+        String cursor = headFolderPath;
+        if (entry != null && cursor != null) {
+            String folderPath = ResourceQueueUtils.getFolderPath(entry.getId());
+            if (folderPath != null && folderPath.compareTo(cursor) < 0) {
+                // added before the cursor, e.g. the clock was set back
+                headId = null;
+                headFolderPath = null;
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    public DistributionQueueEntry remove(@NotNull String itemId) {
+        DistributionQueueEntry entry = super.remove(itemId);
+        if (itemId.equals(headId)) {
+            headId = null;
+        }
+        return entry;
+    }
+
+    @NotNull
+    @Override
+    public Iterable<DistributionQueueEntry> remove(@NotNull Set<String> entryIds) {
+        Iterable<DistributionQueueEntry> removed = super.remove(entryIds);
+        String cachedId = headId;
+        if (cachedId != null && entryIds.contains(cachedId)) {
+            headId = null;
+        }
+        return removed;
+    }
+
+    @Override
+    public int clear(int limit, @NotNull Consumer<DistributionQueueEntry> removed) {
+        try {
+            return super.clear(limit, removed);
+        } finally {
+            headId = null;
+        }
+    }
+
+    /**
+     * mark entries as claimed by the processor of this queue, so that they are no longer superseded
+     *
+     * @param entries the entries about to be processed
+     * @return the claimed entries, leaving out those no longer in the queue
+     */
+    @NotNull
+    public List<DistributionQueueEntry> claim(@NotNull List<DistributionQueueEntry> entries) {
+        List<DistributionQueueEntry> claimed = new ArrayList<DistributionQueueEntry>(entries.size());
+        ResourceResolver resourceResolver = null;
+        try {
+            resourceResolver = resolverPool.acquire();
+            Resource queueRoot = ResourceQueueUtils.getRootResource(resourceResolver, queueRootPath);
+            for (DistributionQueueEntry entry : entries) {
+                Resource queueItemResource = ResourceQueueUtils.getResourceById(queueRoot, entry.getId());
+                if (queueItemResource != null) {
+                    ResourceQueueUtils.markClaimed(queueItemResource);
+                    claimed.add(entry);
+                }
+            }
+            if (!claimed.isEmpty()) {
+                resourceResolver.commit();
+            }
+            return claimed;
+        } catch (LoginException | PersistenceException e) {
+            throw new RuntimeException(e);
+        } finally {
+            resolverPool.release(resourceResolver);
         }
     }
 
     public void recordProcessingAttempt(@NotNull DistributionQueueEntry entry) {
         ResourceResolver resourceResolver = null;
         try {
-            resourceResolver = DistributionUtils.loginService(resolverFactory, serviceName);
+            resourceResolver = resolverPool.acquire();
             Resource queueRoot = ResourceQueueUtils.getRootResource(resourceResolver, queueRootPath);
             Resource queueItemResource = ResourceQueueUtils.getResourceById(queueRoot, entry.getId());
             ResourceQueueUtils.incrementProcessingAttemptForQueueItem(queueItemResource);
@@ -83,7 +255,7 @@ public class ActiveResourceQueue extends ResourceQueue {
         } catch (Exception e) {
             log.warn("Couldn't increment processing-attempt for queue entry with id: {}", entry.getId());
         } finally {
-            DistributionUtils.safelyLogout(resourceResolver);
+            resolverPool.release(resourceResolver);
         }
     }
 }
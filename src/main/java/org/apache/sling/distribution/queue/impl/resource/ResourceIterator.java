@@ -45,7 +45,7 @@ public class ResourceIterator implements Iterator<Resource> {
         this.rootPath = root.getPath();
 
         currentFolder = root;
-        currentIterator = currentFolder.listChildren();
+        currentIterator = listChildren(currentFolder);
         next = seek();
     }
 
@@ -90,6 +90,11 @@ public class ResourceIterator implements Iterator<Resource> {
         return null;
     }
 
+    // the items of sharded folders are merged in queue order, unless the shard folders themselves are requested
+    private Iterator<Resource> listChildren(Resource folder) {
+        return includeFolders ? folder.listChildren() : ResourceQueueUtils.listOrderedChildren(folder);
+    }
+
     // depth first, post order (children before parents)
     Resource seekAll() {
 
@@ -101,7 +106,7 @@ public class ResourceIterator implements Iterator<Resource> {
                     folderIterators.push(currentIterator);
 
                     currentFolder = res;
-                    currentIterator = currentFolder.listChildren();
+                    currentIterator = listChildren(currentFolder);
                 } else {
                     return res;
                 }
@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.PersistenceException;
@@ -36,7 +37,6 @@ import org.apache.sling.distribution.queue.DistributionQueueState;
 import org.apache.sling.distribution.queue.DistributionQueueStatus;
 import org.apache.sling.distribution.queue.DistributionQueueType;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
-import org.apache.sling.distribution.util.impl.DistributionUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
@@ -51,19 +51,48 @@ public class ResourceQueue implements DistributionQueue {
     private static final Set<String> CAPABILITIES =
             Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(APPENDABLE, REMOVABLE, CLEARABLE)));
 
+    // number of entries removed per commit when clearing the queue
+    private static final int CLEAR_BATCH_SIZE = 1000;
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     protected final ResourceResolverFactory resolverFactory;
+    protected final ResourceResolverPool resolverPool;
     protected final String queueRootPath;
     protected String serviceName;
     protected String queueName;
+    protected final int shards;
+    protected volatile DistributionQueueType type = DistributionQueueType.ORDERED;
+
+    /**
+     * notified once items have been added by this instance
+     */
+    private volatile Runnable addListener;
 
     public ResourceQueue(
             ResourceResolverFactory resolverFactory, String serviceName, String queueName, String rootPath) {
+        this(
+                resolverFactory,
+                new ResourceResolverPool(resolverFactory, serviceName, ResourceResolverPool.DEFAULT_SIZE),
+                serviceName,
+                queueName,
+                rootPath,
+                1);
+    }
+
+    public ResourceQueue(
+            ResourceResolverFactory resolverFactory,
+            ResourceResolverPool resolverPool,
+            String serviceName,
+            String queueName,
+            String rootPath,
+            int shards) {
         this.resolverFactory = resolverFactory;
+        this.resolverPool = resolverPool;
         this.serviceName = serviceName;
         this.queueName = queueName;
         this.queueRootPath = rootPath + "/" + queueName;
+        this.shards = Math.max(1, shards);
         log.debug("starting a Resource Queue {}", queueName);
     }
 
@@ -79,16 +108,19 @@ public class ResourceQueue implements DistributionQueue {
 
         ResourceResolver resourceResolver = null;
         try {
-            resourceResolver = DistributionUtils.loginService(resolverFactory, serviceName);
+            resourceResolver = resolverPool.acquire();
 
             Resource queueRoot = ResourceQueueUtils.getRootResource(resourceResolver, queueRootPath);
 
-            Resource resource = ResourceQueueUtils.createResource(queueRoot, item);
+            Resource resource = ResourceQueueUtils.createResources(queueRoot, Collections.singletonList(item), shards)
+                    .get(0);
 
             DistributionQueueEntry entry = ResourceQueueUtils.readEntry(queueRoot, resource);
 
             logEntry(entry, "add");
 
+            notifyAdded();
+
             return entry;
 
         } catch (LoginException e) {
@@ -96,7 +128,44 @@ public class ResourceQueue implements DistributionQueue {
         } catch (PersistenceException e) {
             throw new RuntimeException(e);
         } finally {
-            DistributionUtils.safelyLogout(resourceResolver);
+            resolverPool.release(resourceResolver);
+        }
+    }
+
+    /**
+     * Adds the given items with a single commit.
+     *
+     * @param items the items to add, in order
+     * @return the added entries, in order
+     */
+    @NotNull
+    public List<DistributionQueueEntry> addAll(@NotNull List<DistributionQueueItem> items) {
+        if (items.isEmpty()) {
+            return Collections.emptyList();
+        }
+        ResourceResolver resourceResolver = null;
+        try {
+            resourceResolver = resolverPool.acquire();
+
+            Resource queueRoot = ResourceQueueUtils.getRootResource(resourceResolver, queueRootPath);
+
+            List<DistributionQueueEntry> entries = new ArrayList<DistributionQueueEntry>(items.size());
+            for (Resource resource : ResourceQueueUtils.createResources(queueRoot, items, shards)) {
+                DistributionQueueEntry entry = ResourceQueueUtils.readEntry(queueRoot, resource);
+                logEntry(entry, "add");
+                entries.add(entry);
+            }
+
+            notifyAdded();
+
+            return entries;
+
+        } catch (LoginException e) {
+            throw new RuntimeException(e);
+        } catch (PersistenceException e) {
+            throw new RuntimeException(e);
+        } finally {
+            resolverPool.release(resourceResolver);
         }
     }
 
@@ -104,7 +173,7 @@ public class ResourceQueue implements DistributionQueue {
     public DistributionQueueEntry getHead() {
         ResourceResolver resourceResolver = null;
         try {
-            resourceResolver = DistributionUtils.loginService(resolverFactory, serviceName);
+            resourceResolver = resolverPool.acquire();
             Resource queueRoot = ResourceQueueUtils.getRootResource(resourceResolver, queueRootPath);
 
             DistributionQueueEntry head = ResourceQueueUtils.getHead(queueRoot);
@@ -118,7 +187,7 @@ public class ResourceQueue implements DistributionQueue {
         } catch (PersistenceException e) {
             throw new RuntimeException(e);
         } finally {
-            DistributionUtils.safelyLogout(resourceResolver);
+            resolverPool.release(resourceResolver);
         }
     }
 
@@ -127,7 +196,7 @@ public class ResourceQueue implements DistributionQueue {
     public Iterable<DistributionQueueEntry> getEntries(int skip, int limit) {
         ResourceResolver resourceResolver = null;
         try {
-            resourceResolver = DistributionUtils.loginService(resolverFactory, serviceName);
+            resourceResolver = resolverPool.acquire();
             Resource queueRoot = ResourceQueueUtils.getRootResource(resourceResolver, queueRootPath);
 
             List<DistributionQueueEntry> entries = ResourceQueueUtils.getEntries(queueRoot, skip, limit);
@@ -140,7 +209,7 @@ public class ResourceQueue implements DistributionQueue {
         } catch (PersistenceException e) {
             throw new RuntimeException(e);
         } finally {
-            DistributionUtils.safelyLogout(resourceResolver);
+            resolverPool.release(resourceResolver);
         }
     }
 
@@ -149,7 +218,7 @@ public class ResourceQueue implements DistributionQueue {
     public DistributionQueueEntry getEntry(@NotNull String itemId) {
         ResourceResolver resourceResolver = null;
         try {
-            resourceResolver = DistributionUtils.loginService(resolverFactory, serviceName);
+            resourceResolver = resolverPool.acquire();
             Resource queueRoot = ResourceQueueUtils.getRootResource(resourceResolver, queueRootPath);
 
             Resource itemResource = ResourceQueueUtils.getResourceById(queueRoot, itemId);
@@ -165,21 +234,42 @@ public class ResourceQueue implements DistributionQueue {
         } catch (PersistenceException e) {
             throw new RuntimeException(e);
         } finally {
-            DistributionUtils.safelyLogout(resourceResolver);
+            resolverPool.release(resourceResolver);
         }
     }
 
     @NotNull
     @Override
     public Iterable<DistributionQueueEntry> remove(@NotNull Set<String> entryIds) {
-        List<DistributionQueueEntry> removed = new ArrayList<DistributionQueueEntry>();
-        for (String entryId : entryIds) {
-            DistributionQueueEntry entry = remove(entryId);
-            if (entry != null) {
-                removed.add(entry);
+        ResourceResolver resourceResolver = null;
+        try {
+            resourceResolver = resolverPool.acquire();
+            Resource queueRoot = ResourceQueueUtils.getRootResource(resourceResolver, queueRootPath);
+
+            List<DistributionQueueEntry> removed = new ArrayList<DistributionQueueEntry>();
+            List<Resource> itemResources = new ArrayList<Resource>();
+            for (String entryId : entryIds) {
+                Resource itemResource = ResourceQueueUtils.getResourceById(queueRoot, entryId);
+                DistributionQueueEntry entry = ResourceQueueUtils.readEntry(queueRoot, itemResource);
+                if (entry != null) {
+                    itemResources.add(itemResource);
+                    removed.add(entry);
+                    logEntry(entry, "remove");
+                }
             }
+
+            // all the entries are removed with a single commit
+            ResourceQueueUtils.deleteResources(queueRoot, itemResources);
+
+            return removed;
+
+        } catch (LoginException e) {
+            throw new RuntimeException(e);
+        } catch (PersistenceException e) {
+            throw new RuntimeException(e);
+        } finally {
+            resolverPool.release(resourceResolver);
         }
-        return removed;
     }
 
     @Nullable
@@ -187,14 +277,14 @@ public class ResourceQueue implements DistributionQueue {
     public DistributionQueueEntry remove(@NotNull String itemId) {
         ResourceResolver resourceResolver = null;
         try {
-            resourceResolver = DistributionUtils.loginService(resolverFactory, serviceName);
+            resourceResolver = resolverPool.acquire();
             Resource queueRoot = ResourceQueueUtils.getRootResource(resourceResolver, queueRootPath);
 
             Resource itemResource = ResourceQueueUtils.getResourceById(queueRoot, itemId);
 
             DistributionQueueEntry entry = ResourceQueueUtils.readEntry(queueRoot, itemResource);
 
-            ResourceQueueUtils.deleteResource(itemResource);
+            ResourceQueueUtils.deleteResource(queueRoot, itemResource);
 
             logEntry(entry, "remove");
 
@@ -205,7 +295,7 @@ public class ResourceQueue implements DistributionQueue {
         } catch (PersistenceException e) {
             throw new RuntimeException(e);
         } finally {
-            DistributionUtils.safelyLogout(resourceResolver);
+            resolverPool.release(resourceResolver);
         }
     }
 
@@ -214,10 +304,10 @@ public class ResourceQueue implements DistributionQueue {
     public DistributionQueueStatus getStatus() {
         ResourceResolver resourceResolver = null;
         try {
-            resourceResolver = DistributionUtils.loginService(resolverFactory, serviceName);
+            resourceResolver = resolverPool.acquire();
             Resource queueRoot = ResourceQueueUtils.getRootResource(resourceResolver, queueRootPath);
 
-            int count = ResourceQueueUtils.getResourceCount(queueRoot);
+            int count = ResourceQueueUtils.getItemCount(queueRoot);
 
             return new DistributionQueueStatus(count, DistributionQueueState.PASSIVE);
         } catch (LoginException e) {
@@ -225,14 +315,29 @@ public class ResourceQueue implements DistributionQueue {
         } catch (PersistenceException e) {
             throw new RuntimeException(e);
         } finally {
-            DistributionUtils.safelyLogout(resourceResolver);
+            resolverPool.release(resourceResolver);
         }
     }
 
     @NotNull
     @Override
     public DistributionQueueType getType() {
-        return DistributionQueueType.ORDERED;
+        return type;
+    }
+
+    void setType(@NotNull DistributionQueueType type) {
+        this.type = type;
+    }
+
+    void setAddListener(@Nullable Runnable addListener) {
+        this.addListener = addListener;
+    }
+
+    private void notifyAdded() {
+        Runnable listener = addListener;
+        if (listener != null) {
+            listener.run();
+        }
     }
 
     void logEntry(DistributionQueueEntry entry, String scope) {
@@ -256,15 +361,35 @@ public class ResourceQueue implements DistributionQueue {
     @Override
     public Iterable<DistributionQueueEntry> clear(int limit) {
         final List<DistributionQueueEntry> removedEntries = new ArrayList<DistributionQueueEntry>();
-        for (DistributionQueueEntry entry : getEntries(0, limit)) {
-            DistributionQueueEntry removed = remove(entry.getId());
-            if (removed != null) {
-                removedEntries.add(removed);
-            }
-        }
+        clear(limit, removedEntries::add);
         return removedEntries;
     }
 
+    @Override
+    public int clear(int limit, @NotNull Consumer<DistributionQueueEntry> removed) {
+        ResourceResolver resourceResolver = null;
+        try {
+            resourceResolver = resolverPool.acquire();
+            Resource queueRoot = ResourceQueueUtils.getRootResource(resourceResolver, queueRootPath);
+
+            int count = ResourceQueueUtils.clear(queueRoot, limit, CLEAR_BATCH_SIZE, entry -> {
+                logEntry(entry, "clear");
+                removed.accept(entry);
+            });
+
+            log.debug("queue[{}] cleared {} entries", queueName, count);
+
+            return count;
+
+        } catch (LoginException e) {
+            throw new RuntimeException(e);
+        } catch (PersistenceException e) {
+            throw new RuntimeException(e);
+        } finally {
+            resolverPool.release(resourceResolver);
+        }
+    }
+
     @Override
     public boolean hasCapability(@NotNull String capability) {
         return CAPABILITIES.contains(capability);
@@ -61,6 +61,17 @@ public class ResourceQueueCleanupTask implements Runnable {
 
                 removeEmptyFolders(queueRoot);
 
+                try {
+                    if (ResourceQueueUtils.reconcileItemCount(queueRoot)) {
+                        log.info("Corrected the item count of queue at {}", queueRoot.getPath());
+                    }
+                } catch (PersistenceException e) {
+                    // the queue has been modified concurrently, the count is reconciled on the next run
+                    log.debug("Could not reconcile the item count of queue at {}", queueRoot.getPath(), e);
+                    resourceResolver.revert();
+                    resourceResolver.refresh();
+                }
+
                 log.debug("Finished cleaning up queue at {}", queueRoot.getPath());
             }
         } catch (Throwable e) {
@@ -83,6 +94,10 @@ public class ResourceQueueCleanupTask implements Runnable {
             Resource res = it.next();
 
             String resPath = res.getPath().substring(root.getPath().length() + 1);
+            if (resPath.length() > nowPath.length()) {
+                // a shard folder, which can be deleted along with its minute
+                resPath = resPath.substring(0, nowPath.length());
+            }
 
             if (!res.isResourceType(ResourceQueueUtils.RESOURCE_FOLDER)) {
                 continue;
@@ -22,7 +22,7 @@ import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Consumer;
+import java.util.function.BiConsumer;
 
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.commons.scheduler.ScheduleOptions;
@@ -32,6 +32,7 @@ import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueType;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProcessor;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProvider;
+import org.apache.sling.distribution.queue.impl.DistributionQueueSettings;
 import org.apache.sling.distribution.queue.impl.simple.SimpleDistributionQueueProcessor;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.jetbrains.annotations.NotNull;
@@ -45,6 +46,12 @@ public class ResourceQueueProvider implements DistributionQueueProvider {
 
     public static final String QUEUES_ROOT = "/var/sling/distribution/queues/";
 
+    /**
+     * period in seconds of the scheduled queue processing, which picks up the items added by the cluster instances
+     * other than the one processing the queue
+     */
+    private static final long SAFETY_NET_PERIOD = 1;
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private ResourceResolverFactory resolverFactory;
@@ -53,9 +60,15 @@ public class ResourceQueueProvider implements DistributionQueueProvider {
     private Scheduler scheduler;
     private String agentName;
     private boolean isActive;
+    private int shards;
+    private DistributionQueueSettings settings;
 
     private final Map<String, ResourceQueue> queueMap = new ConcurrentHashMap<>();
 
+    private final Map<String, SimpleDistributionQueueProcessor> processors = new ConcurrentHashMap<>();
+
+    private final ResourceResolverPool resolverPool;
+
     private ServiceRegistration<Runnable> cleanupTask;
 
     public ResourceQueueProvider(
@@ -65,6 +78,30 @@ public class ResourceQueueProvider implements DistributionQueueProvider {
             String agentName,
             Scheduler scheduler,
             boolean isActive) {
+        this(
+                context,
+                resolverFactory,
+                serviceName,
+                agentName,
+                scheduler,
+                isActive,
+                1,
+                DistributionQueueSettings.DEFAULT);
+    }
+
+    /**
+     * @param shards the number of shards the entries of each queue are spread over
+     * @param settings the settings of the queue processing
+     */
+    public ResourceQueueProvider(
+            BundleContext context,
+            ResourceResolverFactory resolverFactory,
+            String serviceName,
+            String agentName,
+            Scheduler scheduler,
+            boolean isActive,
+            int shards,
+            DistributionQueueSettings settings) {
         if (serviceName == null
                 || (scheduler == null && isActive)
                 || context == null
@@ -78,6 +115,9 @@ public class ResourceQueueProvider implements DistributionQueueProvider {
         this.agentRootPath = QUEUES_ROOT + agentName;
         this.scheduler = scheduler;
         this.isActive = isActive;
+        this.shards = shards;
+        this.settings = settings;
+        this.resolverPool = new ResourceResolverPool(resolverFactory, serviceName, ResourceResolverPool.DEFAULT_SIZE);
 
         register(context);
     }
@@ -87,9 +127,9 @@ public class ResourceQueueProvider implements DistributionQueueProvider {
     public DistributionQueue getQueue(@NotNull String queueName) throws DistributionException {
         return queueMap.computeIfAbsent(queueName, name -> {
             if (isActive) {
-                return new ActiveResourceQueue(resolverFactory, serviceName, name, agentRootPath);
+                return new ActiveResourceQueue(resolverFactory, resolverPool, serviceName, name, agentRootPath, shards);
             } else {
-                return new ResourceQueue(resolverFactory, serviceName, name, agentRootPath);
+                return new ResourceQueue(resolverFactory, resolverPool, serviceName, name, agentRootPath, shards);
             }
         });
     }
@@ -98,7 +138,9 @@ public class ResourceQueueProvider implements DistributionQueueProvider {
     @Override
     public DistributionQueue getQueue(@NotNull String queueName, @NotNull DistributionQueueType type) {
         try {
-            return getQueue(queueName);
+            ResourceQueue queue = (ResourceQueue) getQueue(queueName);
+            queue.setType(type);
+            return queue;
         } catch (DistributionException e) {
             throw new RuntimeException("could not create config for queue " + queueName, e);
         }
@@ -111,18 +153,29 @@ public class ResourceQueueProvider implements DistributionQueueProvider {
         if (isActive) {
             for (String queueName : queueNames) {
                 ScheduleOptions options = scheduler
-                        .NOW(-1, 1)
+                        .NOW(-1, SAFETY_NET_PERIOD)
                         .canRunConcurrently(false)
                         .onSingleInstanceOnly(true)
                         .name(getJobName(queueName));
                 DistributionQueue queueImpl = getQueue(queueName);
-                Consumer<DistributionQueueEntry> processingAttemptRecorder = null;
-                if (isActive) {
-                    processingAttemptRecorder = ((ActiveResourceQueue) queueImpl)::recordProcessingAttempt;
+                ActiveResourceQueue activeQueue = (ActiveResourceQueue) queueImpl;
+                BiConsumer<DistributionQueueEntry, Throwable> processingAttemptRecorder =
+                        (entry, error) -> activeQueue.recordProcessingAttempt(entry);
+                SimpleDistributionQueueProcessor processor = new SimpleDistributionQueueProcessor(
+                        queueImpl,
+                        queueProcessor,
+                        processingAttemptRecorder,
+                        SimpleDistributionQueueProcessor.DEFAULT_BATCH_SIZE,
+                        settings);
+                if (settings.isCoalesce()) {
+                    // claiming persists a marker per entry, only needed when entries may be superseded
+                    processor.setClaimer(activeQueue::claim);
                 }
-                scheduler.schedule(
-                        new SimpleDistributionQueueProcessor(queueImpl, queueProcessor, processingAttemptRecorder),
-                        options);
+                processors.put(queueName, processor);
+                // the wake ups only run on the instance processing the queue
+                processor.setScheduler(scheduler, getJobName(queueName), true);
+                ((ResourceQueue) queueImpl).setAddListener(processor::wakeUp);
+                scheduler.schedule(processor, options);
             }
         } else {
             throw new DistributionException(
@@ -142,6 +195,11 @@ public class ResourceQueueProvider implements DistributionQueueProvider {
                 } else {
                     log.warn("could not disable queue processing on {}", queue);
                 }
+                SimpleDistributionQueueProcessor processor = processors.remove(queueName);
+                if (processor != null) {
+                    ((ResourceQueue) queue).setAddListener(null);
+                    processor.close();
+                }
             }
         } else {
             throw new DistributionException(
@@ -161,10 +219,18 @@ public class ResourceQueueProvider implements DistributionQueueProvider {
         cleanupTask = context.registerService(Runnable.class, cleanup, props);
     }
 
+    @Override
+    public long getLoginCount() {
+        return resolverPool.getLoginCount();
+    }
+
+    @Override
     public void close() {
         if (cleanupTask != null) {
             cleanupTask.unregister();
             cleanupTask = null;
         }
+        log.debug("closing resource queues of agent {} after {} logins", agentName, resolverPool.getLoginCount());
+        resolverPool.close();
     }
 }
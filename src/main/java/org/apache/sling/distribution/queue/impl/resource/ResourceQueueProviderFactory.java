@@ -21,8 +21,11 @@ package org.apache.sling.distribution.queue.impl.resource;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.commons.scheduler.Scheduler;
 import org.apache.sling.distribution.component.impl.DistributionComponentConstants;
+import org.apache.sling.distribution.queue.impl.DistributionQueueLanes;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProvider;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProviderFactory;
+import org.apache.sling.distribution.queue.impl.DistributionQueueRetryBackoff;
+import org.apache.sling.distribution.queue.impl.DistributionQueueSettings;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
@@ -45,6 +48,35 @@ public class ResourceQueueProviderFactory implements DistributionQueueProviderFa
     public @interface Config {
         @AttributeDefinition(name = "Should the Resource-backed queue created with a Queue Processor (i.e., ACTIVE)")
         boolean queue_isActive() default false;
+
+        @AttributeDefinition(
+                name = "Shards",
+                description = "The number of folders the items added within a minute are spread over, "
+                        + "to reduce the conflicts between concurrent writers. 1 keeps all items in the minute folder.")
+        int queue_shards() default 1;
+
+        @AttributeDefinition(
+                name = "Parallelism",
+                description = "The number of workers processing each PARALLEL queue, e.g. the delivery queues.")
+        int queue_parallelism() default 1;
+
+        @AttributeDefinition(
+                name = "Retry delay",
+                description = "The delay in milliseconds before reattempting an item which failed to be processed. "
+                        + "It doubles with each further attempt, up to the maximum retry delay.")
+        long retry_delay() default DistributionQueueRetryBackoff.DEFAULT_INITIAL_DELAY;
+
+        @AttributeDefinition(
+                name = "Maximum retry delay",
+                description =
+                        "The maximum delay in milliseconds before reattempting an item which failed to be processed.")
+        long retry_delay_max() default DistributionQueueRetryBackoff.DEFAULT_MAX_DELAY;
+
+        @AttributeDefinition(
+                name = "Skip ahead",
+                description = "Process the items of an ordered queue behind a blocked item ahead of it, "
+                        + "as long as their paths do not overlap the paths of the blocked items.")
+        boolean queue_skipAhead() default false;
     }
 
     @Reference
@@ -57,21 +89,30 @@ public class ResourceQueueProviderFactory implements DistributionQueueProviderFa
 
     private boolean isActive;
 
+    private int shards;
+
+    private DistributionQueueSettings settings;
+
     @Activate
     protected void activate(BundleContext context, Config conf) {
         this.isActive = conf.queue_isActive();
+        this.shards = conf.queue_shards();
+        this.settings = new DistributionQueueSettings(
+                conf.queue_parallelism(),
+                new DistributionQueueRetryBackoff(conf.retry_delay(), conf.retry_delay_max()),
+                conf.queue_skipAhead(),
+                DistributionQueueLanes.NONE);
         this.context = context;
     }
 
     @Override
     public DistributionQueueProvider getProvider(String agentName, String serviceName) {
-        return new ResourceQueueProvider(context, resourceResolverFactory, serviceName, agentName, scheduler, isActive);
+        return new ResourceQueueProvider(
+                context, resourceResolverFactory, serviceName, agentName, scheduler, isActive, shards, settings);
     }
 
     @Override
     public void releaseProvider(DistributionQueueProvider queueProvider) {
-        if (queueProvider instanceof ResourceQueueProvider) {
-            ((ResourceQueueProvider) queueProvider).close();
-        }
+        queueProvider.close();
     }
 }
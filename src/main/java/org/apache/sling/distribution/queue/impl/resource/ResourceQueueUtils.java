@@ -21,13 +21,16 @@ package org.apache.sling.distribution.queue.impl.resource;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.PersistenceException;
@@ -41,6 +44,7 @@ import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.apache.sling.distribution.queue.DistributionQueueItemState;
 import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
+import org.apache.sling.distribution.queue.impl.DistributionQueueUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,6 +59,9 @@ public class ResourceQueueUtils {
     // resource type for internal ordered folders
     public static final String RESOURCE_FOLDER = "sling:OrderedFolder";
 
+    // name prefix of the folders the items of a minute are sharded over
+    static final String SHARD_PREFIX = "shard-";
+
     // resource type for internal entries
     private static final String RESOURCE_ITEM = "nt:unstructured";
 
@@ -64,6 +71,9 @@ public class ResourceQueueUtils {
     private static final String ENTERED_DATE = "entered.date";
     private static final String PROCESSING_ATTEMPTS = "processing.attempts";
 
+    // number of entries in a folder, maintained on the folders the entries are added to
+    private static final String ITEMS_COUNT = "items.count";
+
     private static final AtomicLong itemCounter = new AtomicLong(0);
     private static final Logger log = LoggerFactory.getLogger(ResourceQueueUtils.class);
 
@@ -179,10 +189,63 @@ public class ResourceQueueUtils {
         return null;
     }
 
+    /**
+     * Finds the head of the queue, skipping the folders which sort before the given folder path.
+     * The folders are named after the time they were created at, so that the folders before the
+     * folder of a previously found head only contain entries added since if clocks are skewed.
+     *
+     * @param root the queue root
+     * @param fromFolderPath the folder path relative to the root to start from, or {@code null} to scan the whole queue
+     * @return the head entry, or {@code null} if there are no entries at or after the given folder
+     */
+    static DistributionQueueEntry getHead(Resource root, String fromFolderPath) {
+        String[] from = fromFolderPath != null ? fromFolderPath.split("/") : null;
+        Resource resource = seekFirstItem(root, from, 0);
+        return readEntry(root, resource);
+    }
+
+    private static Resource seekFirstItem(Resource folder, String[] from, int depth) {
+        Iterator<Resource> it = listOrderedChildren(folder);
+        while (it.hasNext()) {
+            Resource child = it.next();
+            if (!child.isResourceType(RESOURCE_FOLDER)) {
+                return child;
+            }
+            String[] childFrom = null;
+            if (from != null && depth < from.length) {
+                int compare = child.getName().compareTo(from[depth]);
+                if (compare < 0) {
+                    continue;
+                }
+                childFrom = compare == 0 ? from : null;
+            }
+            Resource item = seekFirstItem(child, childFrom, depth + 1);
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the path of the folder containing the given entry, relative to the queue root
+     */
+    static String getFolderPath(String entryId) {
+        String entryPath = unescapeId(entryId);
+        if (entryPath == null || entryPath.lastIndexOf('/') < 0) {
+            return null;
+        }
+        String folderPath = entryPath.substring(0, entryPath.lastIndexOf('/'));
+        int shardIndex = folderPath.lastIndexOf("/" + SHARD_PREFIX);
+        return shardIndex < 0 ? folderPath : folderPath.substring(0, shardIndex);
+    }
+
     public static Resource getRootResource(ResourceResolver resourceResolver, String rootPath)
             throws PersistenceException {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(ResourceResolver.PROPERTY_RESOURCE_TYPE, RESOURCE_FOLDER);
         Resource resource =
-                ResourceUtil.getOrCreateResource(resourceResolver, rootPath, RESOURCE_FOLDER, RESOURCE_ROOT, true);
+                ResourceUtil.getOrCreateResource(resourceResolver, rootPath, properties, RESOURCE_ROOT, true);
 
         return resource;
     }
@@ -193,34 +256,80 @@ public class ResourceQueueUtils {
     }
 
     public static Resource createResource(Resource root, DistributionQueueItem queueItem) throws PersistenceException {
+        return createResources(root, Collections.singletonList(queueItem), 1).get(0);
+    }
 
-        Resource minuteResource = getOrCreateMinuteResource(root);
+    /**
+     * Creates the resources for the given items with a single commit.
+     *
+     * With more than one shard, the items are stored in one of the shard folders of the current minute, picked at
+     * random for each batch so that concurrent writers rarely modify the same folder, and are named after a
+     * monotonic sequence which orders the items of a minute across its shards.
+     *
+     * @param root the queue root
+     * @param queueItems the items to add, in order
+     * @param shards the number of shard folders per minute, {@code 1} to store the items in the minute folder
+     * @return the created resources, in order
+     */
+    public static List<Resource> createResources(Resource root, List<DistributionQueueItem> queueItems, int shards)
+            throws PersistenceException {
 
-        String entryPath = getUniqueEntryPath(minuteResource);
+        Resource minuteResource = getOrCreateMinuteResource(root, shards);
 
-        ResourceResolver resourceResolver = root.getResourceResolver();
+        String parentPath = minuteResource.getPath();
+        if (shards > 1) {
+            parentPath += "/" + getShardName(ThreadLocalRandom.current().nextInt(shards));
+        }
 
-        Map<String, Object> properties = serializeItem(queueItem);
+        List<String> entryPaths = new ArrayList<String>(queueItems.size());
+        List<Map<String, Object>> entryProperties = new ArrayList<Map<String, Object>>(queueItems.size());
+        for (DistributionQueueItem queueItem : queueItems) {
+            entryPaths.add(shards > 1 ? getSequenceEntryPath(parentPath) : getUniqueEntryPath(minuteResource));
+            Map<String, Object> properties = serializeItem(queueItem);
+            properties.put("sling:resourceType", RESOURCE_ITEM);
+            properties.put(ENTERED_DATE, Calendar.getInstance());
+            entryProperties.add(properties);
+        }
 
-        properties.put("sling:resourceType", RESOURCE_ITEM);
-        properties.put(ENTERED_DATE, Calendar.getInstance());
-        Resource resourceItem =
-                ResourceUtil.getOrCreateResource(resourceResolver, entryPath, properties, RESOURCE_FOLDER, true);
+        ResourceResolver resourceResolver = root.getResourceResolver();
+        List<Resource> resourceItems;
+        try {
+            resourceItems = createResources(root, parentPath, entryPaths, entryProperties);
+            resourceResolver.commit();
+        } catch (PersistenceException e) {
+            // the folder and its item count are updated concurrently by other sessions, retry once on a fresh state
+            log.debug("creating queue items failed, retrying", e);
+            resourceResolver.revert();
+            resourceResolver.refresh();
+            resourceItems = createResources(root, parentPath, entryPaths, entryProperties);
+            resourceResolver.commit();
+        }
 
-        resourceResolver.commit();
+        return resourceItems;
+    }
 
-        return resourceItem;
+    private static List<Resource> createResources(
+            Resource root, String parentPath, List<String> entryPaths, List<Map<String, Object>> entryProperties)
+            throws PersistenceException {
+        ResourceResolver resourceResolver = root.getResourceResolver();
+        List<Resource> resourceItems = new ArrayList<Resource>(entryPaths.size());
+        for (int i = 0; i < entryPaths.size(); i++) {
+            resourceItems.add(ResourceUtil.getOrCreateResource(
+                    resourceResolver, entryPaths.get(i), entryProperties.get(i), RESOURCE_FOLDER, false));
+        }
+        adjustItemCount(root, parentPath, entryPaths.size());
+        return resourceItems;
     }
 
     /**
      * Creates a minute resource by retrying several times. If it fails even the last time it will throw an exception.
      */
-    private static Resource getOrCreateMinuteResource(Resource root) throws PersistenceException {
+    private static Resource getOrCreateMinuteResource(Resource root, int shards) throws PersistenceException {
 
         final int retries = 2;
         for (int i = 0; i < retries; i++) {
             try {
-                return tryGetOrCreateMinutes(root);
+                return tryGetOrCreateMinutes(root, shards);
             } catch (PersistenceException e) {
                 log.warn("creating minute resource failed. retrying {} more times.", retries - i);
             }
@@ -229,15 +338,16 @@ public class ResourceQueueUtils {
             root.getResourceResolver().refresh();
         }
 
-        return tryGetOrCreateMinutes(root);
+        return tryGetOrCreateMinutes(root, shards);
     }
 
     /**
      * Creates a set of resources for consecutive minutes.
      * This ensures that consecutive minutes are created by a single thread, and that are created in order.
      * This might fail due to concurrency issues and needs to be retried a couple of times.
+     * The shard folders of each minute are created along with it.
      */
-    private static Resource tryGetOrCreateMinutes(Resource root) throws PersistenceException {
+    private static Resource tryGetOrCreateMinutes(Resource root, int shards) throws PersistenceException {
 
         ResourceResolver resourceResolver = root.getResourceResolver();
         Calendar now = Calendar.getInstance();
@@ -251,7 +361,11 @@ public class ResourceQueueUtils {
 
         for (int i = 0; i < 3; i++) {
             String newMinutePath = getTimePath(now);
-            Resource resource = createResource(root, newMinutePath);
+            // the items are counted on the folders they are added to
+            Resource resource = createResource(root, newMinutePath, shards <= 1);
+            for (int shard = 0; shard < shards && shards > 1; shard++) {
+                createResource(root, newMinutePath + "/" + getShardName(shard), true);
+            }
             log.debug("minute resource created {}", resource.getPath());
             now.add(Calendar.MINUTE, 1);
         }
@@ -268,7 +382,7 @@ public class ResourceQueueUtils {
      * This is different than ResourceUtil.getOrCreateResource as it only creates the resource, it does not retrieve it.
      * This ensures that consecutive minutes are always created atomically.
      */
-    private static Resource createResource(Resource root, String relPath) throws PersistenceException {
+    private static Resource createResource(Resource root, String relPath, boolean counted) throws PersistenceException {
         ResourceResolver resourceResolver = root.getResourceResolver();
 
         String path = root.getPath() + "/" + relPath;
@@ -278,19 +392,24 @@ public class ResourceQueueUtils {
         Resource parent =
                 ResourceUtil.getOrCreateResource(resourceResolver, parentPath, RESOURCE_FOLDER, RESOURCE_FOLDER, false);
 
-        Map<String, Object> props =
-                Collections.singletonMap(ResourceResolver.PROPERTY_RESOURCE_TYPE, (Object) RESOURCE_FOLDER);
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(ResourceResolver.PROPERTY_RESOURCE_TYPE, RESOURCE_FOLDER);
+        if (counted) {
+            props.put(ITEMS_COUNT, 0L);
+        }
 
         return resourceResolver.create(parent, name, props);
     }
 
-    public static void deleteResource(Resource resource) throws PersistenceException {
+    public static void deleteResource(Resource root, Resource resource) throws PersistenceException {
         ResourceResolver resolver = resource.getResourceResolver();
 
         String path = resource.getPath();
+        String parentPath = ResourceUtil.getParent(path);
 
         try {
             resolver.delete(resource);
+            adjustItemCount(root, parentPath, -1);
             resolver.commit();
         } catch (PersistenceException var10) {
             resolver.revert();
@@ -298,15 +417,350 @@ public class ResourceQueueUtils {
             resource = resolver.getResource(path);
             if (resource != null) {
                 resolver.delete(resource);
+                adjustItemCount(root, parentPath, -1);
                 resolver.commit();
             }
         }
     }
 
+    /**
+     * Deletes the given resources with a single commit.
+     * If the commit fails, the deletion of the resources which still exist is retried once.
+     */
+    public static void deleteResources(Resource root, Collection<Resource> resources) throws PersistenceException {
+        if (resources.isEmpty()) {
+            return;
+        }
+        ResourceResolver resolver = root.getResourceResolver();
+
+        List<String> paths = new ArrayList<String>(resources.size());
+        try {
+            for (Resource resource : resources) {
+                paths.add(resource.getPath());
+                resolver.delete(resource);
+            }
+            adjustItemCounts(root, paths);
+            resolver.commit();
+        } catch (PersistenceException e) {
+            resolver.revert();
+            resolver.refresh();
+            List<String> deleted = new ArrayList<String>(paths.size());
+            for (String path : paths) {
+                Resource resource = resolver.getResource(path);
+                if (resource != null) {
+                    resolver.delete(resource);
+                    deleted.add(path);
+                }
+            }
+            adjustItemCounts(root, deleted);
+            resolver.commit();
+        }
+    }
+
+    /**
+     * Removes the entries at the head of the queue, committing every {@code batchSize} entries.
+     * Past minute folders which are cleared completely are deleted as a whole, the entries of the
+     * current minute are deleted one by one as items may still be added to it.
+     *
+     * @param root the queue root
+     * @param limit the maximum number of entries to remove, {@code -1} to remove all the entries
+     * @param batchSize the number of entries removed per commit
+     * @param removed the consumer of the removed entries, called once they have been committed
+     * @return the number of removed entries
+     */
+    static int clear(Resource root, int limit, int batchSize, Consumer<DistributionQueueEntry> removed)
+            throws PersistenceException {
+        Clearing clearing = new Clearing(root, limit, batchSize, removed);
+        clearing.clearFolder(root, 0);
+        clearing.commit();
+        return clearing.count;
+    }
+
+    private static class Clearing {
+
+        // depth of the minute folders below the queue root
+        private static final int MINUTE_DEPTH = 5;
+
+        private final Resource root;
+        private final int limit;
+        private final int batchSize;
+        private final Consumer<DistributionQueueEntry> removed;
+        private final String nowPath = getTimePath(Calendar.getInstance());
+        private final List<DistributionQueueEntry> pending = new ArrayList<DistributionQueueEntry>();
+        private int count;
+
+        Clearing(Resource root, int limit, int batchSize, Consumer<DistributionQueueEntry> removed) {
+            this.root = root;
+            this.limit = limit;
+            this.batchSize = Math.max(1, batchSize);
+            this.removed = removed;
+        }
+
+        private boolean isDone() {
+            return limit != -1 && count + pending.size() >= limit;
+        }
+
+        void clearFolder(Resource folder, int depth) throws PersistenceException {
+            if (depth == MINUTE_DEPTH) {
+                clearMinute(folder);
+                return;
+            }
+            Iterator<Resource> it = folder.listChildren();
+            while (it.hasNext() && !isDone()) {
+                Resource child = it.next();
+                if (child.isResourceType(RESOURCE_FOLDER)) {
+                    clearFolder(child, depth + 1);
+                }
+            }
+        }
+
+        private void clearMinute(Resource minute) throws PersistenceException {
+            List<Resource> items = new ArrayList<Resource>();
+            boolean flushed = false;
+            Iterator<Resource> it = listOrderedChildren(minute);
+            while (it.hasNext() && !isDone()) {
+                Resource item = it.next();
+                DistributionQueueEntry entry = readEntry(root, item);
+                if (entry == null) {
+                    continue;
+                }
+                items.add(item);
+                pending.add(entry);
+                if (pending.size() >= batchSize) {
+                    delete(items);
+                    items.clear();
+                    commit();
+                    flushed = true;
+                }
+            }
+
+            String minutePath = minute.getPath().substring(root.getPath().length() + 1);
+            if (!flushed && !it.hasNext() && isSafeToDelete(nowPath, minutePath)) {
+                // the item counts of the minute go along with it
+                root.getResourceResolver().delete(minute);
+            } else {
+                delete(items);
+            }
+        }
+
+        private void delete(List<Resource> items) throws PersistenceException {
+            ResourceResolver resolver = root.getResourceResolver();
+            List<String> paths = new ArrayList<String>(items.size());
+            for (Resource item : items) {
+                paths.add(item.getPath());
+                resolver.delete(item);
+            }
+            adjustItemCounts(root, paths);
+        }
+
+        void commit() throws PersistenceException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            root.getResourceResolver().commit();
+            for (DistributionQueueEntry entry : pending) {
+                removed.accept(entry);
+            }
+            count += pending.size();
+            pending.clear();
+        }
+    }
+
     public static int getResourceCount(Resource root) {
         return getEntries(root, 0, -1).size();
     }
 
+    /**
+     * Sums the item counts maintained on the folders of the queue, traversing the folders but not the entries.
+     * The entries of folders created before the counts were maintained are counted.
+     */
+    public static int getItemCount(Resource root) {
+        long count = 0;
+        Iterator<Resource> it = root.listChildren();
+        while (it.hasNext()) {
+            count += countItems(it.next());
+        }
+        return (int) count;
+    }
+
+    private static long countItems(Resource resource) {
+        if (!resource.isResourceType(RESOURCE_FOLDER)) {
+            return resource.isResourceType(RESOURCE_ITEM) ? 1 : 0;
+        }
+        Long count = resource.getValueMap().get(ITEMS_COUNT, Long.class);
+        if (count != null) {
+            return Math.max(0, count);
+        }
+        long items = 0;
+        Iterator<Resource> it = resource.listChildren();
+        while (it.hasNext()) {
+            items += countItems(it.next());
+        }
+        return items;
+    }
+
+    /**
+     * Sets the item counts maintained on the folders of the queue to the actual number of entries they contain.
+     * Folders holding entries are given a count if they have none yet.
+     *
+     * @return {@code true} if a maintained count has been corrected
+     */
+    public static boolean reconcileItemCount(Resource root) throws PersistenceException {
+        boolean[] corrected = {false};
+        ModifiableValueMap rootProperties = root.adaptTo(ModifiableValueMap.class);
+        if (rootProperties != null && rootProperties.containsKey(ITEMS_COUNT)) {
+            // the queue count maintained on the root by previous versions
+            rootProperties.remove(ITEMS_COUNT);
+            corrected[0] = true;
+        }
+        Iterator<Resource> it = root.listChildren();
+        while (it.hasNext()) {
+            Resource child = it.next();
+            if (child.isResourceType(RESOURCE_FOLDER)) {
+                reconcileItemCount(child, corrected);
+            }
+        }
+        if (corrected[0]) {
+            root.getResourceResolver().commit();
+        }
+        return corrected[0];
+    }
+
+    private static long reconcileItemCount(Resource folder, boolean[] corrected) {
+        long items = 0;
+        boolean holdsItems = false;
+        Iterator<Resource> it = folder.listChildren();
+        while (it.hasNext()) {
+            Resource child = it.next();
+            if (child.isResourceType(RESOURCE_FOLDER)) {
+                items += reconcileItemCount(child, corrected);
+            } else if (child.isResourceType(RESOURCE_ITEM)) {
+                items++;
+                holdsItems = true;
+            }
+        }
+        Long count = folder.getValueMap().get(ITEMS_COUNT, Long.class);
+        if ((count != null || holdsItems) && (count == null || count != items)) {
+            ModifiableValueMap vm = folder.adaptTo(ModifiableValueMap.class);
+            if (vm != null) {
+                log.debug("reconciling item count of folder {} from {} to {}", folder.getPath(), count, items);
+                vm.put(ITEMS_COUNT, items);
+                corrected[0] = true;
+            }
+        }
+        return items;
+    }
+
+    /*
+     * Updates the item counts of the folders of the given entries as part of the pending changes.
+     */
+    private static void adjustItemCounts(Resource root, Collection<String> entryPaths) {
+        Map<String, Long> deltas = new HashMap<String, Long>();
+        for (String entryPath : entryPaths) {
+            deltas.merge(ResourceUtil.getParent(entryPath), -1L, Long::sum);
+        }
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            adjustItemCount(root, delta.getKey(), delta.getValue());
+        }
+    }
+
+    /*
+     * Updates the item count of the closest counted folder as part of the pending changes. The count is kept on
+     * the folder the entries are added to, which each addition and removal modifies anyway, so that writers to
+     * different folders do not conflict.
+     */
+    private static void adjustItemCount(Resource root, String folderPath, long delta) {
+        ResourceResolver resolver = root.getResourceResolver();
+        String path = folderPath;
+        while (path != null && path.startsWith(root.getPath() + "/")) {
+            Resource folder = resolver.getResource(path);
+            ModifiableValueMap vm = folder != null ? folder.adaptTo(ModifiableValueMap.class) : null;
+            Long count = vm != null ? vm.get(ITEMS_COUNT, Long.class) : null;
+            if (count != null) {
+                vm.put(ITEMS_COUNT, Math.max(0, count + delta));
+                return;
+            }
+            path = ResourceUtil.getParent(path);
+        }
+    }
+
+    private static String getShardName(int shard) {
+        return String.format("%s%02d", SHARD_PREFIX, shard);
+    }
+
+    /*
+     * Creates a path named after the current time and a sequence, so that the names sort in creation order.
+     * A random suffix keeps the names unique across instances.
+     */
+    private static String getSequenceEntryPath(String parentPath) {
+        return String.format(
+                "%s/%013d_%010d_%s",
+                parentPath,
+                System.currentTimeMillis(),
+                itemCounter.getAndIncrement(),
+                UUID.randomUUID().toString().substring(0, 8));
+    }
+
+    private static boolean isShard(Resource resource) {
+        return resource.getName().startsWith(SHARD_PREFIX) && resource.isResourceType(RESOURCE_FOLDER);
+    }
+
+    /**
+     * Lists the children of a queue folder in queue order. The items of a sharded minute folder are merged
+     * across its shards and ordered by name.
+     */
+    static Iterator<Resource> listOrderedChildren(Resource folder) {
+        Iterator<Resource> it = folder.listChildren();
+        if (!it.hasNext()) {
+            return it;
+        }
+        Resource first = it.next();
+        if (!isShard(first)) {
+            return new ChainedIterator(first, it);
+        }
+
+        List<Resource> items = new ArrayList<Resource>();
+        Resource child = first;
+        while (child != null) {
+            if (isShard(child)) {
+                Iterator<Resource> shardItems = child.listChildren();
+                while (shardItems.hasNext()) {
+                    items.add(shardItems.next());
+                }
+            } else {
+                items.add(child);
+            }
+            child = it.hasNext() ? it.next() : null;
+        }
+        Collections.sort(items, (a, b) -> a.getName().compareTo(b.getName()));
+        return items.iterator();
+    }
+
+    private static class ChainedIterator implements Iterator<Resource> {
+        private Resource first;
+        private final Iterator<Resource> rest;
+
+        ChainedIterator(Resource first, Iterator<Resource> rest) {
+            this.first = first;
+            this.rest = rest;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return first != null || rest.hasNext();
+        }
+
+        @Override
+        public Resource next() {
+            if (first != null) {
+                Resource next = first;
+                first = null;
+                return next;
+            }
+            return rest.next();
+        }
+    }
+
     private static String getUniqueEntryPath(Resource parent) {
         final StringBuilder sb = new StringBuilder();
         sb.append(parent.getPath());
@@ -390,4 +844,12 @@ public class ResourceQueueUtils {
         int attempts = vm.get(PROCESSING_ATTEMPTS, 0);
         vm.put(PROCESSING_ATTEMPTS, attempts + 1);
     }
+
+    /**
+     * mark a queue item as claimed by the queue processor, see {@link DistributionQueueUtils#isClaimed}
+     */
+    static void markClaimed(Resource queueItemResource) {
+        ValueMap vm = queueItemResource.adaptTo(ModifiableValueMap.class);
+        vm.put(DISTRIBUTION_PACKAGE_PREFIX + DistributionQueueUtils.PROPERTY_CLAIMED, true);
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl.resource;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.distribution.util.impl.DistributionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of service resource resolvers, shared by the resource queues of a provider.
+ *
+ * A resolver is used by a single caller at a time: concurrent callers each acquire their own resolver,
+ * and a new one is logged in when none is idle. Released resolvers are reverted and kept for reuse,
+ * up to the pool size; acquired resolvers are refreshed so that they see the latest persisted state.
+ */
+public class ResourceResolverPool {
+
+    public static final int DEFAULT_SIZE = 4;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ResourceResolverFactory resolverFactory;
+
+    private final String serviceName;
+
+    private final BlockingDeque<ResourceResolver> idle;
+
+    private final AtomicLong logins = new AtomicLong();
+
+    private volatile boolean closed;
+
+    public ResourceResolverPool(ResourceResolverFactory resolverFactory, String serviceName, int size) {
+        this.resolverFactory = resolverFactory;
+        this.serviceName = serviceName;
+        this.idle = new LinkedBlockingDeque<ResourceResolver>(Math.max(1, size));
+    }
+
+    public ResourceResolver acquire() throws LoginException {
+        ResourceResolver resourceResolver;
+        while ((resourceResolver = idle.pollFirst()) != null) {
+            if (resourceResolver.isLive()) {
+                resourceResolver.refresh();
+                return resourceResolver;
+            }
+        }
+        logins.incrementAndGet();
+        return DistributionUtils.loginService(resolverFactory, serviceName);
+    }
+
+    public void release(ResourceResolver resourceResolver) {
+        if (resourceResolver == null) {
+            return;
+        }
+        try {
+            if (!closed && resourceResolver.isLive()) {
+                if (resourceResolver.hasChanges()) {
+                    resourceResolver.revert();
+                }
+                if (idle.offerFirst(resourceResolver)) {
+                    if (closed && idle.remove(resourceResolver)) {
+                        // closed concurrently
+                        DistributionUtils.safelyLogout(resourceResolver);
+                    }
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("cannot return resource resolver to the pool", e);
+        }
+        DistributionUtils.safelyLogout(resourceResolver);
+    }
+
+    /**
+     * @return the number of service logins made by this pool
+     */
+    public long getLoginCount() {
+        return logins.get();
+    }
+
+    public void close() {
+        closed = true;
+        ResourceResolver resourceResolver;
+        while ((resourceResolver = idle.pollFirst()) != null) {
+            DistributionUtils.safelyLogout(resourceResolver);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl.simple;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The segment files and the group commit shared by the {@link QueueJournal}s of a {@link SimpleDistributionQueue}.
+ *
+ * Appends only add a record to the pending ones; {@link #sync(long)} makes them durable: the first caller encodes,
+ * writes and fsyncs all the pending records, the concurrent callers waiting behind it find their records already
+ * synced. The records are only dropped once durable: on failure the current segment, whose tail may be torn, is
+ * abandoned and the records are written again to a new segment by the next sync. Segments are rolled once they
+ * reach the segment size, and are named {@code <queue>-<segment><suffix>} after a number increasing with each one.
+ *
+ * @param <R> the type of the pending records
+ */
+abstract class AbstractSegmentedQueueJournal<R> implements QueueJournal {
+
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    protected final File directory;
+
+    protected final String queueName;
+
+    private final long segmentSize;
+
+    private final String segmentSuffix;
+
+    /**
+     * records appended but not yet written to the current segment, guarded by its own monitor
+     */
+    private final List<R> pending = new ArrayList<R>();
+
+    private long appendedSeq;
+
+    private volatile long syncedSeq;
+
+    /**
+     * guards the current segment channel, only one thread writes and fsyncs at a time
+     */
+    private final Object syncLock = new Object();
+
+    private FileChannel channel;
+
+    /**
+     * the segment being written, or written by the next sync if none is open
+     */
+    private long currentSegment;
+
+    /**
+     * the bytes of the current segment written so far
+     */
+    private long currentSegmentSize;
+
+    /**
+     * @param segment the first segment to write, never one of a previous run as its tail may be torn
+     */
+    AbstractSegmentedQueueJournal(
+            @NotNull File directory,
+            @NotNull String queueName,
+            long segmentSize,
+            @NotNull String segmentSuffix,
+            long segment) {
+        this.directory = directory;
+        this.queueName = queueName;
+        this.segmentSize = segmentSize;
+        this.segmentSuffix = segmentSuffix;
+        this.currentSegment = segment;
+    }
+
+    /**
+     * encode the given records in the format of the current segment
+     */
+    @NotNull
+    abstract byte[] encode(@NotNull List<R> records) throws IOException;
+
+    /**
+     * called once the given records are durable, before the next ones are encoded
+     */
+    void written(@NotNull List<R> records) {}
+
+    /**
+     * called before the records of a new segment are encoded
+     */
+    void segmentOpened(long segment) throws IOException {}
+
+    /**
+     * @return the segment to write after the given one, greater than it
+     */
+    long segmentAfter(long segment) {
+        return segment + 1;
+    }
+
+    final long append(@NotNull R record) {
+        synchronized (pending) {
+            pending.add(record);
+            return ++appendedSeq;
+        }
+    }
+
+    /**
+     * @return the sequence of the latest appended record
+     */
+    final long getAppendedSeq() {
+        synchronized (pending) {
+            return appendedSeq;
+        }
+    }
+
+    final long getCurrentSegment() {
+        synchronized (syncLock) {
+            return currentSegment;
+        }
+    }
+
+    @Override
+    public void sync(long seq) throws IOException {
+        if (syncedSeq >= seq) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedSeq >= seq) {
+                // synced by another thread of the same group
+                return;
+            }
+            flush();
+        }
+    }
+
+    /**
+     * flush the pending records and start a new segment
+     *
+     * @return the new segment
+     */
+    final long roll() throws IOException {
+        synchronized (syncLock) {
+            flush();
+            openSegment(segmentAfter(currentSegment));
+            return currentSegment;
+        }
+    }
+
+    private void flush() throws IOException {
+        List<R> records;
+        long upTo;
+        synchronized (pending) {
+            records = new ArrayList<R>(pending);
+            upTo = appendedSeq;
+        }
+        if (records.isEmpty()) {
+            syncedSeq = upTo;
+            return;
+        }
+        int size;
+        try {
+            if (channel == null) {
+                openSegment(currentSegment);
+            }
+            ByteBuffer data = ByteBuffer.wrap(encode(records));
+            size = data.remaining();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            log.error("could not sync the records of queue {}, rolling to a new segment", queueName, e);
+            abandonSegment();
+            throw e;
+        }
+        currentSegmentSize += size;
+        written(records);
+        synchronized (pending) {
+            pending.subList(0, records.size()).clear();
+        }
+        syncedSeq = upTo;
+        if (currentSegmentSize >= segmentSize) {
+            openSegment(segmentAfter(currentSegment));
+        }
+    }
+
+    private void abandonSegment() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("could not close segment {} of queue {}", currentSegment, queueName, e);
+            }
+            channel = null;
+        }
+        // the records are written again to a new segment, which must not reuse the name of the abandoned one
+        currentSegment = segmentAfter(currentSegment);
+    }
+
+    private void openSegment(long segment) throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        currentSegment = segment;
+        currentSegmentSize = 0;
+        segmentOpened(segment);
+        channel = FileChannel.open(
+                file(segment, segmentSuffix).toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * write a file atomically: its content is fsynced to a temporary file, then renamed
+     */
+    final void writeFile(@NotNull File file, @NotNull Content content) throws IOException {
+        File tmp = new File(directory, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            content.write(out);
+            out.flush();
+            out.getFD().sync();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("could not replace " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("could not rename " + tmp);
+        }
+    }
+
+    /**
+     * delete the files with the given suffix of the segments before the given one
+     */
+    final void deleteBefore(@NotNull String suffix, long segment) {
+        for (Map.Entry<Long, File> entry : listFiles(suffix).entrySet()) {
+            if (entry.getKey() < segment && !entry.getValue().delete()) {
+                log.warn("could not delete file {} of queue {}", entry.getValue(), queueName);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (syncLock) {
+            try {
+                flush();
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                log.warn("could not close the segments of queue {}", queueName, e);
+            } finally {
+                channel = null;
+            }
+        }
+    }
+
+    @NotNull
+    final File file(long segment, @NotNull String suffix) {
+        return new File(directory, String.format("%s-%020d%s", queueName, segment, suffix));
+    }
+
+    /**
+     * @return the files with the given suffix, by segment
+     */
+    @NotNull
+    final TreeMap<Long, File> listFiles(@NotNull String suffix) {
+        return listFiles(directory, queueName, suffix);
+    }
+
+    /**
+     * @return the files of the given queue with the given suffix, by segment
+     */
+    @NotNull
+    static TreeMap<Long, File> listFiles(@NotNull File directory, @NotNull String queueName, @NotNull String suffix) {
+        Pattern fileNamePattern = Pattern.compile(Pattern.quote(queueName) + "-(\\d{20})(\\.\\w+)");
+        TreeMap<Long, File> files = new TreeMap<Long, File>();
+        File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                Matcher matcher = fileNamePattern.matcher(child.getName());
+                if (matcher.matches() && suffix.equals(matcher.group(2))) {
+                    files.put(Long.parseLong(matcher.group(1)), child);
+                }
+            }
+        }
+        return files;
+    }
+
+    interface Content {
+
+        void write(@NotNull OutputStream out) throws IOException;
+    }
+}
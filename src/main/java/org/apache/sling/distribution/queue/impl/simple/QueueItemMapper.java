@@ -26,21 +26,73 @@ import javax.json.JsonString;
 import javax.json.JsonValue;
 import javax.json.stream.JsonGenerator;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.text.NumberFormat;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.function.Consumer;
 
+import org.apache.sling.distribution.DistributionRequestType;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Serialize/Unserialize {@link DistributionQueueItem} items.
+ *
+ * Items are either written as a line made of the package id followed by a JSON object of the item properties,
+ * or in a compact binary format. A binary stream starts with a {@link #BINARY_MAGIC} and a version byte,
+ * followed by length prefixed records. Within a stream, property keys are interned: each key is written
+ * once and then referenced by its index. A record with a negative length is a removal record, holding only
+ * the id of an item removed since it was written.
+ *
+ * A checkpoint ends with a generation record, a removal record for a reserved id, and its delta starts with
+ * the generation record of the checkpoint it applies to.
  */
 public class QueueItemMapper {
 
+    static final int BINARY_MAGIC = 0x53445149;
+
+    static final byte BINARY_VERSION = 1;
+
+    /**
+     * prefix of the reserved ids of the generation records, which package ids never start with
+     */
+    private static final String GENERATION_PREFIX = "\0generation:";
+
+    private static final byte TYPE_NULL = 0;
+
+    private static final byte TYPE_STRING = 1;
+
+    private static final byte TYPE_STRING_ARRAY = 2;
+
+    private static final byte TYPE_LONG = 3;
+
+    private static final byte TYPE_BOOLEAN = 4;
+
+    private static final byte TYPE_REQUEST_TYPE = 5;
+
+    private static final byte TYPE_INTEGER = 6;
+
+    private static final byte TYPE_DOUBLE = 7;
+
     DistributionQueueItem readQueueItem(String line) {
         String[] split = line.split(" ", 2);
         if (split.length != 2) {
@@ -117,4 +169,329 @@ public class QueueItemMapper {
 
         return packageId + " " + w.toString();
     }
+
+    /**
+     * read all the items of a checkpoint file, written either in the binary or in the JSON lines format
+     *
+     * @param file the checkpoint file
+     * @return the items, in order
+     */
+    @NotNull
+    List<DistributionQueueItem> readCheckpoint(@NotNull File file) throws IOException {
+        return readCheckpoint(file, null);
+    }
+
+    /**
+     * read all the items of a checkpoint file and apply the changes recorded since then in a delta file
+     *
+     * @param file the checkpoint file
+     * @param delta the binary delta file, if any
+     * @return the items, in order
+     */
+    @NotNull
+    List<DistributionQueueItem> readCheckpoint(@NotNull File file, @Nullable File delta) throws IOException {
+        Map<String, DistributionQueueItem> items = new LinkedHashMap<String, DistributionQueueItem>();
+        String generation = readInto(file, items);
+        if (delta != null && delta.exists() && delta.length() > 0) {
+            Map<String, DistributionQueueItem> folded = new LinkedHashMap<String, DistributionQueueItem>(items);
+            String base = readInto(delta, folded);
+            // a delta left over by a crash right after the checkpoint was replaced is already folded in it
+            if (generation == null ? base == null : generation.equals(base)) {
+                items = folded;
+            }
+        }
+        return new ArrayList<DistributionQueueItem>(items.values());
+    }
+
+    /**
+     * read the records of a checkpoint or delta file into the given items
+     *
+     * @return the generation the file holds, if any
+     */
+    @Nullable
+    private String readInto(@NotNull File file, @NotNull Map<String, DistributionQueueItem> items) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        final String[] generation = {null};
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() == 0) {
+                return null;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (isBinary(buffer)) {
+                new BinaryReader(buffer).readInto(item -> items.put(item.getPackageId(), item), id -> {
+                    if (id.startsWith(GENERATION_PREFIX)) {
+                        generation[0] = id.substring(GENERATION_PREFIX.length());
+                    } else {
+                        items.remove(id);
+                    }
+                });
+            } else {
+                // checkpoints written before the binary format, kept readable for migration
+                String content = Charset.defaultCharset().decode(buffer).toString();
+                for (String line : content.split("\r?\n")) {
+                    if (!line.isEmpty()) {
+                        DistributionQueueItem item = readQueueItem(line);
+                        items.put(item.getPackageId(), item);
+                    }
+                }
+            }
+        }
+        return generation[0];
+    }
+
+    private static boolean isBinary(ByteBuffer buffer) {
+        return buffer.remaining() >= 5 && buffer.getInt(buffer.position()) == BINARY_MAGIC;
+    }
+
+    /**
+     * Writes {@link DistributionQueueItem} items to a stream in the binary format,
+     * reusing the same buffer for all the records.
+     */
+    static class BinaryWriter {
+
+        private final OutputStream out;
+
+        private final Map<String, Integer> keys = new HashMap<String, Integer>();
+
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream(512);
+
+        private final DataOutputStream data = new DataOutputStream(record);
+
+        private final DataOutputStream header;
+
+        BinaryWriter(@NotNull OutputStream out) throws IOException {
+            this.out = out;
+            this.header = new DataOutputStream(out);
+            header.writeInt(BINARY_MAGIC);
+            header.writeByte(BINARY_VERSION);
+        }
+
+        /**
+         * write a generation record, tying a checkpoint and its delta
+         */
+        void writeGeneration(@NotNull String generation) throws IOException {
+            writeRemoval(GENERATION_PREFIX + generation);
+        }
+
+        /**
+         * write a removal record for the item with the given id
+         */
+        void writeRemoval(@NotNull String packageId) throws IOException {
+            record.reset();
+            writeString(packageId);
+            data.flush();
+            header.writeInt(-record.size());
+            record.writeTo(out);
+        }
+
+        void write(@NotNull DistributionQueueItem item) throws IOException {
+            record.reset();
+            writeString(item.getPackageId());
+            data.writeLong(item.getSize());
+            data.writeInt(item.size());
+            for (Map.Entry<String, Object> entry : item.entrySet()) {
+                writeKey(entry.getKey());
+                writeValue(entry.getValue());
+            }
+            data.flush();
+            header.writeInt(record.size());
+            record.writeTo(out);
+        }
+
+        private void writeKey(String key) throws IOException {
+            Integer index = keys.get(key);
+            if (index != null) {
+                data.writeInt(index);
+            } else {
+                // a new key is written right after the next free index
+                data.writeInt(keys.size());
+                writeString(key);
+                keys.put(key, keys.size());
+            }
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                data.writeByte(TYPE_NULL);
+            } else if (value instanceof String[]) {
+                String[] strings = (String[]) value;
+                data.writeByte(TYPE_STRING_ARRAY);
+                data.writeInt(strings.length);
+                for (String s : strings) {
+                    writeString(s);
+                }
+            } else if (value instanceof Long) {
+                data.writeByte(TYPE_LONG);
+                data.writeLong((Long) value);
+            } else if (value instanceof Integer) {
+                data.writeByte(TYPE_INTEGER);
+                data.writeInt((Integer) value);
+            } else if (value instanceof Boolean) {
+                data.writeByte(TYPE_BOOLEAN);
+                data.writeBoolean((Boolean) value);
+            } else if (value instanceof Double || value instanceof Float) {
+                data.writeByte(TYPE_DOUBLE);
+                data.writeDouble(((Number) value).doubleValue());
+            } else if (value instanceof DistributionRequestType) {
+                data.writeByte(TYPE_REQUEST_TYPE);
+                writeString(((DistributionRequestType) value).name());
+            } else {
+                data.writeByte(TYPE_STRING);
+                writeString(String.valueOf(value));
+            }
+        }
+
+        private void writeString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+    }
+
+    /**
+     * Reads {@link DistributionQueueItem} items written by a {@link BinaryWriter} from a buffer.
+     */
+    static class BinaryReader {
+
+        private final ByteBuffer buffer;
+
+        private final List<String> keys = new ArrayList<String>();
+
+        private byte[] scratch = new byte[256];
+
+        BinaryReader(@NotNull ByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+            if (!isBinary(buffer)) {
+                throw new IOException("not a binary queue item stream");
+            }
+            buffer.getInt();
+            byte version = buffer.get();
+            if (version != BINARY_VERSION) {
+                throw new IOException("unsupported binary queue item version " + version);
+            }
+        }
+
+        /**
+         * @return the next item, or {@code null} when the end of the buffer or a truncated record is reached
+         */
+        @Nullable
+        DistributionQueueItem read() throws IOException {
+            if (buffer.remaining() < 4) {
+                return null;
+            }
+            int length = buffer.getInt();
+            if (length < 0 || buffer.remaining() < length) {
+                // a record torn while writing
+                return null;
+            }
+            return readItem(length);
+        }
+
+        /**
+         * read all the remaining records, applying the removal records to the items already read
+         *
+         * @param items the items by id, in order
+         */
+        void readInto(@NotNull Map<String, DistributionQueueItem> items) throws IOException {
+            readInto(item -> items.put(item.getPackageId(), item), items::remove);
+        }
+
+        /**
+         * read all the remaining records, passing them in order to the given consumers
+         *
+         * @param added consumes the items
+         * @param removed consumes the ids of the items of the removal records
+         */
+        void readInto(@NotNull Consumer<DistributionQueueItem> added, @NotNull Consumer<String> removed)
+                throws IOException {
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if (buffer.remaining() < Math.abs(length)) {
+                    // a record torn while writing
+                    return;
+                }
+                if (length < 0) {
+                    String removedId;
+                    try {
+                        removedId = readString();
+                    } catch (BufferUnderflowException e) {
+                        throw new IOException("invalid binary removal record", e);
+                    }
+                    removed.accept(removedId);
+                } else {
+                    added.accept(readItem(length));
+                }
+            }
+        }
+
+        private DistributionQueueItem readItem(int length) throws IOException {
+            int end = buffer.position() + length;
+            try {
+                String packageId = readString();
+                long size = buffer.getLong();
+                int count = buffer.getInt();
+                Map<String, Object> info = new HashMap<String, Object>(Math.max(4, count * 2));
+                for (int i = 0; i < count; i++) {
+                    String key = readKey();
+                    info.put(key, readValue());
+                }
+                if (buffer.position() != end) {
+                    throw new IOException("invalid record length " + length);
+                }
+                return new DistributionQueueItem(packageId, size, info);
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new IOException("invalid binary queue item record", e);
+            }
+        }
+
+        private String readKey() {
+            int index = buffer.getInt();
+            if (index == keys.size()) {
+                keys.add(readString());
+            }
+            return keys.get(index);
+        }
+
+        private Object readValue() throws IOException {
+            byte type = buffer.get();
+            switch (type) {
+                case TYPE_NULL:
+                    return null;
+                case TYPE_STRING:
+                    return readString();
+                case TYPE_STRING_ARRAY:
+                    String[] strings = new String[buffer.getInt()];
+                    for (int i = 0; i < strings.length; i++) {
+                        strings[i] = readString();
+                    }
+                    return strings;
+                case TYPE_LONG:
+                    return buffer.getLong();
+                case TYPE_INTEGER:
+                    return buffer.getInt();
+                case TYPE_BOOLEAN:
+                    return buffer.get() != 0;
+                case TYPE_DOUBLE:
+                    return buffer.getDouble();
+                case TYPE_REQUEST_TYPE:
+                    return DistributionRequestType.valueOf(readString());
+                default:
+                    throw new IOException("unknown value type " + type);
+            }
+        }
+
+        private String readString() {
+            int length = buffer.getInt();
+            if (length > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl.simple;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.distribution.queue.DistributionQueueEntry;
+import org.apache.sling.distribution.queue.DistributionQueueItem;
+import org.apache.sling.distribution.queue.DistributionQueueItemState;
+import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
+import org.apache.sling.distribution.queue.impl.DistributionQueueUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A {@link DistributionQueueItem} held by a {@link SimpleDistributionQueue} together with
+ * its mutable processing status.
+ *
+ * The status fields are updated atomically, so that they can be read concurrently
+ * without locking while the queue processor records attempts.
+ */
+class QueueItemRecord {
+
+    /**
+     * the time in milliseconds the item entered the queue, held by the items persisted in the journal of the queue
+     */
+    static final String PROPERTY_ENTERED = "internal.queue.entered";
+
+    private final DistributionQueueItem item;
+
+    private final Calendar entered;
+
+    private final AtomicInteger attempts;
+
+    private volatile DistributionQueueItemState state;
+
+    private volatile Throwable error;
+
+    /**
+     * whether a processor has claimed the item, only kept in memory
+     */
+    private volatile boolean claimed;
+
+    /**
+     * position of the item in the journal of the queue, if any, assigned while holding the queue lock
+     */
+    private long offset = -1;
+
+    QueueItemRecord(@NotNull DistributionQueueItem item, @NotNull Calendar entered, int attempts) {
+        this.item = item;
+        this.entered = entered;
+        this.attempts = new AtomicInteger(attempts);
+        this.state = attempts > 0 ? DistributionQueueItemState.ERROR : DistributionQueueItemState.QUEUED;
+    }
+
+    /**
+     * @param persisted an item read from the journal of a queue
+     * @param attempts the number of processing attempts of the item
+     * @return the record of the item, entered at the persisted time if any, otherwise now
+     */
+    @NotNull
+    static QueueItemRecord restore(@NotNull DistributionQueueItem persisted, int attempts) {
+        Calendar entered = Calendar.getInstance();
+        Object time = persisted.get(PROPERTY_ENTERED);
+        if (!(time instanceof Number)) {
+            // persisted before the time was
+            return new QueueItemRecord(persisted, entered, attempts);
+        }
+        entered.setTimeInMillis(((Number) time).longValue());
+        Map<String, Object> properties = new HashMap<String, Object>(persisted);
+        properties.remove(PROPERTY_ENTERED);
+        DistributionQueueItem item =
+                new DistributionQueueItem(persisted.getPackageId(), persisted.getSize(), properties);
+        return new QueueItemRecord(item, entered, attempts);
+    }
+
+    @NotNull
+    DistributionQueueItem getItem() {
+        return item;
+    }
+
+    /**
+     * @return the item to persist in the journal of the queue, holding the time it entered the queue
+     */
+    @NotNull
+    DistributionQueueItem toPersistedItem() {
+        DistributionQueueItem persisted =
+                new DistributionQueueItem(item.getPackageId(), item.getSize(), new HashMap<>(item));
+        persisted.put(PROPERTY_ENTERED, entered.getTimeInMillis());
+        return persisted;
+    }
+
+    long getEnteredTime() {
+        return entered.getTimeInMillis();
+    }
+
+    int getAttempts() {
+        return attempts.get();
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    /**
+     * record a failed processing attempt for this item, which is then in {@link DistributionQueueItemState#ERROR}
+     *
+     * @param error the error that caused the attempt to fail, if known
+     * @return the updated number of attempts
+     */
+    int recordAttempt(@Nullable Throwable error) {
+        if (error != null) {
+            this.error = error;
+        }
+        this.state = DistributionQueueItemState.ERROR;
+        return attempts.incrementAndGet();
+    }
+
+    void setClaimed() {
+        this.claimed = true;
+    }
+
+    @NotNull
+    DistributionQueueItemStatus getStatus(@NotNull String queueName) {
+        return new DistributionQueueItemStatus(entered, state, attempts.get(), queueName, error);
+    }
+
+    @NotNull
+    DistributionQueueEntry toEntry(@NotNull String queueName) {
+        DistributionQueueItem entryItem = item;
+        if (claimed) {
+            // the item may be shared with other queues
+            entryItem = new DistributionQueueItem(item.getPackageId(), item.getSize(), new HashMap<>(item));
+            entryItem.put(DistributionQueueUtils.PROPERTY_CLAIMED, true);
+        }
+        return new DistributionQueueEntry(item.getPackageId(), entryItem, getStatus(queueName));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl.simple;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Durable storage of the changes made to a {@link SimpleDistributionQueue}.
+ *
+ * The changes are appended while holding the queue lock, so that they are stored in the order they are applied,
+ * and made durable by {@link #sync(long)} once the lock is released.
+ */
+interface QueueJournal {
+
+    /**
+     * @return the sequence of the appended record, to be passed to {@link #sync(long)}, or {@code 0} if nothing
+     *         needs to be synced
+     */
+    long logAdd(@NotNull QueueItemRecord record);
+
+    long logRemove(@NotNull QueueItemRecord record);
+
+    long logAttempt(@NotNull QueueItemRecord record);
+
+    /**
+     * make all the records up to the given sequence durable
+     *
+     * @param seq the sequence returned when appending a record
+     * @throws IOException if the records could not be made durable, they are kept and written again by the next
+     *         sync
+     */
+    void sync(long seq) throws IOException;
+
+    /**
+     * @return {@code true} if the journal holds records which a compaction would drop
+     */
+    boolean needsCompaction();
+
+    /**
+     * start a compaction, while holding the queue lock
+     *
+     * @param records the records of the queue, in order
+     * @return the compaction to complete once the queue lock is released
+     */
+    @NotNull
+    Compaction startCompaction(@NotNull Collection<QueueItemRecord> records) throws IOException;
+
+    /**
+     * read the records stored by previous runs
+     *
+     * @return the recovered queue content, in order
+     */
+    @NotNull
+    Collection<QueueItemRecord> replay() throws IOException;
+
+    void close();
+
+    interface Compaction {
+
+        void complete() throws IOException;
+    }
+}
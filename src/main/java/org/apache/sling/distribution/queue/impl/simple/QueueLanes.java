@@ -0,0 +1,369 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl.simple;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.sling.distribution.queue.impl.DistributionQueueLanes;
+import org.apache.sling.distribution.queue.impl.DistributionQueueUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The items of a {@link SimpleDistributionQueue} indexed by priority lane, together with the smooth weighted
+ * round robin credits deciding which lane is dequeued next.
+ *
+ * The head of a lane is only dequeued once the items queued before it with overlapping paths, which are in other
+ * lanes, are dequeued, so that the items distributing the same content keep their order across lanes. The items
+ * with unknown paths overlap all the others. The paths of the queued items are indexed for this check.
+ *
+ * Once selected, the head is kept until it is removed, whatever the credits and waiting times meanwhile; removing
+ * the head advances the credits by one turn. Not thread safe, guarded by the queue monitor.
+ */
+class QueueLanes {
+
+    private final DistributionQueueLanes lanes;
+
+    private final List<LinkedHashMap<String, QueueItemRecord>> index;
+
+    private final int[] credits;
+
+    /**
+     * position in the queue and paths of the queued items, by id
+     */
+    private final Map<String, Indexed> indexed = new HashMap<String, Indexed>();
+
+    /**
+     * positions of the queued items, by path
+     */
+    private final TreeMap<String, TreeSet<Long>> pathIndex = new TreeMap<String, TreeSet<Long>>();
+
+    /**
+     * positions of the queued items with unknown paths
+     */
+    private final TreeSet<Long> unknownPaths = new TreeSet<Long>();
+
+    private long nextPosition;
+
+    /**
+     * the selected head, kept until removed, with the credits after its selection
+     */
+    private QueueItemRecord head;
+
+    private int[] headCredits;
+
+    QueueLanes(@NotNull DistributionQueueLanes lanes) {
+        this.lanes = lanes;
+        this.index = new ArrayList<LinkedHashMap<String, QueueItemRecord>>(lanes.getLaneCount());
+        for (int i = 0; i < lanes.getLaneCount(); i++) {
+            index.add(new LinkedHashMap<String, QueueItemRecord>());
+        }
+        this.credits = new int[lanes.getLaneCount()];
+    }
+
+    void add(@NotNull QueueItemRecord record) {
+        String id = record.getItem().getPackageId();
+        if (head != null && head.getItem().getPackageId().equals(id)) {
+            // replaced, selected again
+            head = null;
+        }
+        for (LinkedHashMap<String, QueueItemRecord> lane : index) {
+            if (lane.remove(id) != null) {
+                unindex(id);
+                break;
+            }
+        }
+        index.get(lanes.getLane(record.getItem())).put(id, record);
+        long position = nextPosition++;
+        String[] paths = DistributionQueueUtils.getPaths(record.getItem());
+        List<String> normalized = paths != null ? normalize(paths) : null;
+        indexed.put(id, new Indexed(position, normalized));
+        if (normalized == null) {
+            unknownPaths.add(position);
+        } else {
+            for (String path : normalized) {
+                TreeSet<Long> pathPositions = pathIndex.get(path);
+                if (pathPositions == null) {
+                    pathPositions = new TreeSet<Long>();
+                    pathIndex.put(path, pathPositions);
+                }
+                pathPositions.add(position);
+            }
+        }
+    }
+
+    /**
+     * @param id the id of the item to remove
+     */
+    void remove(@NotNull String id) {
+        if (head != null && head.getItem().getPackageId().equals(id)) {
+            System.arraycopy(headCredits, 0, credits, 0, credits.length);
+            head = null;
+        }
+        for (LinkedHashMap<String, QueueItemRecord> records : index) {
+            if (records.remove(id) != null) {
+                unindex(id);
+                break;
+            }
+        }
+    }
+
+    @Nullable
+    QueueItemRecord peek(long now) {
+        if (head == null) {
+            QueueItemRecord[] heads = getHeads();
+            int[] next = credits.clone();
+            int lane = select(heads, next, now, null);
+            if (lane >= 0) {
+                head = heads[lane];
+                headCredits = next;
+            }
+        }
+        return head;
+    }
+
+    /**
+     * @param skip the number of items to skip
+     * @param limit the maximum number of items to return, -1 for all
+     * @param now the current time in milliseconds
+     * @return the items in dequeue order
+     */
+    @NotNull
+    List<QueueItemRecord> list(int skip, int limit, long now) {
+        List<Iterator<QueueItemRecord>> iterators = new ArrayList<Iterator<QueueItemRecord>>(index.size());
+        QueueItemRecord[] heads = new QueueItemRecord[index.size()];
+        for (int i = 0; i < heads.length; i++) {
+            Iterator<QueueItemRecord> it = index.get(i).values().iterator();
+            iterators.add(it);
+            heads[i] = it.hasNext() ? it.next() : null;
+        }
+
+        List<QueueItemRecord> result = new ArrayList<QueueItemRecord>();
+        // the items listed before are considered as removed
+        Map<String, Long> listed = new HashMap<String, Long>();
+        QueueItemRecord first = peek(now);
+        int[] next = first != null ? headCredits.clone() : credits.clone();
+        int i = 0;
+        int lane;
+        while ((limit == -1 || result.size() < limit)
+                && (lane = first != null ? getLane(heads, first) : select(heads, next, now, listed)) >= 0) {
+            first = null;
+            if (i++ >= skip) {
+                result.add(heads[lane]);
+            }
+            markListed(indexed.get(heads[lane].getItem().getPackageId()), listed);
+            Iterator<QueueItemRecord> it = iterators.get(lane);
+            heads[lane] = it.hasNext() ? it.next() : null;
+        }
+        return result;
+    }
+
+    /**
+     * advance the lowest position still queued of each path of the given item past it; the items with overlapping
+     * paths are dequeued in order, so the listed positions of a path are always its lowest ones
+     */
+    private void markListed(Indexed entry, Map<String, Long> listed) {
+        if (entry.paths == null) {
+            listed.put(null, getNext(unknownPaths, entry.position));
+            return;
+        }
+        for (String path : entry.paths) {
+            listed.put(path, getNext(pathIndex.get(path), entry.position));
+        }
+    }
+
+    private static long getNext(@Nullable TreeSet<Long> positions, long position) {
+        Long next = positions != null ? positions.higher(position) : null;
+        return next != null ? next : Long.MAX_VALUE;
+    }
+
+    private int getLane(QueueItemRecord[] heads, QueueItemRecord record) {
+        for (int i = 0; i < heads.length; i++) {
+            if (heads[i] == record) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private QueueItemRecord[] getHeads() {
+        QueueItemRecord[] heads = new QueueItemRecord[index.size()];
+        for (int i = 0; i < heads.length; i++) {
+            Iterator<QueueItemRecord> it = index.get(i).values().iterator();
+            heads[i] = it.hasNext() ? it.next() : null;
+        }
+        return heads;
+    }
+
+    /**
+     * select the lane to dequeue next among the lanes whose head is not preceded by an overlapping item: the one
+     * whose head waited the longest beyond the maximum wait, if any, otherwise the one with the most credits, which
+     * are updated accordingly
+     *
+     * @param listed the lowest position still queued by path, the items with unknown paths under the {@code null}
+     *               key, when the items listed before are considered as removed
+     */
+    private int select(QueueItemRecord[] heads, int[] credits, long now, @Nullable Map<String, Long> listed) {
+        long first = Long.MAX_VALUE;
+        for (QueueItemRecord record : heads) {
+            if (record != null) {
+                first = Math.min(first, indexed.get(record.getItem().getPackageId()).position);
+            }
+        }
+        boolean[] ready = new boolean[heads.length];
+        for (int i = 0; i < heads.length; i++) {
+            ready[i] = heads[i] != null && !isPreceded(heads[i], first, listed);
+        }
+
+        long maxWait = lanes.getMaxWait();
+        if (maxWait > 0) {
+            int overdue = -1;
+            long oldest = now - maxWait + 1;
+            for (int i = 0; i < heads.length; i++) {
+                if (ready[i] && heads[i].getEnteredTime() < oldest) {
+                    overdue = i;
+                    oldest = heads[i].getEnteredTime();
+                }
+            }
+            if (overdue >= 0) {
+                return overdue;
+            }
+        }
+
+        int selected = -1;
+        int total = 0;
+        for (int i = 0; i < heads.length; i++) {
+            if (heads[i] == null) {
+                credits[i] = 0;
+                continue;
+            }
+            // a lane waiting for an overlapping item keeps accumulating credits
+            credits[i] += lanes.getWeight(i);
+            total += lanes.getWeight(i);
+            if (ready[i] && (selected < 0 || credits[i] > credits[selected])) {
+                selected = i;
+            }
+        }
+        if (selected >= 0) {
+            credits[selected] -= total;
+        }
+        return selected;
+    }
+
+    /**
+     * @param first the position of the first item still queued
+     * @return {@code true} if an item queued before the given one has overlapping paths
+     */
+    private boolean isPreceded(QueueItemRecord record, long first, @Nullable Map<String, Long> listed) {
+        Indexed entry = indexed.get(record.getItem().getPackageId());
+        long position = entry.position;
+        if (position == first) {
+            return false;
+        }
+        List<String> paths = entry.paths;
+        if (paths == null || isPreceded(null, unknownPaths, position, listed)) {
+            // the items with unknown paths overlap all the others
+            return true;
+        }
+        for (String path : paths) {
+            // the same path and its ancestors
+            for (String ancestor = path; ancestor != null; ancestor = getParent(ancestor)) {
+                if (isPreceded(ancestor, pathIndex.get(ancestor), position, listed)) {
+                    return true;
+                }
+            }
+            // the descendants
+            String prefix = "/".equals(path) ? path : path + "/";
+            for (Map.Entry<String, TreeSet<Long>> descendant : pathIndex
+                    .subMap(prefix, false, prefix.substring(0, prefix.length() - 1) + "0", false)
+                    .entrySet()) {
+                if (isPreceded(descendant.getKey(), descendant.getValue(), position, listed)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isPreceded(
+            @Nullable String path,
+            @Nullable TreeSet<Long> positions,
+            long position,
+            @Nullable Map<String, Long> listed) {
+        if (positions == null || positions.isEmpty()) {
+            return false;
+        }
+        Long lowest = listed != null ? listed.get(path) : null;
+        return (lowest != null ? lowest : positions.first()) < position;
+    }
+
+    private void unindex(String id) {
+        Indexed removed = indexed.remove(id);
+        if (removed == null) {
+            return;
+        }
+        if (removed.paths == null) {
+            unknownPaths.remove(removed.position);
+            return;
+        }
+        for (String path : removed.paths) {
+            TreeSet<Long> pathPositions = pathIndex.get(path);
+            if (pathPositions != null && pathPositions.remove(removed.position) && pathPositions.isEmpty()) {
+                pathIndex.remove(path);
+            }
+        }
+    }
+
+    private static List<String> normalize(String[] paths) {
+        List<String> normalized = new ArrayList<String>(paths.length);
+        for (String path : paths) {
+            if (path != null) {
+                normalized.add(path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path);
+            }
+        }
+        return normalized;
+    }
+
+    private static String getParent(String path) {
+        int idx = path.lastIndexOf('/');
+        if (idx < 0 || path.length() == 1) {
+            return null;
+        }
+        return idx == 0 ? "/" : path.substring(0, idx);
+    }
+
+    private static final class Indexed {
+
+        private final long position;
+
+        private final List<String> paths;
+
+        private Indexed(long position, @Nullable List<String> paths) {
+            this.position = position;
+            this.paths = paths;
+        }
+    }
+}
@@ -18,25 +18,25 @@
  */
 package org.apache.sling.distribution.queue.impl.simple;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
-import org.apache.sling.distribution.queue.DistributionQueueItemState;
-import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
 import org.apache.sling.distribution.queue.DistributionQueueState;
 import org.apache.sling.distribution.queue.DistributionQueueStatus;
 import org.apache.sling.distribution.queue.DistributionQueueType;
+import org.apache.sling.distribution.queue.impl.DistributionQueueLanes;
 import org.apache.sling.distribution.queue.impl.DistributionQueueUtils;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.jetbrains.annotations.NotNull;
@@ -54,8 +54,16 @@ import static org.apache.sling.distribution.queue.DistributionQueueCapabilities.
  * Note that, at the moment, this is a transient in memory queue not persisted on the repository and
  * therefore not usable for production.
  *
- * Note: potentially the Queue could contain the ordered package ids, with a sidecar map id,item;
- * that way removal could be faster.
+ * Items are kept in an insertion ordered index keyed by package id, so that head, lookup and
+ * removal by id are O(1) operations. Each item is held in a {@link QueueItemRecord} carrying
+ * its processing status.
+ *
+ * When created with a {@link QueueJournal}, each change is appended to the journal while holding the
+ * queue lock and made durable before the modifying call returns.
+ *
+ * When {@link DistributionQueueLanes priority lanes} are set, the head and the entries of the queue follow
+ * the weighted dequeue order of the lanes rather than the insertion order, except for the items with overlapping
+ * paths, which keep their insertion order. The head stays the same until it is removed.
  */
 public class SimpleDistributionQueue implements DistributionQueue {
 
@@ -64,17 +72,49 @@ public class SimpleDistributionQueue implements DistributionQueue {
     private static final Set<String> CAPABILITIES =
             Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(APPENDABLE, REMOVABLE, CLEARABLE)));
 
+    private static final int MIN_TRACKED_CHANGES = 1000;
+
     private final String name;
 
-    private final Queue<DistributionQueueItem> queue;
+    /**
+     * FIFO index of the queued items by package id, guarded by its own monitor
+     */
+    private final LinkedHashMap<String, QueueItemRecord> queue;
+
+    private final QueueJournal journal;
+
+    /**
+     * the items by priority lane, if lanes are enabled, guarded by the queue monitor
+     */
+    private QueueLanes lanes;
+
+    /**
+     * number of items added or removed since the queue creation, guarded by the queue monitor
+     */
+    private long modifications;
+
+    /**
+     * the changes made since the latest call to {@link #drainChanges()}, guarded by the queue monitor. Only
+     * tracked from the latest call to {@link #snapshotItems()} on, and dropped when they outgrow the queue.
+     */
+    private List<Change> changes;
 
-    private final Map<DistributionQueueItem, DistributionQueueItemStatus> statusMap;
+    private volatile DistributionQueueType type = DistributionQueueType.ORDERED;
+
+    /**
+     * notified once items have been added
+     */
+    private volatile Runnable addListener;
 
     public SimpleDistributionQueue(String agentName, String name) {
+        this(agentName, name, null);
+    }
+
+    SimpleDistributionQueue(String agentName, String name, @Nullable QueueJournal journal) {
         log.debug("starting a simple queue {} for agent {}", name, agentName);
         this.name = name;
-        this.queue = new LinkedBlockingQueue<DistributionQueueItem>();
-        this.statusMap = new WeakHashMap<DistributionQueueItem, DistributionQueueItemStatus>(10);
+        this.queue = new LinkedHashMap<String, QueueItemRecord>();
+        this.journal = journal;
     }
 
     @NotNull
@@ -83,52 +123,221 @@ public class SimpleDistributionQueue implements DistributionQueue {
     }
 
     public DistributionQueueEntry add(@NotNull DistributionQueueItem item) {
-        DistributionQueueItemState itemState = DistributionQueueItemState.ERROR;
-        boolean result = false;
+        QueueItemRecord record = new QueueItemRecord(item, Calendar.getInstance(), 0);
+        long seq = 0;
+        synchronized (queue) {
+            queue.put(item.getPackageId(), record);
+            addToLane(record);
+            modifications++;
+            trackAdd(record);
+            if (journal != null) {
+                seq = journal.logAdd(record);
+            }
+        }
+        try {
+            sync(seq);
+        } catch (IOException e) {
+            log.error("could not store item {} in queue {}", item.getPackageId(), name, e);
+            undoAdd(Collections.singletonList(record));
+            return null;
+        }
+        notifyAdded();
+        return record.toEntry(name);
+    }
+
+    /**
+     * add several items at once, holding the queue lock and syncing the journal only once
+     *
+     * @param items the items to add at the tail of the queue, in order
+     */
+    void addAll(@NotNull Collection<DistributionQueueItem> items) {
+        List<QueueItemRecord> added = new ArrayList<QueueItemRecord>(items.size());
+        long seq = 0;
+        synchronized (queue) {
+            for (DistributionQueueItem item : items) {
+                QueueItemRecord record = new QueueItemRecord(item, Calendar.getInstance(), 0);
+                added.add(record);
+                queue.put(item.getPackageId(), record);
+                addToLane(record);
+                modifications++;
+                trackAdd(record);
+                if (journal != null) {
+                    seq = journal.logAdd(record);
+                }
+            }
+        }
         try {
-            result = queue.offer(item);
-            itemState = DistributionQueueItemState.QUEUED;
-        } catch (Exception e) {
-            log.error("cannot add an item to the queue", e);
-        } finally {
-            statusMap.put(item, new DistributionQueueItemStatus(Calendar.getInstance(), itemState, 0, name));
+            sync(seq);
+        } catch (IOException e) {
+            undoAdd(added);
+            throw new UncheckedIOException("could not store items in queue " + name, e);
         }
+        notifyAdded();
+    }
+
+    void setAddListener(@Nullable Runnable addListener) {
+        this.addListener = addListener;
+    }
 
-        if (result) {
-            return new DistributionQueueEntry(item.getPackageId(), item, statusMap.get(item));
+    private void notifyAdded() {
+        Runnable listener = addListener;
+        if (listener != null) {
+            listener.run();
         }
+    }
 
-        return null;
+    /**
+     * add already known records, without journaling them
+     *
+     * @param records the records to restore at the tail of the queue
+     */
+    void restore(@NotNull Collection<QueueItemRecord> records) {
+        synchronized (queue) {
+            for (QueueItemRecord record : records) {
+                queue.put(record.getItem().getPackageId(), record);
+                addToLane(record);
+                modifications++;
+                trackAdd(record);
+            }
+        }
+    }
+
+    /**
+     * @param lanes the priority lanes to dequeue the items of this queue from
+     */
+    void setLanes(@NotNull DistributionQueueLanes lanes) {
+        synchronized (queue) {
+            this.lanes = lanes.isEnabled() ? new QueueLanes(lanes) : null;
+            for (QueueItemRecord record : queue.values()) {
+                addToLane(record);
+            }
+        }
+    }
+
+    private void addToLane(QueueItemRecord record) {
+        if (lanes != null) {
+            lanes.add(record);
+        }
+    }
+
+    private void removeFromLane(String id) {
+        if (lanes != null) {
+            lanes.remove(id);
+        }
     }
 
     @Nullable
     public DistributionQueueEntry getHead() {
-        DistributionQueueItem element = queue.peek();
-        if (element != null) {
-            DistributionQueueItemStatus itemState = statusMap.get(element);
+        QueueItemRecord record = peek();
+        return record != null ? record.toEntry(name) : null;
+    }
 
-            return new DistributionQueueEntry(element.getPackageId(), element, itemState);
+    @Nullable
+    private QueueItemRecord peek() {
+        synchronized (queue) {
+            if (lanes != null) {
+                return lanes.peek(System.currentTimeMillis());
+            }
+            Iterator<QueueItemRecord> it = queue.values().iterator();
+            return it.hasNext() ? it.next() : null;
         }
-        return null;
     }
 
+    /**
+     * @return the number of items added or removed since the queue creation
+     */
+    long getModificationCount() {
+        synchronized (queue) {
+            return modifications;
+        }
+    }
+
+    /**
+     * @return the items currently in the queue, in order
+     */
     @NotNull
-    private DistributionQueueState getState() {
-        DistributionQueueItem firstItem = queue.peek();
-        DistributionQueueItemStatus firstItemStatus = firstItem != null ? statusMap.get(firstItem) : null;
-        return DistributionQueueUtils.calculateState(firstItem, firstItemStatus);
+    List<DistributionQueueItem> getItems() {
+        synchronized (queue) {
+            List<DistributionQueueItem> items = new ArrayList<DistributionQueueItem>(queue.size());
+            for (QueueItemRecord record : queue.values()) {
+                items.add(record.getItem());
+            }
+            return items;
+        }
+    }
+
+    /**
+     * @return the items currently in the queue, in order, the changes made from now on being tracked
+     */
+    @NotNull
+    List<DistributionQueueItem> snapshotItems() {
+        synchronized (queue) {
+            changes = new ArrayList<Change>();
+            return getItems();
+        }
+    }
+
+    /**
+     * @return the changes made since the previous call or snapshot, in order, or {@code null} if they were
+     *         not all tracked
+     */
+    @Nullable
+    List<Change> drainChanges() {
+        synchronized (queue) {
+            List<Change> drained = changes;
+            changes = drained != null ? new ArrayList<Change>() : null;
+            return drained;
+        }
+    }
+
+    private void trackAdd(QueueItemRecord record) {
+        track(new Change(record.getItem().getPackageId(), record.getItem()));
+    }
+
+    private void trackRemove(String id) {
+        track(new Change(id, null));
+    }
+
+    private void track(Change change) {
+        if (changes != null) {
+            changes.add(change);
+            if (changes.size() > queue.size() + MIN_TRACKED_CHANGES) {
+                // a snapshot is then cheaper than the changes
+                changes = null;
+            }
+        }
+    }
+
+    @Nullable
+    private QueueItemRecord getRecord(@NotNull String id) {
+        synchronized (queue) {
+            return queue.get(id);
+        }
     }
 
     @NotNull
     @Override
     public DistributionQueueStatus getStatus() {
-        return new DistributionQueueStatus(queue.size(), getState());
+        QueueItemRecord first;
+        int size;
+        synchronized (queue) {
+            first = peek();
+            size = queue.size();
+        }
+        DistributionQueueState state = first != null
+                ? DistributionQueueUtils.calculateState(first.getItem(), first.getStatus(name))
+                : DistributionQueueUtils.calculateState(null, null);
+        return new DistributionQueueStatus(size, state);
     }
 
     @NotNull
     @Override
     public DistributionQueueType getType() {
-        return DistributionQueueType.ORDERED;
+        return type;
+    }
+
+    void setType(@NotNull DistributionQueueType type) {
+        this.type = type;
     }
 
     @Override
@@ -138,51 +347,114 @@ public class SimpleDistributionQueue implements DistributionQueue {
 
     @NotNull
     public Iterable<DistributionQueueEntry> getEntries(int skip, int limit) {
-        List<DistributionQueueEntry> result = new ArrayList<DistributionQueueEntry>();
+        synchronized (queue) {
+            if (lanes != null) {
+                List<DistributionQueueEntry> result = new ArrayList<DistributionQueueEntry>();
+                for (QueueItemRecord record : lanes.list(skip, limit, System.currentTimeMillis())) {
+                    result.add(record.toEntry(name));
+                }
+                return result;
+            }
+            int size = Math.max(0, queue.size() - Math.max(0, skip));
+            List<DistributionQueueEntry> result =
+                    new ArrayList<DistributionQueueEntry>(limit == -1 ? size : Math.min(size, limit));
 
-        for (DistributionQueueItem item : queue) {
-            result.add(new DistributionQueueEntry(item.getPackageId(), item, statusMap.get(item)));
+            int i = 0;
+            for (QueueItemRecord record : queue.values()) {
+                if (limit != -1 && result.size() >= limit) {
+                    break;
+                }
+                if (i++ < skip) {
+                    continue;
+                }
+                result.add(record.toEntry(name));
+            }
+            return result;
         }
-        return result;
     }
 
     @Nullable
     public DistributionQueueEntry getEntry(@NotNull String id) {
-        for (DistributionQueueItem item : queue) {
-            if (id.equals(item.getPackageId())) {
-                return new DistributionQueueEntry(id, item, statusMap.get(item));
-            }
-        }
-
-        return null;
+        QueueItemRecord record = getRecord(id);
+        return record != null ? record.toEntry(name) : null;
     }
 
     @NotNull
     @Override
     public Iterable<DistributionQueueEntry> remove(@NotNull Set<String> entryIds) {
         List<DistributionQueueEntry> removed = new ArrayList<DistributionQueueEntry>();
-        for (String entryId : entryIds) {
-            DistributionQueueEntry entry = remove(entryId);
-            if (entry != null) {
-                removed.add(entry);
+        long seq = 0;
+        synchronized (queue) {
+            for (String entryId : entryIds) {
+                QueueItemRecord record = queue.remove(entryId);
+                if (record != null) {
+                    removeFromLane(entryId);
+                    modifications++;
+                    trackRemove(entryId);
+                    removed.add(record.toEntry(name));
+                    seq = logRemove(record);
+                }
             }
         }
+        syncRemoval(seq);
         return removed;
     }
 
     @Nullable
     public DistributionQueueEntry remove(@NotNull String id) {
-        DistributionQueueEntry toRemove = getEntry(id);
+        QueueItemRecord record;
+        long seq = 0;
+        synchronized (queue) {
+            record = queue.remove(id);
+            if (record != null) {
+                removeFromLane(id);
+                modifications++;
+                trackRemove(id);
+                seq = logRemove(record);
+            }
+        }
+        syncRemoval(seq);
+        log.debug("item with id {} removed from the queue: {}", id, record != null);
+        return record != null ? record.toEntry(name) : null;
+    }
+
+    private long logRemove(QueueItemRecord record) {
+        return journal != null ? journal.logRemove(record) : 0;
+    }
 
-        boolean removed = false;
-        if (toRemove != null) {
-            removed = queue.remove(toRemove.getItem());
+    /**
+     * take back added records whose addition could not be made durable, so that the queue does not
+     * process items the caller has been told were not queued
+     */
+    private void undoAdd(Collection<QueueItemRecord> records) {
+        synchronized (queue) {
+            for (QueueItemRecord record : records) {
+                String id = record.getItem().getPackageId();
+                if (queue.get(id) == record) {
+                    queue.remove(id);
+                    removeFromLane(id);
+                    modifications++;
+                    trackRemove(id);
+                    logRemove(record);
+                }
+            }
         }
-        log.debug("item with id {} removed from the queue: {}", id, removed);
-        if (removed) {
-            return toRemove;
-        } else {
-            return null;
+    }
+
+    private void sync(long seq) throws IOException {
+        if (journal != null && seq > 0) {
+            journal.sync(seq);
+        }
+    }
+
+    /**
+     * sync the removal of entries, which are gone from memory whether or not it succeeds
+     */
+    private void syncRemoval(long seq) {
+        try {
+            sync(seq);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not store the removal of entries from queue " + name, e);
         }
     }
 
@@ -195,19 +467,119 @@ public class SimpleDistributionQueue implements DistributionQueue {
     @Override
     public Iterable<DistributionQueueEntry> clear(int limit) {
         final List<DistributionQueueEntry> removedEntries = new ArrayList<DistributionQueueEntry>();
-        for (DistributionQueueEntry entry : getEntries(0, limit)) {
-            DistributionQueueEntry removed = remove(entry.getId());
-            if (removed != null) {
-                removedEntries.add(removed);
+        long seq = 0;
+        synchronized (queue) {
+            Iterator<QueueItemRecord> it = lanes != null
+                    ? lanes.list(0, limit, System.currentTimeMillis()).iterator()
+                    : queue.values().iterator();
+            while (it.hasNext() && (limit == -1 || removedEntries.size() < limit)) {
+                QueueItemRecord record = it.next();
+                if (lanes != null) {
+                    queue.remove(record.getItem().getPackageId());
+                    lanes.remove(record.getItem().getPackageId());
+                } else {
+                    it.remove();
+                }
+                modifications++;
+                trackRemove(record.getItem().getPackageId());
+                removedEntries.add(record.toEntry(name));
+                seq = logRemove(record);
             }
         }
+        syncRemoval(seq);
+        log.debug("{} items cleared from the queue", removedEntries.size());
         return removedEntries;
     }
 
     public void recordProcessingAttempt(@NotNull DistributionQueueEntry entry) {
-        statusMap.computeIfPresent(entry.getItem(), (item, status) -> {
-            return new DistributionQueueItemStatus(
-                    status.getEntered(), status.getItemState(), status.getAttempts() + 1, status.getQueueName());
-        });
+        recordProcessingAttempt(entry, null);
+    }
+
+    /**
+     * mark entries as claimed by the processor of this queue, so that they are no longer superseded
+     *
+     * @param entries the entries about to be processed
+     * @return the claimed entries, leaving out those no longer in the queue
+     */
+    @NotNull
+    public List<DistributionQueueEntry> claim(@NotNull List<DistributionQueueEntry> entries) {
+        List<DistributionQueueEntry> claimed = new ArrayList<DistributionQueueEntry>(entries.size());
+        synchronized (queue) {
+            for (DistributionQueueEntry entry : entries) {
+                QueueItemRecord record = queue.get(entry.getId());
+                if (record != null) {
+                    record.setClaimed();
+                    claimed.add(entry);
+                }
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * record a failed processing attempt of an entry
+     *
+     * @param entry the entry which failed to be processed
+     * @param error the error that caused the attempt to fail, if known
+     */
+    public void recordProcessingAttempt(@NotNull DistributionQueueEntry entry, @Nullable Throwable error) {
+        long seq = 0;
+        synchronized (queue) {
+            QueueItemRecord record = queue.get(entry.getId());
+            if (record != null) {
+                record.recordAttempt(error);
+                if (journal != null) {
+                    seq = journal.logAttempt(record);
+                }
+            }
+        }
+        try {
+            sync(seq);
+        } catch (IOException e) {
+            // the attempts only drive the retry backoff, losing one on restart is harmless
+            log.warn("could not store processing attempt of entry {} in queue {}", entry.getId(), name, e);
+        }
+    }
+
+    /**
+     * compact the journal of this queue, if any, dropping the records made obsolete by its current content
+     */
+    void compactJournal() throws IOException {
+        if (journal == null || !journal.needsCompaction()) {
+            return;
+        }
+        QueueJournal.Compaction compaction;
+        synchronized (queue) {
+            compaction = journal.startCompaction(queue.values());
+        }
+        compaction.complete();
+    }
+
+    /**
+     * an item added to the queue, or the id of an item removed from it
+     */
+    static final class Change {
+
+        private final String id;
+
+        private final DistributionQueueItem item;
+
+        private Change(@NotNull String id, @Nullable DistributionQueueItem item) {
+            this.id = id;
+            this.item = item;
+        }
+
+        @NotNull
+        String getId() {
+            return id;
+        }
+
+        /**
+         * @return the added item, or {@code null} for a removal
+         */
+        @Nullable
+        DistributionQueueItem getItem() {
+            return item;
+        }
     }
 }
@@ -18,13 +18,16 @@
  */
 package org.apache.sling.distribution.queue.impl.simple;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.nio.charset.Charset;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
@@ -32,47 +35,171 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A light checkpointing of a {@link SimpleDistributionQueue} to {@link File}
+ * A light checkpointing of a {@link SimpleDistributionQueue} to {@link File}, using the
+ * {@link QueueItemMapper} binary format.
+ *
+ * Queues which did not change since the previous run are skipped. Otherwise only the items added and
+ * removed since the previous run, as tracked by the queue, are appended to a delta file, which is folded into
+ * a full checkpoint every {@link #DEFAULT_FOLD_INTERVAL} runs or once it grows larger than the full checkpoint.
+ * Each checkpoint has a new generation, which its delta starts with, so that a delta left over by a crash
+ * right after its checkpoint was replaced is ignored.
  */
 class SimpleDistributionQueueCheckpoint implements Runnable {
 
+    static final int DEFAULT_FOLD_INTERVAL = 20;
+
     private static final Logger log = LoggerFactory.getLogger(SimpleDistributionQueueCheckpoint.class);
 
     private final DistributionQueue queue;
     private final File checkpointDirectory;
+    private final int foldInterval;
+
+    /**
+     * the generation of the latest checkpoint, {@code null} until the first full checkpoint
+     */
+    private String generation;
+
+    private long persistedModifications = -1;
+
+    private int deltas;
+
+    private FileOutputStream deltaFile;
+
+    private QueueItemMapper.BinaryWriter deltaWriter;
+
+    private OutputStream deltaOut;
 
     public SimpleDistributionQueueCheckpoint(DistributionQueue queue, File checkpointDirectory) {
+        this(queue, checkpointDirectory, DEFAULT_FOLD_INTERVAL);
+    }
+
+    SimpleDistributionQueueCheckpoint(DistributionQueue queue, File checkpointDirectory, int foldInterval) {
         this.queue = queue;
         this.checkpointDirectory = checkpointDirectory;
+        this.foldInterval = foldInterval;
     }
 
     @Override
     public void run() {
-        String fileName = queue.getName() + "-checkpoint";
-        File checkpointFile = new File(checkpointDirectory, fileName + "-new");
-        QueueItemMapper mapper = new QueueItemMapper();
         log.debug("started checkpointing");
 
         try {
-            if (checkpointFile.exists()) {
-                assert checkpointFile.delete();
+            long modifications = -1;
+            List<SimpleDistributionQueue.Change> changes = null;
+            if (queue instanceof SimpleDistributionQueue) {
+                SimpleDistributionQueue simpleQueue = (SimpleDistributionQueue) queue;
+                modifications = simpleQueue.getModificationCount();
+                if (modifications == persistedModifications) {
+                    log.debug("queue {} unchanged, skipping checkpoint", queue.getName());
+                    return;
+                }
+                File checkpointFile = new File(checkpointDirectory, getFileName());
+                if (generation != null
+                        && deltas < foldInterval
+                        && getDeltaFile().length() <= checkpointFile.length()) {
+                    changes = simpleQueue.drainChanges();
+                }
             }
-            assert checkpointFile.createNewFile();
-            Collection<String> lines = new LinkedList<String>();
-            FileOutputStream fileOutputStream = new FileOutputStream(checkpointFile);
-            for (DistributionQueueEntry queueEntry : queue.getEntries(0, -1)) {
-                DistributionQueueItem item = queueEntry.getItem();
-                String line = mapper.writeQueueItem(item);
-                lines.add(line);
+
+            if (changes != null) {
+                writeDelta(changes);
+            } else {
+                writeCheckpoint(getItems());
             }
-            log.debug("parsed {} items", lines.size());
-            IOUtils.writeLines(lines, null, fileOutputStream, Charset.defaultCharset());
-            fileOutputStream.flush();
-            fileOutputStream.close();
-            boolean success = checkpointFile.renameTo(new File(checkpointDirectory, fileName));
-            log.debug("checkpoint succeeded: {}", success);
+            persistedModifications = modifications;
         } catch (Exception e) {
+            // the changes drained may not have been written, start over from a full checkpoint
+            closeDelta();
+            generation = null;
             log.error("failed checkpointing for queue {}", queue.getName());
         }
     }
+
+    private Collection<DistributionQueueItem> getItems() {
+        if (queue instanceof SimpleDistributionQueue) {
+            return ((SimpleDistributionQueue) queue).snapshotItems();
+        }
+        Collection<DistributionQueueItem> items = new ArrayList<DistributionQueueItem>();
+        for (DistributionQueueEntry queueEntry : queue.getEntries(0, -1)) {
+            items.add(queueEntry.getItem());
+        }
+        return items;
+    }
+
+    private void writeCheckpoint(Collection<DistributionQueueItem> items) throws IOException {
+        String fileName = getFileName();
+        File checkpointFile = new File(checkpointDirectory, fileName + "-new");
+        if (checkpointFile.exists()) {
+            assert checkpointFile.delete();
+        }
+        assert checkpointFile.createNewFile();
+        String newGeneration = UUID.randomUUID().toString();
+        try (FileOutputStream file = new FileOutputStream(checkpointFile);
+                OutputStream out = new BufferedOutputStream(file)) {
+            QueueItemMapper.BinaryWriter writer = new QueueItemMapper.BinaryWriter(out);
+            for (DistributionQueueItem item : items) {
+                writer.write(item);
+            }
+            writer.writeGeneration(newGeneration);
+            out.flush();
+            file.getFD().sync();
+        }
+        log.debug("written {} items", items.size());
+        boolean success = checkpointFile.renameTo(new File(checkpointDirectory, fileName));
+        log.debug("checkpoint succeeded: {}", success);
+
+        // the delta is now folded into the checkpoint, and ignored if a crash prevents deleting it
+        closeDelta();
+        if (getDeltaFile().exists() && !getDeltaFile().delete()) {
+            throw new IOException("could not delete checkpoint delta " + getDeltaFile());
+        }
+        generation = success ? newGeneration : null;
+        deltas = 0;
+    }
+
+    private void writeDelta(List<SimpleDistributionQueue.Change> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        if (deltaWriter == null) {
+            deltaFile = new FileOutputStream(getDeltaFile());
+            deltaOut = new BufferedOutputStream(deltaFile);
+            deltaWriter = new QueueItemMapper.BinaryWriter(deltaOut);
+            deltaWriter.writeGeneration(generation);
+        }
+        int added = 0;
+        for (SimpleDistributionQueue.Change change : changes) {
+            if (change.getItem() != null) {
+                deltaWriter.write(change.getItem());
+                added++;
+            } else {
+                deltaWriter.writeRemoval(change.getId());
+            }
+        }
+        deltaOut.flush();
+        deltaFile.getFD().sync();
+        deltas++;
+        log.debug("written delta with {} added and {} removed items", added, changes.size() - added);
+    }
+
+    private void closeDelta() {
+        if (deltaOut != null) {
+            try {
+                deltaOut.close();
+            } catch (IOException e) {
+                log.warn("could not close checkpoint delta of queue {}", queue.getName());
+            }
+        }
+        deltaFile = null;
+        deltaOut = null;
+        deltaWriter = null;
+    }
+
+    private String getFileName() {
+        return queue.getName() + "-checkpoint";
+    }
+
+    private File getDeltaFile() {
+        return new File(checkpointDirectory, getFileName() + "-delta");
+    }
 }
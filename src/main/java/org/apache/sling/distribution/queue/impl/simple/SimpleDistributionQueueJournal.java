@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl.simple;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.sling.distribution.queue.DistributionQueueItem;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An append-only write-ahead log of the changes made to a {@link SimpleDistributionQueue}.
+ *
+ * Each change (item added, item removed, processing attempt) is appended as a line to the current
+ * segment file, the appends being made durable with group commit, see {@link AbstractSegmentedQueueJournal}.
+ *
+ * Segments are rolled once they reach {@link #DEFAULT_SEGMENT_SIZE} bytes. Compaction writes a snapshot
+ * of the queue content, after which all the older segments and snapshots are deleted. Recovery loads
+ * the latest snapshot and replays the segments written after it.
+ */
+class SimpleDistributionQueueJournal extends AbstractSegmentedQueueJournal<String> {
+
+    static final long DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private static final String ADD = "A";
+
+    private static final String REMOVE = "R";
+
+    private static final String ATTEMPT = "T";
+
+    private final QueueItemMapper mapper = new QueueItemMapper();
+
+    /**
+     * the first segment written by this journal instance, older ones belong to previous runs
+     */
+    private final long firstSegment;
+
+    private volatile long snapshotSegment;
+
+    SimpleDistributionQueueJournal(@NotNull File directory, @NotNull String queueName, long segmentSize) {
+        super(directory, queueName, segmentSize, SEGMENT_SUFFIX, getLastSegment(directory, queueName) + 1);
+        this.firstSegment = getCurrentSegment();
+        TreeMap<Long, File> snapshots = listFiles(SNAPSHOT_SUFFIX);
+        this.snapshotSegment = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+    }
+
+    private static long getLastSegment(File directory, String queueName) {
+        long last = 0;
+        for (String suffix : new String[] {SEGMENT_SUFFIX, SNAPSHOT_SUFFIX}) {
+            TreeMap<Long, File> files = listFiles(directory, queueName, suffix);
+            if (!files.isEmpty()) {
+                last = Math.max(last, files.lastKey());
+            }
+        }
+        return last;
+    }
+
+    @Override
+    public long logAdd(@NotNull QueueItemRecord record) {
+        return append(ADD + " " + record.getAttempts() + " " + mapper.writeQueueItem(record.toPersistedItem()));
+    }
+
+    @Override
+    public long logRemove(@NotNull QueueItemRecord record) {
+        return append(REMOVE + " " + record.getItem().getPackageId());
+    }
+
+    @Override
+    public long logAttempt(@NotNull QueueItemRecord record) {
+        return append(ATTEMPT + " " + record.getItem().getPackageId());
+    }
+
+    @NotNull
+    @Override
+    byte[] encode(@NotNull List<String> records) {
+        StringBuilder lines = new StringBuilder();
+        for (String record : records) {
+            lines.append(record).append('\n');
+        }
+        return lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return {@code true} if segments have been closed since the latest snapshot
+     */
+    @Override
+    public boolean needsCompaction() {
+        return getCurrentSegment() - snapshotSegment > 1;
+    }
+
+    /**
+     * snapshot the queue content and start a new segment, the snapshot being written once the queue lock
+     * is released
+     */
+    @NotNull
+    @Override
+    public Compaction startCompaction(@NotNull Collection<QueueItemRecord> records) throws IOException {
+        final QueueItemRecord[] snapshot = records.toArray(new QueueItemRecord[0]);
+        final int[] attempts = new int[snapshot.length];
+        for (int i = 0; i < snapshot.length; i++) {
+            attempts[i] = snapshot[i].getAttempts();
+        }
+        // must be called while the queue is not modified, so that the snapshot reflects exactly the records
+        // written to the previous segments
+        final long segment = roll();
+        return () -> {
+            DistributionQueueItem[] items = new DistributionQueueItem[snapshot.length];
+            for (int i = 0; i < snapshot.length; i++) {
+                items[i] = snapshot[i].toPersistedItem();
+            }
+            writeSnapshot(segment, items, attempts);
+        };
+    }
+
+    /**
+     * write a snapshot of the queue content as of the start of the given segment and delete
+     * the segments and snapshots it makes obsolete.
+     */
+    void writeSnapshot(long segment, @NotNull DistributionQueueItem[] items, @NotNull int[] attempts)
+            throws IOException {
+        writeFile(file(segment, SNAPSHOT_SUFFIX), out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            for (int i = 0; i < items.length; i++) {
+                writer.write(ADD + " " + attempts[i] + " " + mapper.writeQueueItem(items[i]) + "\n");
+            }
+            writer.flush();
+        });
+        synchronized (this) {
+            snapshotSegment = Math.max(snapshotSegment, segment);
+        }
+
+        deleteBefore(SEGMENT_SUFFIX, segment);
+        deleteBefore(SNAPSHOT_SUFFIX, segment);
+        log.debug("compacted journal of queue {} with {} items", queueName, items.length);
+    }
+
+    /**
+     * read the latest snapshot and the segments of previous runs.
+     *
+     * @return the recovered queue content, in order
+     */
+    @NotNull
+    @Override
+    public Collection<QueueItemRecord> replay() throws IOException {
+        Map<String, QueueItemRecord> records = new LinkedHashMap<String, QueueItemRecord>();
+        long from = snapshotSegment;
+        if (from > 0) {
+            replay(file(from, SNAPSHOT_SUFFIX), records);
+        }
+        for (Map.Entry<Long, File> entry : listFiles(SEGMENT_SUFFIX).entrySet()) {
+            long segment = entry.getKey();
+            if (segment >= from && segment < firstSegment) {
+                replay(entry.getValue(), records);
+            }
+        }
+        return records.values();
+    }
+
+    private void replay(File file, Map<String, QueueItemRecord> records) throws IOException {
+        log.info("replaying journal file {}", file);
+        try (BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    replay(line, records);
+                } catch (RuntimeException e) {
+                    // a torn record at the tail of a segment written during a crash
+                    log.warn("skipping invalid journal record in {}: {}", file, line);
+                }
+            }
+        }
+    }
+
+    private void replay(String line, Map<String, QueueItemRecord> records) {
+        String[] split = line.split(" ", 3);
+        if (ADD.equals(split[0]) && split.length == 3) {
+            DistributionQueueItem item = mapper.readQueueItem(split[2]);
+            int attempts = Integer.parseInt(split[1]);
+            records.put(item.getPackageId(), QueueItemRecord.restore(item, attempts));
+        } else if (REMOVE.equals(split[0]) && split.length == 2) {
+            records.remove(split[1]);
+        } else if (ATTEMPT.equals(split[0]) && split.length == 2) {
+            QueueItemRecord record = records.get(split[1]);
+            if (record != null) {
+                record.recordAttempt(null);
+            }
+        } else {
+            throw new IllegalArgumentException("Invalid journal record " + line);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl.simple;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import org.apache.sling.distribution.queue.DistributionQueueItem;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An embedded append-only log of the items of a {@link SimpleDistributionQueue}, with a consumer cursor.
+ *
+ * Each item added gets the next offset of the log and is appended to the current segment in the
+ * {@link QueueItemMapper} binary format, each removal being appended as a removal record. Segments are named
+ * after the offset of their first item, which indexes them by offset, and are rolled once they reach the
+ * segment size. Appends are made durable with group commit, see {@link AbstractSegmentedQueueJournal}.
+ * The records are kept in memory and only encoded, against the key table of the current segment, when they
+ * are written: a segment whose write fails is abandoned and the records are written again to a new one.
+ *
+ * Compaction persists the cursor, the lowest offset of the queued items, and deletes the segments holding only
+ * items before it. Unlike the write-ahead log, it never rewrites the queue content. Recovery starts from the
+ * segment holding the cursor. The processing attempts are not logged and restart from zero after a recovery.
+ */
+class SimpleDistributionQueueLog extends AbstractSegmentedQueueJournal<SimpleDistributionQueueLog.PendingRecord> {
+
+    static final long DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String CURSOR_SUFFIX = ".cursor";
+
+    /**
+     * the encoded records of the current segment not yet written, guarded by the sync lock
+     */
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    /**
+     * encodes the records of the current segment to the buffer, guarded by the sync lock
+     */
+    private QueueItemMapper.BinaryWriter writer;
+
+    /**
+     * the offset of the next item written, only updated under the sync lock
+     */
+    private volatile long nextOffset;
+
+    /**
+     * the appended sequence as of the latest compaction
+     */
+    private volatile long compactedSeq;
+
+    /**
+     * the first segment written by this log instance, older ones belong to previous runs
+     */
+    private final long firstSegment;
+
+    SimpleDistributionQueueLog(@NotNull File directory, @NotNull String queueName, long segmentSize) {
+        super(directory, queueName, segmentSize, SEGMENT_SUFFIX, getNextOffset(directory, queueName));
+        // never append to a segment of a previous run, its tail may be torn
+        this.nextOffset = getCurrentSegment();
+        this.firstSegment = nextOffset;
+    }
+
+    private static long getNextOffset(File directory, String queueName) {
+        TreeMap<Long, File> segments = listFiles(directory, queueName, SEGMENT_SUFFIX);
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        long last = segments.lastKey();
+        long offset = last + countItems(segments.get(last));
+        if (segments.containsKey(offset)) {
+            // the last segment holds no item, offsets need not be contiguous
+            offset++;
+        }
+        return offset;
+    }
+
+    @Override
+    public long logAdd(@NotNull QueueItemRecord record) {
+        return append(new PendingRecord(record, false));
+    }
+
+    @Override
+    public long logRemove(@NotNull QueueItemRecord record) {
+        return append(new PendingRecord(record, true));
+    }
+
+    @Override
+    public long logAttempt(@NotNull QueueItemRecord record) {
+        // attempts are only tracked in memory
+        return 0;
+    }
+
+    @Override
+    void segmentOpened(long segment) throws IOException {
+        // each segment has its own key table
+        buffer.reset();
+        writer = new QueueItemMapper.BinaryWriter(buffer);
+    }
+
+    @NotNull
+    @Override
+    byte[] encode(@NotNull List<PendingRecord> records) throws IOException {
+        for (PendingRecord record : records) {
+            if (record.removal) {
+                writer.writeRemoval(record.record.getItem().getPackageId());
+            } else {
+                writer.write(record.record.toPersistedItem());
+            }
+        }
+        byte[] data = buffer.toByteArray();
+        buffer.reset();
+        return data;
+    }
+
+    /**
+     * give the written items their offsets, only once durable
+     */
+    @Override
+    void written(@NotNull List<PendingRecord> records) {
+        long offset = nextOffset;
+        for (PendingRecord record : records) {
+            if (!record.removal) {
+                record.record.setOffset(offset++);
+            }
+        }
+        nextOffset = offset;
+    }
+
+    /**
+     * segments are named after the offset of their first item, the offsets need not be contiguous
+     */
+    @Override
+    long segmentAfter(long segment) {
+        if (nextOffset <= segment) {
+            nextOffset = segment + 1;
+        }
+        return nextOffset;
+    }
+
+    /**
+     * @return {@code true} if records have been appended since the latest compaction
+     */
+    @Override
+    public boolean needsCompaction() {
+        return getAppendedSeq() > compactedSeq;
+    }
+
+    /**
+     * take the lowest offset of the queued items as the cursor, persisted once the queue lock is released
+     */
+    @NotNull
+    @Override
+    public Compaction startCompaction(@NotNull Collection<QueueItemRecord> records) {
+        // the items not written yet get offsets from the next one on
+        long lowest = nextOffset;
+        final long seq = getAppendedSeq();
+        compactedSeq = seq;
+        // usually the head, unless items were added before the recovered ones
+        for (QueueItemRecord record : records) {
+            if (record.getOffset() >= 0) {
+                lowest = Math.min(lowest, record.getOffset());
+            }
+        }
+        final long cursor = lowest;
+        return () -> {
+            // the removals of the items before the cursor must be durable before it
+            sync(seq);
+            writeFile(cursorFile(), out -> {
+                DataOutputStream data = new DataOutputStream(out);
+                data.writeLong(cursor);
+                data.flush();
+            });
+            // the segments before the one holding the cursor only hold items before it
+            Long holding = listFiles(SEGMENT_SUFFIX).floorKey(Math.min(cursor, getCurrentSegment()));
+            if (holding != null) {
+                deleteBefore(SEGMENT_SUFFIX, holding);
+            }
+        };
+    }
+
+    private long readCursor() {
+        File file = cursorFile();
+        if (!file.exists()) {
+            return 0;
+        }
+        try (DataInputStream data = new DataInputStream(new FileInputStream(file))) {
+            return data.readLong();
+        } catch (IOException e) {
+            log.warn("could not read cursor {}, replaying the whole log", file);
+            return 0;
+        }
+    }
+
+    /**
+     * read the segments of previous runs, from the one holding the cursor
+     *
+     * @return the recovered queue content, in order
+     */
+    @NotNull
+    @Override
+    public Collection<QueueItemRecord> replay() throws IOException {
+        final Map<String, QueueItemRecord> records = new LinkedHashMap<String, QueueItemRecord>();
+        final long cursor = readCursor();
+        TreeMap<Long, File> segments = listFiles(SEGMENT_SUFFIX);
+        Long from = segments.floorKey(cursor);
+        for (Map.Entry<Long, File> entry :
+                segments.tailMap(from != null ? from : 0L).entrySet()) {
+            final long segment = entry.getKey();
+            if (segment >= firstSegment) {
+                break;
+            }
+            log.info("replaying log segment {}", entry.getValue());
+            final long[] offset = {segment};
+            try {
+                read(
+                        entry.getValue(),
+                        item -> {
+                            long itemOffset = offset[0]++;
+                            if (itemOffset >= cursor) {
+                                QueueItemRecord record = QueueItemRecord.restore(item, 0);
+                                record.setOffset(itemOffset);
+                                records.put(item.getPackageId(), record);
+                            }
+                        },
+                        records::remove);
+            } catch (IOException e) {
+                log.warn("could not read log segment {} entirely", entry.getValue(), e);
+            }
+        }
+        return records.values();
+    }
+
+    private static long countItems(File segment) {
+        final long[] count = {0};
+        try {
+            read(segment, item -> count[0]++, id -> {});
+        } catch (IOException e) {
+            LoggerFactory.getLogger(SimpleDistributionQueueLog.class)
+                    .warn("could not read log segment {} entirely", segment, e);
+        }
+        return count[0];
+    }
+
+    private static void read(File segment, Consumer<DistributionQueueItem> added, Consumer<String> removed)
+            throws IOException {
+        try (FileChannel segmentChannel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            if (segmentChannel.size() == 0) {
+                return;
+            }
+            ByteBuffer buffer = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, segmentChannel.size());
+            new QueueItemMapper.BinaryReader(buffer).readInto(added, removed);
+        }
+    }
+
+    private File cursorFile() {
+        return new File(directory, queueName + CURSOR_SUFFIX);
+    }
+
+    static class PendingRecord {
+
+        private final QueueItemRecord record;
+
+        private final boolean removal;
+
+        private PendingRecord(QueueItemRecord record, boolean removal) {
+            this.record = record;
+            this.removal = removal;
+        }
+    }
+}
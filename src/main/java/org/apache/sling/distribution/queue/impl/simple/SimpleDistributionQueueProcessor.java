@@ -18,48 +18,591 @@
  */
 package org.apache.sling.distribution.queue.impl.simple;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
+import org.apache.sling.commons.scheduler.ScheduleOptions;
+import org.apache.sling.commons.scheduler.Scheduler;
 import org.apache.sling.distribution.queue.DistributionQueueEntry;
+import org.apache.sling.distribution.queue.DistributionQueueType;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProcessor;
+import org.apache.sling.distribution.queue.impl.DistributionQueueRetryBackoff;
+import org.apache.sling.distribution.queue.impl.DistributionQueueSettings;
+import org.apache.sling.distribution.queue.impl.DistributionQueueUtils;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * a simple scheduled {@link SimpleDistributionQueue}s processor
+ * a simple scheduled {@link SimpleDistributionQueue}s processor.
+ *
+ * The processor claims up to {@code batchSize} entries from the head of the queue, processes them in order
+ * and acknowledges the processed ones with a single removal. Processing of a batch stops at the first entry
+ * which fails, so that the entries behind it are not processed ahead of it.
+ *
+ * {@link DistributionQueueType#PARALLEL} queues are processed by a pool of {@code parallelism} workers instead.
+ * Entries are claimed by the scheduled run only, which hands each claimed entry to a worker; an entry stays
+ * claimed until the run following its completion, so that it is never handed to two workers.
+ *
+ * Besides being scheduled, the processor is woken up by {@link #wakeUp()} when items are added, so that they are
+ * processed immediately. A run returns once the queue is drained; the periodic schedule is then only a safety net.
+ * Once {@link #setScheduler(Scheduler, String, boolean) set}, the wake ups run as one-shot jobs of the scheduler
+ * running the queue processing, on the same instances as the periodic runs. Otherwise they run on a daemon thread
+ * of the processor.
+ *
+ * An entry which fails to be processed is not reattempted before a delay given by the {@link DistributionQueueRetryBackoff}.
+ * Meanwhile the run returns (for ordered queues) or skips the entry (for parallel queues), and a wake up is scheduled
+ * for when the entry is due, so that no thread waits for it.
+ *
+ * Before being processed, entries are {@link #setClaimer(UnaryOperator) claimed}, marking them in the queue so
+ * that they are no longer superseded by newer items.
+ *
+ * When skipping ahead is enabled, the entries of an ordered queue which are behind a blocked entry are processed
+ * ahead of it, as long as their paths do not overlap the paths of any entry left before them in the queue. This keeps
+ * the order of the items distributing the same content, while unrelated content keeps flowing.
  */
 public class SimpleDistributionQueueProcessor implements Runnable {
 
+    public static final int DEFAULT_BATCH_SIZE = 10;
+
+    /**
+     * maximum number of entries looked at by a pass skipping ahead of the blocked entries
+     */
+    static final int SKIP_AHEAD_LIMIT = 100;
+
+    /**
+     * period in seconds of the scheduled runs, for queues whose processor is woken up on additions
+     */
+    public static final long SAFETY_NET_PERIOD = 30;
+
     private final Logger log = LoggerFactory.getLogger(getClass());
     private final DistributionQueue queue;
     private final DistributionQueueProcessor queueProcessor;
-    private Consumer<DistributionQueueEntry> recordProcessingAttempt;
+    private final int batchSize;
+    private final int parallelism;
+    private final BiConsumer<DistributionQueueEntry, Throwable> recordProcessingAttempt;
+    private final DistributionQueueRetryBackoff retryBackoff;
+    private final boolean skipAhead;
+
+    /**
+     * marks the entries about to be processed as claimed in the queue, returning those still queued
+     */
+    private volatile UnaryOperator<List<DistributionQueueEntry>> claimer = entries -> entries;
+
+    /**
+     * time in milliseconds before which the entries which failed are not reattempted, by entry id
+     */
+    private final Map<String, Long> retryAt = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * time in milliseconds of the next scheduled wake up, if any
+     */
+    private final AtomicLong scheduledWakeUp = new AtomicLong();
+
+    /**
+     * ids of the entries handed to the workers, and of those completed since the last claim
+     */
+    private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> completed = ConcurrentHashMap.newKeySet();
+
+    private Semaphore permits;
+
+    private ExecutorService workers;
+
+    /**
+     * set when the queue needs to be drained (again), guarding against wake ups lost while a run completes
+     */
+    private final AtomicBoolean signalled = new AtomicBoolean();
+
+    private final AtomicBoolean wakeUpPending = new AtomicBoolean();
+
+    private final ReentrantLock running = new ReentrantLock();
+
+    private ScheduledExecutorService wakeUpExecutor;
+
+    /**
+     * the scheduler running the wake ups, if set, guarded by this processor's monitor
+     */
+    private Scheduler scheduler;
+
+    private String jobName;
+
+    private boolean singleInstance;
 
     public SimpleDistributionQueueProcessor(
             DistributionQueue queue,
             DistributionQueueProcessor queueProcessor,
             Consumer<DistributionQueueEntry> processingAttemptRecorder) {
+        this(
+                queue,
+                queueProcessor,
+                processingAttemptRecorder != null ? (entry, error) -> processingAttemptRecorder.accept(entry) : null,
+                1,
+                DistributionQueueSettings.DEFAULT);
+    }
+
+    /**
+     * @param queue the queue to process
+     * @param queueProcessor the processor of the queue entries
+     * @param processingAttemptRecorder records a failed processing attempt of an entry, with its error if known
+     * @param batchSize the maximum number of entries of an ordered queue processed and removed at once
+     * @param settings the settings of the queue processing
+     */
+    public SimpleDistributionQueueProcessor(
+            DistributionQueue queue,
+            DistributionQueueProcessor queueProcessor,
+            BiConsumer<DistributionQueueEntry, Throwable> processingAttemptRecorder,
+            int batchSize,
+            DistributionQueueSettings settings) {
         this.queue = queue;
         this.queueProcessor = queueProcessor;
-        this.recordProcessingAttempt = (null != processingAttemptRecorder) ? processingAttemptRecorder : (entry) -> {};
+        this.recordProcessingAttempt =
+                (null != processingAttemptRecorder) ? processingAttemptRecorder : (entry, error) -> {};
+        this.batchSize = Math.max(1, batchSize);
+        this.parallelism = settings.getParallelism();
+        this.retryBackoff = settings.getRetryBackoff();
+        this.skipAhead = settings.isSkipAhead();
+    }
+
+    /**
+     * run the wake ups as one-shot jobs of the scheduler running the queue processing
+     *
+     * @param scheduler the scheduler running the queue processing
+     * @param jobName the name of the job processing the queue periodically
+     * @param singleInstance whether the queue is only processed on the leader instance of the cluster
+     */
+    public synchronized void setScheduler(Scheduler scheduler, String jobName, boolean singleInstance) {
+        this.scheduler = scheduler;
+        this.jobName = jobName;
+        this.singleInstance = singleInstance;
+    }
+
+    /**
+     * @param claimer marks the entries about to be processed as claimed in the queue, see
+     *                {@link DistributionQueueUtils#isClaimed}, and returns those still in the queue
+     */
+    public void setClaimer(UnaryOperator<List<DistributionQueueEntry>> claimer) {
+        this.claimer = claimer;
     }
 
     public void run() {
-        try {
-            DistributionQueueEntry entry;
-            while ((entry = queue.getHead()) != null) {
-                boolean wasProcessed = queueProcessor.process(queue.getName(), entry);
-                boolean wasRemoved = wasProcessed ? (queue.remove(entry.getId()) != null) : false;
-                if (wasProcessed && wasRemoved) {
-                    log.debug("item {} processed and removed from the queue", entry.getItem());
-                } else {
-                    log.warn("processing and removal of item {} failed; will reattempt", entry.getId());
-                    this.recordProcessingAttempt.accept(entry);
+        signalled.set(true);
+        // if another thread is draining the queue, it drains it once more after seeing the signal
+        while (signalled.get() && running.tryLock()) {
+            try {
+                while (signalled.getAndSet(false)) {
+                    drain();
                 }
+            } finally {
+                running.unlock();
             }
+        }
+    }
+
+    /**
+     * signal that items have been added to the queue, the queue is drained asynchronously
+     */
+    public void wakeUp() {
+        signalled.set(true);
+        if (running.isLocked() || !wakeUpPending.compareAndSet(false, true)) {
+            // the running or pending drain picks up the signal
+            return;
+        }
+        try {
+            schedule(
+                    () -> {
+                        wakeUpPending.set(false);
+                        run();
+                    },
+                    "-wakeup",
+                    0);
+        } catch (RuntimeException e) {
+            // closed, the scheduled runs take over
+            wakeUpPending.set(false);
+            log.debug("could not wake up the processor of queue {}", queue.getName(), e);
+        }
+    }
+
+    /**
+     * schedule a wake up once the first deferred entry is due, unless an earlier one is already scheduled
+     */
+    private void scheduleWakeUp(long delay) {
+        long now = System.currentTimeMillis();
+        long at = now + delay;
+        long scheduled = scheduledWakeUp.get();
+        if (scheduled > now && scheduled <= at || !scheduledWakeUp.compareAndSet(scheduled, at)) {
+            return;
+        }
+        try {
+            // replaces the wake up scheduled later, if any
+            schedule(this::wakeUp, "-retry", delay);
+        } catch (RuntimeException e) {
+            // closed, the scheduled runs take over
+            log.debug("could not schedule a wake up of the processor of queue {}", queue.getName(), e);
+        }
+    }
+
+    private synchronized void schedule(Runnable task, String jobSuffix, long delay) {
+        if (scheduler != null) {
+            ScheduleOptions options =
+                    delay > 0 ? scheduler.AT(new Date(System.currentTimeMillis() + delay)) : scheduler.NOW();
+            options.name(jobName + jobSuffix).canRunConcurrently(false).onSingleInstanceOnly(singleInstance);
+            if (!scheduler.schedule(task, options)) {
+                throw new IllegalStateException("could not schedule job " + jobName + jobSuffix);
+            }
+            return;
+        }
+        if (wakeUpExecutor == null) {
+            wakeUpExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory("wakeup"));
+        }
+        wakeUpExecutor.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private ThreadFactory threadFactory(String kind) {
+        AtomicInteger threads = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(
+                    task, "sling-distribution-queue-" + queue.getName() + "-" + kind + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private void drain() {
+        try {
+            if (parallelism > 1 && DistributionQueueType.PARALLEL.equals(queue.getType())) {
+                runParallel();
+            } else if (skipAhead) {
+                runSkippingAhead();
+            } else {
+                runSerial();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             log.error("error while processing queue {}", e);
         }
     }
+
+    private void runSerial() {
+        List<DistributionQueueEntry> entries;
+        while (!(entries = claim()).isEmpty()) {
+            // only the head can have failed, since the processing of a batch stops at the first failure
+            DistributionQueueEntry head = entries.get(0);
+            retryAt.keySet().retainAll(Collections.singleton(head.getId()));
+            long delay = getRetryDelay(head);
+            if (delay > 0) {
+                log.debug("item {} is reattempted in {}ms", head.getId(), delay);
+                scheduleWakeUp(delay);
+                return;
+            }
+            entries = claimer.apply(entries);
+
+            Set<String> processed = new LinkedHashSet<String>();
+            DistributionQueueEntry failed = null;
+            Throwable error = null;
+            try {
+                for (DistributionQueueEntry entry : entries) {
+                    failed = entry;
+                    try {
+                        if (!queueProcessor.process(queue.getName(), entry)) {
+                            break;
+                        }
+                    } catch (Exception e) {
+                        log.error("error while processing item {}", entry.getId(), e);
+                        error = e;
+                        break;
+                    }
+                    processed.add(entry.getId());
+                    failed = null;
+                }
+            } finally {
+                // the entries processed before a failure are acknowledged whatever happens to the others
+                Set<String> removed = acknowledge(processed);
+                for (DistributionQueueEntry entry : entries) {
+                    if (removed.contains(entry.getId())) {
+                        log.debug("item {} processed and removed from the queue", entry.getItem());
+                    } else if (processed.contains(entry.getId())) {
+                        recordFailure(entry, null);
+                    } else if (entry == failed) {
+                        recordFailure(entry, error);
+                    }
+                }
+            }
+        }
+    }
+
+    private void runSkippingAhead() {
+        while (skipAheadPass()) {
+            // process the entries unblocked by the last pass
+        }
+        long nextRetry = 0;
+        long now = System.currentTimeMillis();
+        for (long at : retryAt.values()) {
+            nextRetry = nextRetry > 0 ? Math.min(nextRetry, at - now) : at - now;
+        }
+        if (nextRetry > 0) {
+            scheduleWakeUp(nextRetry);
+        }
+    }
+
+    /**
+     * process, in order, the entries whose paths do not overlap the paths of a blocked entry ahead of them
+     *
+     * @return {@code true} if any entry has been processed
+     */
+    private boolean skipAheadPass() {
+        List<String[]> blocked = new ArrayList<String[]>();
+        Set<String> read = new HashSet<String>();
+        boolean progress = false;
+        for (DistributionQueueEntry entry : queue.getEntries(0, SKIP_AHEAD_LIMIT)) {
+            read.add(entry.getId());
+            String[] paths = DistributionQueueUtils.getPaths(entry.getItem());
+            if (!blocked.isEmpty()) {
+                if (paths == null) {
+                    // an entry with unknown paths cannot be ordered against the blocked ones
+                    break;
+                }
+                if (isBlocked(paths, blocked)) {
+                    blocked.add(paths);
+                    continue;
+                }
+            }
+            long delay = getRetryDelay(entry);
+            if (delay > 0) {
+                log.debug("item {} is reattempted in {}ms", entry.getId(), delay);
+            } else if (claimer.apply(Collections.singletonList(entry)).isEmpty()) {
+                // removed meanwhile
+                continue;
+            } else if (processEntry(entry)) {
+                progress = true;
+                continue;
+            }
+            if (paths == null) {
+                // the entries behind cannot be ordered against this one
+                break;
+            }
+            blocked.add(paths);
+        }
+        if (read.size() < SKIP_AHEAD_LIMIT) {
+            // the whole queue has been read, forget the entries which are gone
+            retryAt.keySet().retainAll(read);
+        }
+        return progress;
+    }
+
+    private boolean isBlocked(String[] paths, List<String[]> blocked) {
+        for (String[] blockedPaths : blocked) {
+            if (DistributionQueueUtils.overlaps(paths, blockedPaths)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void runParallel() throws InterruptedException {
+        ExecutorService executor = getWorkers();
+        List<DistributionQueueEntry> entries;
+        while (!(entries = claimUnprocessed()).isEmpty()) {
+            for (final DistributionQueueEntry entry : entries) {
+                // wait for a free worker
+                permits.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            processEntry(entry);
+                        } finally {
+                            completed.add(entry.getId());
+                            permits.release();
+                            // reattempt the entry if it failed
+                            wakeUp();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    claimed.remove(entry.getId());
+                    permits.release();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private List<DistributionQueueEntry> claimUnprocessed() {
+        // entries completed before reading the queue are either removed or due to be reattempted
+        Set<String> done = new HashSet<String>(completed);
+        completed.removeAll(done);
+
+        List<DistributionQueueEntry> entries = new ArrayList<DistributionQueueEntry>();
+        Set<String> read = new HashSet<String>();
+        long nextRetry = 0;
+        int limit = claimed.size() + retryAt.size() + parallelism;
+        for (DistributionQueueEntry entry : queue.getEntries(0, limit)) {
+            read.add(entry.getId());
+            if (done.contains(entry.getId())) {
+                continue;
+            }
+            long delay = getRetryDelay(entry);
+            if (delay > 0) {
+                // skipped until due
+                nextRetry = nextRetry > 0 ? Math.min(nextRetry, delay) : delay;
+            } else if (claimed.add(entry.getId())) {
+                entries.add(entry);
+            }
+        }
+        claimed.removeAll(done);
+        if (!entries.isEmpty()) {
+            List<DistributionQueueEntry> queued = claimer.apply(entries);
+            if (queued.size() < entries.size()) {
+                // removed meanwhile
+                Set<String> gone = new HashSet<String>();
+                for (DistributionQueueEntry entry : entries) {
+                    gone.add(entry.getId());
+                }
+                for (DistributionQueueEntry entry : queued) {
+                    gone.remove(entry.getId());
+                }
+                claimed.removeAll(gone);
+                entries = queued;
+            }
+        }
+        if (read.size() < limit) {
+            // the whole queue has been read, forget the entries which are gone
+            retryAt.keySet().retainAll(read);
+        }
+        if (entries.isEmpty() && nextRetry > 0) {
+            scheduleWakeUp(nextRetry);
+        }
+        return entries;
+    }
+
+    /**
+     * process and remove an entry, recording a failed attempt if either fails
+     *
+     * @return {@code true} if the entry has been processed and removed
+     */
+    private boolean processEntry(DistributionQueueEntry entry) {
+        try {
+            if (queueProcessor.process(queue.getName(), entry) && queue.remove(entry.getId()) != null) {
+                retryAt.remove(entry.getId());
+                log.debug("item {} processed and removed from the queue", entry.getItem());
+                return true;
+            }
+        } catch (Exception e) {
+            log.error("error while processing item {}", entry.getId(), e);
+            recordFailure(entry, e);
+            return false;
+        }
+        recordFailure(entry, null);
+        return false;
+    }
+
+    private void recordFailure(DistributionQueueEntry entry, Throwable error) {
+        long delay = retryBackoff.getDelay(entry.getStatus().getAttempts() + 1);
+        log.warn("processing and removal of item {} failed; will reattempt in {}ms", entry.getId(), delay);
+        this.recordProcessingAttempt.accept(entry, error);
+        if (delay > 0) {
+            retryAt.put(entry.getId(), System.currentTimeMillis() + delay);
+        }
+    }
+
+    /**
+     * @return the time in milliseconds before the entry can be reattempted, {@code 0} if it is due
+     */
+    private long getRetryDelay(DistributionQueueEntry entry) {
+        Long at = retryAt.get(entry.getId());
+        if (at == null) {
+            return 0;
+        }
+        long delay = at - System.currentTimeMillis();
+        if (delay <= 0) {
+            retryAt.remove(entry.getId(), at);
+        }
+        return Math.max(0, delay);
+    }
+
+    private synchronized ExecutorService getWorkers() {
+        if (workers == null) {
+            permits = new Semaphore(parallelism);
+            workers = Executors.newFixedThreadPool(parallelism, threadFactory("worker"));
+        }
+        return workers;
+    }
+
+    /**
+     * stop the workers processing {@link DistributionQueueType#PARALLEL} queues
+     */
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.unschedule(jobName + "-wakeup");
+            scheduler.unschedule(jobName + "-retry");
+        }
+        if (wakeUpExecutor != null) {
+            wakeUpExecutor.shutdownNow();
+            wakeUpExecutor = null;
+        }
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                    log.warn("workers of queue {} still running", queue.getName());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            workers = null;
+        }
+    }
+
+    private List<DistributionQueueEntry> claim() {
+        List<DistributionQueueEntry> entries = new ArrayList<DistributionQueueEntry>(batchSize);
+        if (batchSize == 1) {
+            DistributionQueueEntry entry = queue.getHead();
+            if (entry != null) {
+                entries.add(entry);
+            }
+        } else {
+            for (DistributionQueueEntry entry : queue.getHead(batchSize)) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private Set<String> acknowledge(Set<String> processed) {
+        Set<String> removed = new HashSet<String>();
+        if (processed.size() == 1) {
+            String entryId = processed.iterator().next();
+            if (queue.remove(entryId) != null) {
+                removed.add(entryId);
+                retryAt.remove(entryId);
+            }
+        } else if (!processed.isEmpty()) {
+            for (DistributionQueueEntry entry : queue.remove(processed)) {
+                removed.add(entry.getId());
+                retryAt.remove(entry.getId());
+            }
+        }
+        return removed;
+    }
 }
@@ -22,16 +22,19 @@ import javax.json.JsonException;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Consumer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.LineIterator;
 import org.apache.sling.commons.scheduler.ScheduleOptions;
 import org.apache.sling.commons.scheduler.Scheduler;
 import org.apache.sling.distribution.queue.DistributionQueueEntry;
@@ -39,6 +42,7 @@ import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.apache.sling.distribution.queue.DistributionQueueType;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProcessor;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProvider;
+import org.apache.sling.distribution.queue.impl.DistributionQueueSettings;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
@@ -46,12 +50,16 @@ import org.slf4j.LoggerFactory;
 
 /**
  * a queue provider {@link DistributionQueueProvider} for simple in memory
- * {@link DistributionQueue}s
+ * {@link DistributionQueue}s, optionally persisted with periodic checkpoints
+ * ({@link #TYPE_CHECKPOINT}), with a write-ahead log ({@link #TYPE_WAL}) or
+ * with an append-only log and a consumer cursor ({@link #TYPE_LOG})
  */
 public class SimpleDistributionQueueProvider implements DistributionQueueProvider {
 
     public static final String TYPE = "simple";
     public static final String TYPE_CHECKPOINT = "simple-checkpoint";
+    public static final String TYPE_WAL = "simple-wal";
+    public static final String TYPE_LOG = "simple-log";
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -60,14 +68,47 @@ public class SimpleDistributionQueueProvider implements DistributionQueueProvide
 
     private final Map<String, SimpleDistributionQueue> queueMap =
             new ConcurrentHashMap<String, SimpleDistributionQueue>();
+    private final Map<String, QueueJournal> journalMap = new ConcurrentHashMap<String, QueueJournal>();
+    private final Set<String> recovered = ConcurrentHashMap.newKeySet();
     private final boolean checkpoint;
+    private final boolean journal;
+    private final boolean appendOnly;
+    private final DistributionQueueSettings settings;
+    private final Map<String, SimpleDistributionQueueProcessor> processors =
+            new ConcurrentHashMap<String, SimpleDistributionQueueProcessor>();
     private File checkpointDirectory;
+    private File journalDirectory;
 
     public SimpleDistributionQueueProvider(Scheduler scheduler, String name, boolean checkpoint) {
-        this.checkpoint = checkpoint;
-        if (name == null || scheduler == null) {
+        this(scheduler, name, checkpoint ? TYPE_CHECKPOINT : TYPE);
+    }
+
+    /**
+     * @param scheduler the scheduler running the queue processing
+     * @param name the agent name
+     * @param type one of {@link #TYPE}, {@link #TYPE_CHECKPOINT}, {@link #TYPE_WAL} or {@link #TYPE_LOG}
+     */
+    public SimpleDistributionQueueProvider(Scheduler scheduler, String name, String type) {
+        this(scheduler, name, type, DistributionQueueSettings.DEFAULT);
+    }
+
+    /**
+     * @param scheduler the scheduler running the queue processing
+     * @param name the agent name
+     * @param type one of {@link #TYPE}, {@link #TYPE_CHECKPOINT}, {@link #TYPE_WAL} or {@link #TYPE_LOG}
+     * @param settings the settings of the queue processing
+     */
+    public SimpleDistributionQueueProvider(
+            Scheduler scheduler, String name, String type, DistributionQueueSettings settings) {
+        if (name == null || scheduler == null || type == null) {
             throw new IllegalArgumentException("all arguments are required");
         }
+        this.checkpoint = TYPE_CHECKPOINT.equals(type);
+        this.appendOnly = TYPE_LOG.equals(type);
+        this.journal = TYPE_WAL.equals(type) || appendOnly;
+        if (!checkpoint && !journal && !TYPE.equals(type)) {
+            throw new IllegalArgumentException("unsupported simple queue type " + type);
+        }
 
         if (checkpoint) {
             this.checkpointDirectory = new File(name + "-simple-queues-checkpoints");
@@ -85,8 +126,17 @@ public class SimpleDistributionQueueProvider implements DistributionQueueProvide
                     checkpointDirectory.isDirectory() && checkpointDirectory.exists());
         }
 
+        if (journal) {
+            this.journalDirectory = new File(name + (appendOnly ? "-simple-queues-log" : "-simple-queues-wal"));
+            log.info("creating journal directory {}", journalDirectory.getAbsoluteFile());
+            if (!journalDirectory.isDirectory() && !journalDirectory.mkdirs()) {
+                throw new IllegalStateException("could not create journal directory " + journalDirectory);
+            }
+        }
+
         this.scheduler = scheduler;
         this.name = name;
+        this.settings = settings;
     }
 
     @NotNull
@@ -96,7 +146,8 @@ public class SimpleDistributionQueueProvider implements DistributionQueueProvide
         SimpleDistributionQueue queue = queueMap.get(key);
         if (queue == null) {
             log.debug("creating a queue with key {}", key);
-            queue = new SimpleDistributionQueue(name, queueName);
+            queue = new SimpleDistributionQueue(name, queueName, getJournal(queueName));
+            queue.setLanes(settings.getLanes());
             queueMap.put(key, queue);
             log.debug("queue created {}", queue);
         }
@@ -105,51 +156,35 @@ public class SimpleDistributionQueueProvider implements DistributionQueueProvide
 
     @Override
     public DistributionQueue getQueue(@NotNull String queueName, @NotNull DistributionQueueType type) {
-        return getQueue(queueName);
+        SimpleDistributionQueue queue = (SimpleDistributionQueue) getQueue(queueName);
+        queue.setType(type);
+        return queue;
     }
 
     Collection<SimpleDistributionQueue> getQueues() {
         return queueMap.values();
     }
 
+    private QueueJournal getJournal(String queueName) {
+        if (!journal) {
+            return null;
+        }
+        return journalMap.computeIfAbsent(
+                getKey(queueName),
+                key -> appendOnly
+                        ? new SimpleDistributionQueueLog(
+                                journalDirectory, queueName, SimpleDistributionQueueLog.DEFAULT_SEGMENT_SIZE)
+                        : new SimpleDistributionQueueJournal(
+                                journalDirectory, queueName, SimpleDistributionQueueJournal.DEFAULT_SEGMENT_SIZE));
+    }
+
     public void enableQueueProcessing(@NotNull DistributionQueueProcessor queueProcessor, String... queueNames) {
 
-        if (checkpoint) {
-            // recover from checkpoints
-            QueueItemMapper mapper = new QueueItemMapper();
-            log.debug("recovering from checkpoints if needed");
-            for (final String queueName : queueNames) {
-                log.debug("recovering for queue {}", queueName);
-                DistributionQueue queue = getQueue(queueName);
-                FilenameFilter filenameFilter = new FilenameFilter() {
-                    @Override
-                    public boolean accept(File file, String name) {
-                        return name.equals(queueName + "-checkpoint");
-                    }
-                };
-                for (File qf : checkpointDirectory.listFiles(filenameFilter)) {
-                    log.info("recovering from checkpoint {}", qf);
-                    try (FileReader fr = new FileReader(qf)) {
-                        LineIterator lineIterator = IOUtils.lineIterator(fr);
-                        while (lineIterator.hasNext()) {
-                            String line = lineIterator.nextLine();
-                            DistributionQueueItem item = mapper.readQueueItem(line);
-                            queue.add(item);
-                        }
-                        log.info(
-                                "recovered {} items from queue {}",
-                                queue.getStatus().getItemsCount(),
-                                queueName);
-                    } catch (FileNotFoundException e) {
-                        log.warn("could not read checkpoint file {}", qf.getAbsolutePath());
-                    } catch (JsonException e) {
-                        log.warn("could not parse info from checkpoint file {}", qf.getAbsolutePath());
-                    } catch (IOException e) {
-                        log.warn("IO error on checkpoint file {}", qf.getAbsolutePath());
-                    }
-                }
-            }
+        if (checkpoint || journal) {
+            recover(queueNames);
+        }
 
+        if (checkpoint) {
             // enable checkpointing
             for (String queueName : queueNames) {
                 ScheduleOptions options =
@@ -159,20 +194,124 @@ public class SimpleDistributionQueueProvider implements DistributionQueueProvide
             }
         }
 
+        if (journal) {
+            // enable compaction
+            for (String queueName : queueNames) {
+                final SimpleDistributionQueue queue = (SimpleDistributionQueue) getQueue(queueName);
+                Runnable compaction = () -> {
+                    try {
+                        queue.compactJournal();
+                    } catch (IOException e) {
+                        log.error("failed compacting journal of queue {}", queue.getName(), e);
+                    }
+                };
+                ScheduleOptions options =
+                        scheduler.NOW(-1, 15).canRunConcurrently(false).name(getJobName(queueName + "-compaction"));
+                scheduler.schedule(compaction, options);
+            }
+        }
+
         // enable processing
         for (String queueName : queueNames) {
-            ScheduleOptions options =
-                    scheduler.NOW(-1, 1).canRunConcurrently(false).name(getJobName(queueName));
+            ScheduleOptions options = scheduler
+                    .NOW(-1, SimpleDistributionQueueProcessor.SAFETY_NET_PERIOD)
+                    .canRunConcurrently(false)
+                    .name(getJobName(queueName));
             DistributionQueue queueImpl = getQueue(queueName);
-            Consumer<DistributionQueueEntry> processingAttemptRecorder =
+            BiConsumer<DistributionQueueEntry, Throwable> processingAttemptRecorder =
                     ((SimpleDistributionQueue) queueImpl)::recordProcessingAttempt;
-            scheduler.schedule(
-                    new SimpleDistributionQueueProcessor(
-                            getQueue(queueName), queueProcessor, processingAttemptRecorder),
-                    options);
+            SimpleDistributionQueueProcessor processor = new SimpleDistributionQueueProcessor(
+                    queueImpl,
+                    queueProcessor,
+                    processingAttemptRecorder,
+                    SimpleDistributionQueueProcessor.DEFAULT_BATCH_SIZE,
+                    settings);
+            if (settings.isCoalesce()) {
+                // entries are only superseded when coalescing, and only unclaimed ones
+                processor.setClaimer(((SimpleDistributionQueue) queueImpl)::claim);
+            }
+            processors.put(queueName, processor);
+            // all the additions happen in this instance, the processor is woken up by each of them
+            processor.setScheduler(scheduler, getJobName(queueName), false);
+            ((SimpleDistributionQueue) queueImpl).setAddListener(processor::wakeUp);
+            scheduler.schedule(processor, options);
+        }
+    }
+
+    /**
+     * recover the given queues from their checkpoints or journals, replaying each queue in parallel
+     */
+    private void recover(String... queueNames) {
+        long start = System.currentTimeMillis();
+        int threads =
+                Math.max(1, Math.min(queueNames.length, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (final String queueName : queueNames) {
+                if (!recovered.add(queueName)) {
+                    continue;
+                }
+                final SimpleDistributionQueue queue = (SimpleDistributionQueue) getQueue(queueName);
+                results.add(
+                        executor.submit(() -> checkpoint ? recoverFromCheckpoint(queue) : recoverFromJournal(queue)));
+            }
+            int items = 0;
+            for (Future<Integer> result : results) {
+                try {
+                    items += result.get();
+                } catch (ExecutionException e) {
+                    log.error("could not recover queue", e.getCause());
+                }
+            }
+            log.info(
+                    "recovered {} items in {} queues of agent {} in {} ms",
+                    items,
+                    results.size(),
+                    name,
+                    System.currentTimeMillis() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("interrupted while recovering queues of agent {}", name);
+        } finally {
+            executor.shutdown();
         }
     }
 
+    private int recoverFromCheckpoint(SimpleDistributionQueue queue) {
+        File qf = new File(checkpointDirectory, queue.getName() + "-checkpoint");
+        if (!qf.exists()) {
+            return 0;
+        }
+        log.info("recovering from checkpoint {}", qf);
+        try {
+            File delta = new File(checkpointDirectory, qf.getName() + "-delta");
+            List<DistributionQueueItem> items = new QueueItemMapper().readCheckpoint(qf, delta);
+            queue.addAll(items);
+            log.info("recovered {} items from queue {}", items.size(), queue.getName());
+            return items.size();
+        } catch (FileNotFoundException e) {
+            log.warn("could not read checkpoint file {}", qf.getAbsolutePath());
+        } catch (JsonException e) {
+            log.warn("could not parse info from checkpoint file {}", qf.getAbsolutePath());
+        } catch (IOException e) {
+            log.warn("IO error on checkpoint file {}", qf.getAbsolutePath());
+        }
+        return 0;
+    }
+
+    private int recoverFromJournal(SimpleDistributionQueue queue) {
+        try {
+            Collection<QueueItemRecord> records = getJournal(queue.getName()).replay();
+            queue.restore(records);
+            log.info("recovered {} items from journal of queue {}", records.size(), queue.getName());
+            return records.size();
+        } catch (IOException e) {
+            log.error("could not replay journal of queue {}", queue.getName(), e);
+        }
+        return 0;
+    }
+
     public void disableQueueProcessing() {
         for (DistributionQueue queue : getQueues()) {
             String queueName = queue.getName();
@@ -182,6 +321,11 @@ public class SimpleDistributionQueueProvider implements DistributionQueueProvide
             } else {
                 log.warn("could not disable queue processing on {}", queue);
             }
+            SimpleDistributionQueueProcessor processor = processors.remove(queueName);
+            if (processor != null) {
+                ((SimpleDistributionQueue) queue).setAddListener(null);
+                processor.close();
+            }
             if (checkpoint) {
                 // disable checkpointing
                 if (scheduler.unschedule(getJobName(queueName) + "-checkpoint")) {
@@ -190,6 +334,23 @@ public class SimpleDistributionQueueProvider implements DistributionQueueProvide
                     log.warn("could not disable checkpoint on {}", queue);
                 }
             }
+            if (journal) {
+                // disable compaction
+                if (scheduler.unschedule(getJobName(queueName) + "-compaction")) {
+                    log.debug("compaction on {} stopped", queue);
+                } else {
+                    log.warn("could not disable compaction on {}", queue);
+                }
+            }
+        }
+        if (journal) {
+            // release the journal files, the queues are recovered from them when processing is enabled again
+            for (QueueJournal queueJournal : journalMap.values()) {
+                queueJournal.close();
+            }
+            journalMap.clear();
+            queueMap.clear();
+            recovered.clear();
         }
     }
 
@@ -19,6 +19,7 @@
 package org.apache.sling.distribution.queue.spi;
 
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.apache.sling.distribution.packaging.DistributionPackage;
 import org.apache.sling.distribution.queue.DistributionQueueEntry;
@@ -61,6 +62,18 @@ public interface DistributionQueue {
     @Nullable
     DistributionQueueEntry getHead();
 
+    /**
+     * get the first entries (in a FIFO strategy, the next to be processed) from the queue, so that
+     * they can be processed as a batch and acknowledged at once with {@link #remove(Set)}
+     *
+     * @param limit the maximum number of entries to return
+     * @return a {@link java.lang.Iterable} of at most {@code limit} entries, empty if the queue is empty
+     */
+    @NotNull
+    default Iterable<DistributionQueueEntry> getHead(int limit) {
+        return getEntries(0, limit);
+    }
+
     /**
      * get all the entries in the queue
      *
@@ -111,6 +124,24 @@ public interface DistributionQueue {
     @NotNull
     Iterable<DistributionQueueEntry> clear(int limit);
 
+    /**
+     * Clear a range of entries from the queue, like {@link #clear(int)}, passing the
+     * removed entries to the given consumer as they are removed rather than collecting them.
+     *
+     * @param limit The maximum number of entries to remove. All entries
+     *              are removed when the limit is {@code -1}.
+     * @param removed the consumer of the removed entries
+     * @return the number of removed entries
+     */
+    default int clear(int limit, @NotNull Consumer<DistributionQueueEntry> removed) {
+        int count = 0;
+        for (DistributionQueueEntry entry : clear(limit)) {
+            removed.accept(entry);
+            count++;
+        }
+        return count;
+    }
+
     /**
      * get the status of the queue
      * @return the queue status
@@ -142,9 +142,7 @@ public class DistributionAgentQueueServlet extends SlingAllMethodsServlet {
     }
 
     private void clearItems(ResourceResolver resourceResolver, DistributionQueue queue, int limit) {
-        for (DistributionQueueEntry removed : queue.clear(limit)) {
-            releaseOrDeletePackage(resourceResolver, removed.getItem(), queue.getName());
-        }
+        queue.clear(limit, removed -> releaseOrDeletePackage(resourceResolver, removed.getItem(), queue.getName()));
     }
 
     private void releaseOrDeletePackage(
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.agent.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jackrabbit.vault.packaging.Packaging;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.apache.sling.distribution.agent.spi.DistributionAgent;
+import org.apache.sling.distribution.event.impl.DistributionEventFactory;
+import org.apache.sling.distribution.packaging.DistributionPackageBuilder;
+import org.apache.sling.distribution.queue.impl.resource.ResourceQueueProvider;
+import org.apache.sling.distribution.transport.DistributionTransportSecretProvider;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.jcr.api.SlingRepository;
+import org.apache.sling.settings.SlingSettingsService;
+import org.apache.sling.testing.mock.osgi.MockOsgi;
+import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
+import org.apache.sling.testing.resourceresolver.MockResourceResolverFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link ForwardDistributionAgentFactory}
+ */
+public class ForwardDistributionAgentFactoryTest {
+
+    @Rule
+    public final OsgiContext context = new OsgiContext();
+
+    @Test
+    public void testResourceQueueResolversClosedOnDeactivate() throws Exception {
+        MockResourceResolverFactory mockFactory = new MockResourceResolverFactory();
+        List<ResourceResolver> resolvers = new ArrayList<>();
+        ResourceResolverFactory resolverFactory = mock(ResourceResolverFactory.class);
+        when(resolverFactory.getServiceResourceResolver(any())).thenAnswer(invocation -> {
+            ResourceResolver resolver = spy(mockFactory.getServiceResourceResolver(invocation.getArgument(0)));
+            resolvers.add(resolver);
+            return resolver;
+        });
+
+        context.registerService(
+                DistributionRequestAuthorizationStrategy.class, mock(DistributionRequestAuthorizationStrategy.class));
+        context.registerService(
+                DistributionTransportSecretProvider.class, mock(DistributionTransportSecretProvider.class));
+        context.registerService(DistributionPackageBuilder.class, mock(DistributionPackageBuilder.class));
+        context.registerService(Packaging.class, mock(Packaging.class));
+        context.registerService(DistributionEventFactory.class, mock(DistributionEventFactory.class));
+        context.registerService(SlingSettingsService.class, mock(SlingSettingsService.class));
+        context.registerService(JobManager.class, mock(JobManager.class));
+        context.registerService(ResourceResolverFactory.class, resolverFactory);
+        context.registerService(SlingRepository.class, mock(SlingRepository.class));
+        context.registerService(Scheduler.class, mock(Scheduler.class, RETURNS_DEEP_STUBS));
+        context.registerService(ConfigurationAdmin.class, mock(ConfigurationAdmin.class));
+
+        ForwardDistributionAgentFactory factory = context.registerInjectActivateService(
+                new ForwardDistributionAgentFactory(),
+                "name",
+                "forward",
+                "queue.provider",
+                ResourceQueueProvider.TYPE,
+                "packageImporter.endpoints",
+                new String[] {"endpoint=http://localhost:4503/libs/sling/distribution/services/importers/default"});
+
+        DistributionAgent agent = context.getService(DistributionAgent.class);
+        assertNotNull(agent);
+        agent.getQueue("endpoint").getStatus();
+        assertFalse(resolvers.isEmpty());
+
+        MockOsgi.deactivate(factory, context.bundleContext());
+
+        for (ResourceResolver resolver : resolvers) {
+            verify(resolver, atLeastOnce()).close();
+        }
+    }
+}
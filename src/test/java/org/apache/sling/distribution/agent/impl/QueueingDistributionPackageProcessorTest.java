@@ -18,10 +18,12 @@
  */
 package org.apache.sling.distribution.agent.impl;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.apache.sling.distribution.DistributionRequestState;
 import org.apache.sling.distribution.DistributionResponse;
 import org.apache.sling.distribution.event.impl.DistributionEventFactory;
 import org.apache.sling.distribution.log.impl.DefaultDistributionLog;
@@ -30,12 +32,15 @@ import org.apache.sling.distribution.packaging.DistributionPackageInfo;
 import org.apache.sling.distribution.queue.DistributionQueueItemState;
 import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
 import org.apache.sling.distribution.queue.impl.DistributionQueueDispatchingStrategy;
+import org.apache.sling.distribution.queue.impl.DistributionQueueFullException;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProvider;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -119,4 +124,42 @@ public class QueueingDistributionPackageProcessorTest {
         when(distributionPackage.getInfo()).thenReturn(info);
         exporterProcessor.process(distributionPackage);
     }
+
+    @Test
+    public void testPartiallyAccepted() throws Exception {
+        DistributionQueueProvider queueProvider = mock(DistributionQueueProvider.class);
+        DistributionQueueDispatchingStrategy scheduleQueueStrategy = mock(DistributionQueueDispatchingStrategy.class);
+        DistributionPackage queued = mock(DistributionPackage.class);
+        when(queued.getInfo()).thenReturn(new DistributionPackageInfo("type-a", new HashMap<String, Object>()));
+        when(scheduleQueueStrategy.add(queued, queueProvider))
+                .thenReturn(Collections.singletonList(
+                        new DistributionQueueItemStatus(DistributionQueueItemState.QUEUED, "queue-1")));
+        DistributionPackage rejected = mock(DistributionPackage.class);
+        when(rejected.getInfo()).thenReturn(new DistributionPackageInfo("type-a", new HashMap<String, Object>()));
+        when(scheduleQueueStrategy.add(rejected, queueProvider))
+                .thenThrow(new DistributionQueueFullException("queue-1", 1));
+
+        QueueingDistributionPackageProcessor exporterProcessor = new QueueingDistributionPackageProcessor(
+                "mr-who-cares",
+                "id231",
+                System.currentTimeMillis(),
+                mock(DistributionEventFactory.class),
+                scheduleQueueStrategy,
+                queueProvider,
+                mock(DefaultDistributionLog.class),
+                "dummy");
+        exporterProcessor.process(rejected);
+        // nothing queued yet, the request can be retried
+        assertEquals(
+                DistributionRequestState.NOT_EXECUTED,
+                exporterProcessor.getAllResponses().get(0).getState());
+
+        exporterProcessor.getAllResponses().clear();
+        exporterProcessor.process(queued);
+        exporterProcessor.process(rejected);
+        List<DistributionResponse> responses = exporterProcessor.getAllResponses();
+        assertEquals(DistributionRequestState.ACCEPTED, responses.get(0).getState());
+        assertEquals(DistributionRequestState.DROPPED, responses.get(1).getState());
+        verify(rejected, times(2)).delete();
+    }
 }
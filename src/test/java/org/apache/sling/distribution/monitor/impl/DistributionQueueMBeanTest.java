@@ -25,6 +25,8 @@ import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
 import org.apache.sling.distribution.queue.DistributionQueueStatus;
+import org.apache.sling.distribution.queue.impl.DistributionQueueProvider;
+import org.apache.sling.distribution.queue.impl.DistributionQueueStatusCache;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.junit.Test;
 
@@ -65,6 +67,9 @@ public class DistributionQueueMBeanTest {
         assertEquals(-1, mBean.getHeadDequeuingAttempts());
         assertNull(mBean.getHeadStatus());
         assertNull(mBean.getHeadEnqueuingDate());
+        assertEquals(-1, mBean.getServiceLogins());
+        assertEquals(-1, mBean.getStatusCacheHits());
+        assertEquals(-1, mBean.getStatusCacheMisses());
     }
 
     @Test
@@ -93,4 +98,22 @@ public class DistributionQueueMBeanTest {
         assertEquals(QUEUED.name().toLowerCase(), mBean.getHeadStatus());
         assertEquals(joined, mBean.getHeadEnqueuingDate());
     }
+
+    @Test
+    public void verifyMBeanExposesProviderValues() {
+        DistributionQueue distributionQueue = mock(DistributionQueue.class);
+        DistributionQueueProvider queueProvider = mock(DistributionQueueProvider.class);
+        when(queueProvider.getLoginCount()).thenReturn(3L);
+        DistributionQueueStatusCache statusCache = new DistributionQueueStatusCache();
+        statusCache.get("queue", () -> new DistributionQueueStatus(0, RUNNING));
+        statusCache.get("queue", () -> new DistributionQueueStatus(0, RUNNING));
+        when(queueProvider.getStatusCache()).thenReturn(statusCache);
+
+        DistributionQueueMBean mBean = new DistributionQueueMBeanImpl(distributionQueue, 1, queueProvider);
+
+        assertEquals(1, mBean.getMaxParallel());
+        assertEquals(3, mBean.getServiceLogins());
+        assertEquals(1, mBean.getStatusCacheHits());
+        assertEquals(1, mBean.getStatusCacheMisses());
+    }
 }
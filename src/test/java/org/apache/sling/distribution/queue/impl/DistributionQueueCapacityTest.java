@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.apache.sling.distribution.queue.DistributionQueueItem;
+import org.apache.sling.distribution.queue.impl.simple.SimpleDistributionQueue;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Testcase for {@link DistributionQueueCapacity}
+ */
+public class DistributionQueueCapacityTest {
+
+    @Test
+    public void testUnbounded() throws Exception {
+        SimpleDistributionQueue queue = newQueue(3);
+        assertFalse(DistributionQueueCapacity.UNBOUNDED.isBounded());
+        DistributionQueueCapacity.UNBOUNDED.await(Collections.singletonList(queue));
+    }
+
+    @Test
+    public void testReject() throws Exception {
+        SimpleDistributionQueue queue = newQueue(2);
+        DistributionQueueCapacity capacity =
+                new DistributionQueueCapacity(3, DistributionQueueCapacity.Policy.REJECT, 0);
+        assertTrue(capacity.isBounded());
+        capacity.await(Collections.singletonList(queue));
+
+        queue.add(newItem("id-2"));
+        try {
+            capacity.await(Collections.singletonList(queue));
+            fail("the queue is full");
+        } catch (DistributionQueueFullException e) {
+            assertEquals("queueName", e.getQueueName());
+        }
+    }
+
+    @Test
+    public void testBlockUntilDrained() throws Exception {
+        final SimpleDistributionQueue queue = newQueue(2);
+        DistributionQueueCapacity capacity =
+                new DistributionQueueCapacity(2, DistributionQueueCapacity.Policy.BLOCK, 10000);
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(3 * DistributionQueueCapacity.POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.remove("id-0");
+        });
+        consumer.start();
+        capacity.await(Collections.singletonList(queue));
+        consumer.join();
+        assertEquals(1, queue.getStatus().getItemsCount());
+    }
+
+    @Test(expected = DistributionQueueFullException.class)
+    public void testBlockTimeout() throws Exception {
+        SimpleDistributionQueue queue = newQueue(2);
+        DistributionQueueCapacity capacity = new DistributionQueueCapacity(
+                2, DistributionQueueCapacity.Policy.BLOCK, 2 * DistributionQueueCapacity.POLL_INTERVAL);
+        capacity.await(Collections.singletonList(queue));
+    }
+
+    private SimpleDistributionQueue newQueue(int items) {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "queueName");
+        for (int i = 0; i < items; i++) {
+            queue.add(newItem("id-" + i));
+        }
+        return queue;
+    }
+
+    private DistributionQueueItem newItem(String id) {
+        return new DistributionQueueItem(id, new HashMap<String, Object>());
+    }
+}
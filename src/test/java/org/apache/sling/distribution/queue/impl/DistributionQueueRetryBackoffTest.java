@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testcase for {@link DistributionQueueRetryBackoff}
+ */
+public class DistributionQueueRetryBackoffTest {
+
+    @Test
+    public void testGetDelay() throws Exception {
+        DistributionQueueRetryBackoff backoff = new DistributionQueueRetryBackoff(1000, 30000);
+        assertEquals(0, backoff.getDelay(0));
+        for (int i = 0; i < 100; i++) {
+            assertInRange(500, 1000, backoff.getDelay(1));
+            assertInRange(1000, 2000, backoff.getDelay(2));
+            assertInRange(8000, 16000, backoff.getDelay(5));
+            assertInRange(15000, 30000, backoff.getDelay(6));
+            assertInRange(15000, 30000, backoff.getDelay(Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void testNoDelay() throws Exception {
+        DistributionQueueRetryBackoff backoff = new DistributionQueueRetryBackoff(0, 30000);
+        assertEquals(0, backoff.getDelay(10));
+    }
+
+    private static void assertInRange(long min, long max, long delay) {
+        assertTrue(delay + " not in [" + min + ", " + max + "]", delay >= min && delay <= max);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.distribution.queue.DistributionQueueState;
+import org.apache.sling.distribution.queue.DistributionQueueStatus;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testcase for {@link DistributionQueueStatusCache}
+ */
+public class DistributionQueueStatusCacheTest {
+
+    @Test
+    public void testGet() throws Exception {
+        DistributionQueueStatusCache cache = new DistributionQueueStatusCache(60000, 10);
+        AtomicInteger loads = new AtomicInteger();
+        DistributionQueueStatus status = cache.get("key", () -> newStatus(loads.incrementAndGet()));
+        assertSame(status, cache.get("key", () -> newStatus(loads.incrementAndGet())));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.invalidate("key");
+        assertEquals(
+                2, cache.get("key", () -> newStatus(loads.incrementAndGet())).getItemsCount());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        DistributionQueueStatusCache cache = new DistributionQueueStatusCache(50, 10);
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("key", () -> newStatus(loads.incrementAndGet()));
+        Thread.sleep(100);
+        assertEquals(
+                2, cache.get("key", () -> newStatus(loads.incrementAndGet())).getItemsCount());
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        DistributionQueueStatusCache cache = new DistributionQueueStatusCache(60000, 2);
+        for (int i = 0; i < 5; i++) {
+            cache.get("key-" + i, () -> newStatus(0));
+        }
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        final DistributionQueueStatusCache cache = new DistributionQueueStatusCache(60000, 10);
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<DistributionQueueStatus>> results = new ArrayList<Future<DistributionQueueStatus>>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> cache.get("key", () -> {
+                    loading.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return newStatus(loads.incrementAndGet());
+                })));
+            }
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            release.countDown();
+            for (Future<DistributionQueueStatus> result : results) {
+                assertEquals(1, result.get(10, TimeUnit.SECONDS).getItemsCount());
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testInvalidateWhileLoading() throws Exception {
+        final DistributionQueueStatusCache cache = new DistributionQueueStatusCache(60000, 10);
+        DistributionQueueStatus status = cache.get("key", () -> {
+            cache.invalidate("key");
+            return newStatus(1);
+        });
+        assertEquals(1, status.getItemsCount());
+        // the status loaded while invalidated is not cached
+        assertEquals(2, cache.get("key", () -> newStatus(2)).getItemsCount());
+    }
+
+    private static DistributionQueueStatus newStatus(int itemsCount) {
+        return new DistributionQueueStatus(itemsCount, DistributionQueueState.IDLE);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.sling.distribution.packaging.DistributionPackageInfo;
+import org.apache.sling.distribution.queue.DistributionQueueItem;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testcase for {@link DistributionQueueUtils}
+ */
+public class DistributionQueueUtilsTest {
+
+    @Test
+    public void testOverlaps() throws Exception {
+        assertTrue(DistributionQueueUtils.overlaps(new String[] {"/content/a"}, new String[] {"/content/a"}));
+        assertTrue(DistributionQueueUtils.overlaps(new String[] {"/content"}, new String[] {"/content/a"}));
+        assertTrue(DistributionQueueUtils.overlaps(new String[] {"/content/a/b"}, new String[] {"/content/a"}));
+        assertTrue(DistributionQueueUtils.overlaps(new String[] {"/x", "/content/a"}, new String[] {"/y", "/content"}));
+        assertFalse(DistributionQueueUtils.overlaps(new String[] {"/content/a"}, new String[] {"/content/ab"}));
+        assertFalse(DistributionQueueUtils.overlaps(new String[] {"/content/a"}, new String[] {"/content/b"}));
+    }
+
+    @Test
+    public void testGetPaths() throws Exception {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        assertNull(DistributionQueueUtils.getPaths(new DistributionQueueItem("id", properties)));
+        properties.put(DistributionPackageInfo.PROPERTY_REQUEST_PATHS, new String[0]);
+        assertNull(DistributionQueueUtils.getPaths(new DistributionQueueItem("id", properties)));
+        properties.put(DistributionPackageInfo.PROPERTY_REQUEST_PATHS, new String[] {"/content"});
+        assertArrayEquals(
+                new String[] {"/content"},
+                DistributionQueueUtils.getPaths(new DistributionQueueItem("id", properties)));
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.sling.distribution.DistributionRequestType;
+import org.apache.sling.distribution.packaging.DistributionPackage;
+import org.apache.sling.distribution.packaging.DistributionPackageInfo;
+import org.apache.sling.distribution.packaging.impl.SharedDistributionPackage;
+import org.apache.sling.distribution.queue.DistributionQueueEntry;
+import org.apache.sling.distribution.queue.impl.simple.SimpleDistributionQueue;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Testcase for {@link MultipleQueueDispatchingStrategy}
+ */
+public class MultipleQueueDispatchingStrategyTest {
+
+    @Test
+    public void testCoalesce() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "queueName");
+        DistributionQueueProvider queueProvider = mock(DistributionQueueProvider.class);
+        when(queueProvider.getQueue("queueName")).thenReturn(queue);
+        MultipleQueueDispatchingStrategy strategy =
+                new MultipleQueueDispatchingStrategy(new String[] {"queueName"}, true);
+
+        // the items at the head of the queue are never superseded
+        for (int i = 0; i < MultipleQueueDispatchingStrategy.COALESCE_SKIP; i++) {
+            strategy.add(newPackage("head-" + i, DistributionRequestType.ADD, "/content/a"), queueProvider);
+        }
+        final List<String> superseded = new ArrayList<String>();
+        strategy.add(
+                newPackage("id-0", DistributionRequestType.ADD, "/content/a", "/content/b"),
+                queueProvider,
+                (queueName, item) -> superseded.add(item.getPackageId()));
+        strategy.add(
+                newPackage("id-1", DistributionRequestType.ADD, "/content/a"),
+                queueProvider,
+                (queueName, item) -> superseded.add(item.getPackageId()));
+        strategy.add(
+                newPackage("id-2", DistributionRequestType.DELETE, "/content/a"),
+                queueProvider,
+                (queueName, item) -> superseded.add(item.getPackageId()));
+        strategy.add(
+                newPackage("id-3", DistributionRequestType.ADD, "/content/b", "/content/a"),
+                queueProvider,
+                (queueName, item) -> superseded.add(item.getPackageId()));
+        assertEquals(Arrays.asList("id-0"), superseded);
+
+        strategy.add(
+                newPackage("id-4", DistributionRequestType.ADD, "/content/a"),
+                queueProvider,
+                (queueName, item) -> superseded.add(item.getPackageId()));
+        assertEquals(Arrays.asList("id-0", "id-1"), superseded);
+
+        List<String> left = new ArrayList<String>();
+        for (DistributionQueueEntry entry : queue.getEntries(MultipleQueueDispatchingStrategy.COALESCE_SKIP, -1)) {
+            left.add(entry.getId());
+        }
+        assertEquals(Arrays.asList("id-2", "id-3", "id-4"), left);
+    }
+
+    @Test
+    public void testClaimedNotSuperseded() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "queueName");
+        DistributionQueueProvider queueProvider = mock(DistributionQueueProvider.class);
+        when(queueProvider.getQueue("queueName")).thenReturn(queue);
+        MultipleQueueDispatchingStrategy strategy =
+                new MultipleQueueDispatchingStrategy(new String[] {"queueName"}, true);
+
+        for (int i = 0; i < MultipleQueueDispatchingStrategy.COALESCE_SKIP; i++) {
+            strategy.add(newPackage("head-" + i, DistributionRequestType.ADD, "/content/b"), queueProvider);
+        }
+        DistributionPackage claimedPackage = newPackage("id-0", DistributionRequestType.ADD, "/content/a");
+        strategy.add(claimedPackage, queueProvider);
+        // e.g. processed by a parallel worker or skipped ahead of the head
+        queue.claim(Collections.singletonList(queue.getEntry("id-0")));
+        assertTrue(DistributionQueueUtils.isClaimed(queue.getEntry("id-0")));
+        assertNull(claimedPackage.getInfo().get(DistributionQueueUtils.PROPERTY_CLAIMED));
+
+        final List<String> superseded = new ArrayList<String>();
+        strategy.add(
+                newPackage("id-1", DistributionRequestType.ADD, "/content/a"),
+                queueProvider,
+                (queueName, item) -> superseded.add(item.getPackageId()));
+        assertTrue(superseded.isEmpty());
+
+        List<String> left = new ArrayList<String>();
+        for (DistributionQueueEntry entry : queue.getEntries(MultipleQueueDispatchingStrategy.COALESCE_SKIP, -1)) {
+            left.add(entry.getId());
+        }
+        assertEquals(Arrays.asList("id-0", "id-1"), left);
+    }
+
+    @Test
+    public void testFullQueueRejectsPackage() throws Exception {
+        SimpleDistributionQueue queue1 = new SimpleDistributionQueue("agentName", "queue1");
+        SimpleDistributionQueue queue2 = new SimpleDistributionQueue("agentName", "queue2");
+        DistributionQueueProvider queueProvider = mock(DistributionQueueProvider.class);
+        when(queueProvider.getQueue("queue1")).thenReturn(queue1);
+        when(queueProvider.getQueue("queue2")).thenReturn(queue2);
+        MultipleQueueDispatchingStrategy strategy = new MultipleQueueDispatchingStrategy(
+                new String[] {"queue1", "queue2"},
+                false,
+                new DistributionQueueCapacity(2, DistributionQueueCapacity.Policy.REJECT, 0));
+
+        strategy.add(newSharedPackage("id-0"), queueProvider);
+        queue2.remove("id-0");
+        strategy.add(newSharedPackage("id-1"), queueProvider);
+        assertEquals(2, queue1.getStatus().getItemsCount());
+        assertEquals(1, queue2.getStatus().getItemsCount());
+
+        SharedDistributionPackage rejected = newSharedPackage("id-2");
+        try {
+            strategy.add(rejected, queueProvider);
+            fail("queue1 is full");
+        } catch (DistributionQueueFullException e) {
+            assertEquals("queue1", e.getQueueName());
+        }
+
+        // the package is neither acquired nor added to any of the queues
+        verify(rejected, never()).acquire(any(String[].class));
+        assertEquals(2, queue1.getStatus().getItemsCount());
+        assertEquals(1, queue2.getStatus().getItemsCount());
+    }
+
+    private DistributionPackage newPackage(String id, DistributionRequestType requestType, String... paths) {
+        DistributionPackageInfo info = new DistributionPackageInfo("vlt", new HashMap<String, Object>());
+        info.put(DistributionPackageInfo.PROPERTY_REQUEST_TYPE, requestType);
+        info.put(DistributionPackageInfo.PROPERTY_REQUEST_PATHS, paths);
+        info.put(DistributionPackageInfo.PROPERTY_REQUEST_DEEP_PATHS, new String[0]);
+        DistributionPackage distributionPackage = mock(DistributionPackage.class);
+        when(distributionPackage.getId()).thenReturn(id);
+        when(distributionPackage.getInfo()).thenReturn(info);
+        return distributionPackage;
+    }
+
+    private SharedDistributionPackage newSharedPackage(String id) {
+        SharedDistributionPackage distributionPackage = mock(SharedDistributionPackage.class);
+        DistributionPackage plain = newPackage(id, DistributionRequestType.ADD, "/content/a");
+        DistributionPackageInfo info = plain.getInfo();
+        when(distributionPackage.getId()).thenReturn(id);
+        when(distributionPackage.getInfo()).thenReturn(info);
+        return distributionPackage;
+    }
+}
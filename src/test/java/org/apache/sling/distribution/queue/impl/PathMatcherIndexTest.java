@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Testcase for {@link PathMatcherIndex}
+ */
+public class PathMatcherIndexTest {
+
+    @Test
+    public void testLiteralPrefix() {
+        assertEquals("/content/news", PathMatcherIndex.getLiteralPrefix("/content/news.*"));
+        assertEquals("/content/news/", PathMatcherIndex.getLiteralPrefix("/content/news/[a-z]+"));
+        assertEquals("/content/new", PathMatcherIndex.getLiteralPrefix("/content/news?"));
+        assertEquals("/content/new", PathMatcherIndex.getLiteralPrefix("/content/news{0,1}"));
+        assertEquals("/content/fr", PathMatcherIndex.getLiteralPrefix("/content/fr"));
+        assertEquals("", PathMatcherIndex.getLiteralPrefix("/content/a|/content/b"));
+        assertEquals("", PathMatcherIndex.getLiteralPrefix("(?i)/content/a"));
+        assertEquals("/content", PathMatcherIndex.getLiteralPrefix("/content\\/a"));
+    }
+
+    @Test
+    public void testMatch() {
+        PathMatcherIndex index = new PathMatcherIndex(Arrays.asList(
+                "/content/news/.*", "/content/news/sport/.*", ".*/important", "/content/notes", "/content/a|/other"));
+
+        assertEquals(bits(0), match(index, "/content/news/a"));
+        assertEquals(bits(0, 1), match(index, "/content/news/sport/a"));
+        assertEquals(bits(0, 2), match(index, "/content/news/important"));
+        assertEquals(bits(3), match(index, "/content/notes"));
+        assertEquals(bits(), match(index, "/content/notes/a"));
+        assertEquals(bits(4), match(index, "/other"));
+        assertEquals(bits(), match(index, "/content"));
+        assertEquals(bits(0, 1, 2, 3, 4), match(index, (String) null));
+        assertEquals(bits(0, 3, 4), match(index, "/content/notes", "/content/a", "/content/news/b"));
+    }
+
+    private BitSet match(PathMatcherIndex index, String... paths) {
+        BitSet matched = new BitSet();
+        for (String path : paths) {
+            index.match(path, matched);
+        }
+        return matched;
+    }
+
+    private BitSet bits(int... indexes) {
+        BitSet bits = new BitSet();
+        for (int i : indexes) {
+            bits.set(i);
+        }
+        return bits;
+    }
+}
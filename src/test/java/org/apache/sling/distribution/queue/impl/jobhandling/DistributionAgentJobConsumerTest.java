@@ -25,6 +25,7 @@ import org.apache.sling.event.jobs.consumer.JobConsumer;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -55,4 +56,25 @@ public class DistributionAgentJobConsumerTest {
         JobConsumer.JobResult jobResult = distributionAgentJobConsumer.process(job);
         assertEquals(JobConsumer.JobResult.FAILED, jobResult);
     }
+
+    @Test
+    public void testJobInvalidatedWhenProcessed() throws Exception {
+        final JobHandlingJobCache jobCache = new JobHandlingJobCache();
+        final Job job = mock(Job.class);
+        when(job.getId()).thenReturn("id-123");
+        jobCache.put(job);
+        DistributionQueueProcessor queueProcessor = mock(DistributionQueueProcessor.class);
+        when(queueProcessor.process(any(), any(DistributionQueueEntry.class))).thenAnswer(invocation -> {
+            // a copy read while the job is processed is not cached
+            jobCache.put(job);
+            return false;
+        });
+
+        DistributionAgentJobConsumer distributionAgentJobConsumer =
+                new DistributionAgentJobConsumer(queueProcessor, jobCache);
+        distributionAgentJobConsumer.process(job);
+        assertNull(jobCache.get("id-123"));
+        jobCache.put(job);
+        assertNull(jobCache.get("id-123"));
+    }
 }
@@ -18,17 +18,40 @@
  */
 package org.apache.sling.distribution.queue.impl.jobhandling;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.distribution.queue.DistributionQueueType;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProcessor;
+import org.apache.sling.distribution.queue.impl.DistributionQueueRetryBackoff;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
+import org.apache.sling.event.impl.jobs.config.ConfigurationConstants;
+import org.apache.sling.event.jobs.Job;
 import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.NotificationConstants;
 import org.apache.sling.event.jobs.QueueConfiguration;
+import org.apache.sling.event.jobs.consumer.JobExecutionContext;
+import org.apache.sling.event.jobs.consumer.JobExecutor;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.cm.Configuration;
 import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -73,4 +96,108 @@ public class JobHandlingDistributionQueueProviderTest {
                 new JobHandlingDistributionQueueProvider("dummy-agent", jobManager, context);
         jobHandlingdistributionQueueProvider.disableQueueProcessing();
     }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testStatusInvalidatedWhenJobDone() throws Exception {
+        final List<Job> jobs = new ArrayList<Job>();
+        jobs.add(mock(Job.class));
+        JobManager jobManager = mock(JobManager.class, invocation -> {
+            if ("findJobs".equals(invocation.getMethod().getName())) {
+                return new ArrayList<Job>(jobs);
+            }
+            return Mockito.RETURNS_DEFAULTS.answer(invocation);
+        });
+        BundleContext context = mock(BundleContext.class);
+        JobHandlingDistributionQueueProvider jobHandlingdistributionQueueProvider =
+                new JobHandlingDistributionQueueProvider("dummy-agent", jobManager, context, null, 60000);
+        jobHandlingdistributionQueueProvider.enableQueueProcessing(mock(DistributionQueueProcessor.class));
+        ArgumentCaptor<EventHandler> handler = ArgumentCaptor.forClass(EventHandler.class);
+        verify(context).registerService(eq(EventHandler.class), handler.capture(), any(Dictionary.class));
+
+        DistributionQueue queue = jobHandlingdistributionQueueProvider.getQueue("default");
+        assertEquals(1, queue.getStatus().getItemsCount());
+
+        // processed, the job manager removes the job without going through the queue
+        jobs.clear();
+        assertEquals(1, queue.getStatus().getItemsCount());
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(
+                NotificationConstants.NOTIFICATION_PROPERTY_JOB_TOPIC,
+                JobHandlingDistributionQueue.DISTRIBUTION_QUEUE_TOPIC + "/dummy-agent/default");
+        handler.getValue().handleEvent(new Event(NotificationConstants.TOPIC_JOB_FINISHED, properties));
+        assertEquals(0, queue.getStatus().getItemsCount());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testParallelQueueProcessing() throws Exception {
+        JobManager jobManager = mock(JobManager.class);
+        ConfigurationAdmin configAdmin = mock(ConfigurationAdmin.class);
+        Configuration config = mock(Configuration.class);
+        when(configAdmin.createFactoryConfiguration(QueueConfiguration.class.getName(), null))
+                .thenReturn(config);
+        BundleContext context = mock(BundleContext.class);
+        JobHandlingDistributionQueueProvider jobHandlingdistributionQueueProvider =
+                new JobHandlingDistributionQueueProvider("dummy-agent", jobManager, context, configAdmin, 0, 4);
+        assertNotNull(jobHandlingdistributionQueueProvider.getQueue("delivery", DistributionQueueType.PARALLEL));
+
+        ArgumentCaptor<Dictionary<String, Object>> queueProps = ArgumentCaptor.forClass(Dictionary.class);
+        verify(config).update(queueProps.capture());
+        assertEquals(
+                QueueConfiguration.Type.UNORDERED.name(), queueProps.getValue().get(ConfigurationConstants.PROP_TYPE));
+        assertEquals(4, queueProps.getValue().get(ConfigurationConstants.PROP_MAX_PARALLEL));
+        assertEquals(1, jobHandlingdistributionQueueProvider.getMaxParallel("default", DistributionQueueType.ORDERED));
+        assertEquals(
+                4, jobHandlingdistributionQueueProvider.getMaxParallel("delivery", DistributionQueueType.PARALLEL));
+
+        jobHandlingdistributionQueueProvider.enableQueueProcessing(
+                mock(DistributionQueueProcessor.class), "default", "delivery");
+        ArgumentCaptor<Dictionary<String, Object>> jobProps = ArgumentCaptor.forClass(Dictionary.class);
+        verify(context).registerService(eq(JobExecutor.class), any(JobExecutor.class), jobProps.capture());
+        List<String> topics = Arrays.asList((String[]) jobProps.getValue().get(JobExecutor.PROPERTY_TOPICS));
+        String topic = JobHandlingDistributionQueue.DISTRIBUTION_QUEUE_TOPIC;
+        assertTrue(topics.contains(topic + "/dummy-agent/default"));
+        assertTrue(topics.contains(topic + "/ordered/dummy-agent/default"));
+        assertTrue(topics.contains(topic + "/parallel/dummy-agent/delivery"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRetryBackoffConfiguration() throws Exception {
+        JobManager jobManager = mock(JobManager.class);
+        ConfigurationAdmin configAdmin = mock(ConfigurationAdmin.class);
+        Configuration config = mock(Configuration.class);
+        when(configAdmin.createFactoryConfiguration(QueueConfiguration.class.getName(), null))
+                .thenReturn(config);
+        BundleContext context = mock(BundleContext.class);
+        JobHandlingDistributionQueueProvider jobHandlingdistributionQueueProvider =
+                new JobHandlingDistributionQueueProvider(
+                        "dummy-agent",
+                        jobManager,
+                        context,
+                        configAdmin,
+                        0,
+                        4,
+                        new DistributionQueueRetryBackoff(500, 8000));
+        assertNotNull(jobHandlingdistributionQueueProvider.getQueue("default", DistributionQueueType.ORDERED));
+
+        ArgumentCaptor<Dictionary<String, Object>> queueProps = ArgumentCaptor.forClass(Dictionary.class);
+        verify(config).update(queueProps.capture());
+        assertEquals(-1, queueProps.getValue().get(ConfigurationConstants.PROP_RETRIES));
+        assertEquals(500L, queueProps.getValue().get(ConfigurationConstants.PROP_RETRY_DELAY));
+
+        jobHandlingdistributionQueueProvider.enableQueueProcessing(mock(DistributionQueueProcessor.class), "default");
+        ArgumentCaptor<JobExecutor> executor = ArgumentCaptor.forClass(JobExecutor.class);
+        verify(context).registerService(eq(JobExecutor.class), executor.capture(), any(Dictionary.class));
+
+        // the job consumer grows the delay of the failed jobs with their retry count, up to the maximum delay
+        Job job = mock(Job.class);
+        when(job.getRetryCount()).thenReturn(10);
+        JobExecutionContext jobContext = mock(JobExecutionContext.class, Mockito.RETURNS_DEEP_STUBS);
+        executor.getValue().process(job, jobContext);
+        ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+        verify(jobContext.result()).failed(delay.capture());
+        assertTrue(delay.getValue() >= 4000 && delay.getValue() <= 8000);
+    }
 }
@@ -18,11 +18,16 @@
  */
 package org.apache.sling.distribution.queue.impl.jobhandling;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.sling.distribution.DistributionRequestType;
 import org.apache.sling.distribution.packaging.DistributionPackageInfo;
+import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.apache.sling.distribution.queue.DistributionQueueItemState;
 import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
@@ -31,13 +36,21 @@ import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.apache.sling.event.jobs.Job;
 import org.apache.sling.event.jobs.JobBuilder;
 import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.Queue;
+import org.apache.sling.event.jobs.QueueConfiguration;
+import org.apache.sling.event.jobs.Statistics;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -92,4 +105,171 @@ public class JobHandlingDistributionQueueTest {
         assertNotNull(status);
         assertEquals(DistributionQueueItemState.QUEUED, status.getItemState());
     }
+
+    @Test
+    public void testClear() throws Exception {
+        final List<Job> jobs = new ArrayList<Job>();
+        for (int i = 0; i < 5; i++) {
+            Job job = mock(Job.class);
+            when(job.getId()).thenReturn("id-" + i);
+            jobs.add(job);
+        }
+        JobManager jobManager = mock(JobManager.class, invocation -> {
+            String method = invocation.getMethod().getName();
+            if ("findJobs".equals(method)) {
+                long limit = invocation.getArgument(2);
+                return new ArrayList<Job>(
+                        jobs.subList(0, limit < 0 ? jobs.size() : (int) Math.min(limit, jobs.size())));
+            } else if ("removeJobById".equals(method)) {
+                return jobs.removeIf(job -> job.getId().equals(invocation.getArgument(0)));
+            }
+            return Mockito.RETURNS_DEFAULTS.answer(invocation);
+        });
+        DistributionQueue queue = new JobHandlingDistributionQueue(
+                "aname",
+                JobHandlingDistributionQueue.DISTRIBUTION_QUEUE_TOPIC + "/aname",
+                jobManager,
+                true,
+                DistributionQueueType.ORDERED);
+
+        List<String> removed = new ArrayList<String>();
+        assertEquals(2, queue.clear(2, entry -> removed.add(entry.getId())));
+        assertEquals(3, jobs.size());
+        assertEquals(3, queue.clear(-1, entry -> removed.add(entry.getId())));
+        assertEquals(0, jobs.size());
+        assertEquals(5, removed.size());
+        assertEquals("id-0", JobHandlingUtils.unescapeId(removed.get(0)));
+    }
+
+    @Test
+    public void testStatusFromStatistics() throws Exception {
+        String topic = JobHandlingDistributionQueue.DISTRIBUTION_QUEUE_TOPIC + "/aname";
+        Job job = mock(Job.class);
+        when(job.getId()).thenReturn("id-0");
+        JobManager jobManager = mock(JobManager.class);
+        when(jobManager.findJobs(JobManager.QueryType.ALL, topic, 1, (Map<String, Object>[]) null))
+                .thenReturn(Collections.singletonList(job));
+        Queue jobQueue = mock(Queue.class);
+        QueueConfiguration configuration = mock(QueueConfiguration.class);
+        when(configuration.getTopics()).thenReturn(new String[] {topic});
+        Statistics statistics = mock(Statistics.class);
+        when(statistics.getNumberOfQueuedJobs()).thenReturn(41L);
+        when(statistics.getNumberOfActiveJobs()).thenReturn(1L);
+        when(jobQueue.getConfiguration()).thenReturn(configuration);
+        when(jobQueue.getStatistics()).thenReturn(statistics);
+        when(jobManager.getQueue("aname")).thenReturn(jobQueue);
+        DistributionQueue queue =
+                new JobHandlingDistributionQueue("aname", topic, jobManager, true, DistributionQueueType.ORDERED);
+
+        assertEquals(42, queue.getStatus().getItemsCount());
+        // all the jobs are never listed
+        verify(jobManager, never()).findJobs(JobManager.QueryType.ALL, topic, -1, (Map<String, Object>[]) null);
+    }
+
+    @Test
+    public void testStatusWithoutStatistics() throws Exception {
+        String topic = JobHandlingDistributionQueue.DISTRIBUTION_QUEUE_TOPIC + "/aname";
+        Job job = mock(Job.class);
+        when(job.getId()).thenReturn("id-0");
+        JobManager jobManager = mock(JobManager.class);
+        when(jobManager.findJobs(JobManager.QueryType.ALL, topic, 1, (Map<String, Object>[]) null))
+                .thenReturn(Collections.singletonList(job));
+        when(jobManager.findJobs(
+                        JobManager.QueryType.ALL, topic, JobHandlingDistributionQueue.COUNT_LIMIT, (Map<String, Object>
+                                        [])
+                                null))
+                .thenReturn(Arrays.asList(job, mock(Job.class), mock(Job.class)));
+        // passive queue, or jobs processed by the main job queue
+        DistributionQueue queue =
+                new JobHandlingDistributionQueue("aname", topic, jobManager, false, DistributionQueueType.ORDERED);
+
+        assertEquals(3, queue.getStatus().getItemsCount());
+        // the count is bounded
+        verify(jobManager, never()).findJobs(JobManager.QueryType.ALL, topic, -1, (Map<String, Object>[]) null);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testPaging() throws Exception {
+        final List<Job> jobs = new ArrayList<Job>();
+        for (int i = 0; i < 10; i++) {
+            Job job = mock(Job.class);
+            when(job.getId()).thenReturn("id-" + i);
+            Calendar created = Calendar.getInstance();
+            // pairs of jobs created at the same time
+            created.setTimeInMillis(1000 + i / 2);
+            when(job.getCreated()).thenReturn(created);
+            jobs.add(job);
+        }
+        final List<Long> limits = new ArrayList<Long>();
+        JobManager jobManager = mock(JobManager.class, invocation -> {
+            if ("findJobs".equals(invocation.getMethod().getName())) {
+                long limit = invocation.getArgument(2);
+                limits.add(limit);
+                Map<String, Object> template =
+                        invocation.getArguments().length > 3 ? (Map<String, Object>) invocation.getArgument(3) : null;
+                List<Job> result = new ArrayList<Job>();
+                for (Job job : jobs) {
+                    Calendar from = template != null ? (Calendar) template.get(">=" + Job.PROPERTY_JOB_CREATED) : null;
+                    if ((from == null || job.getCreated().compareTo(from) >= 0)
+                            && (limit < 0 || result.size() < limit)) {
+                        result.add(job);
+                    }
+                }
+                return result;
+            }
+            return Mockito.RETURNS_DEFAULTS.answer(invocation);
+        });
+        DistributionQueue queue = new JobHandlingDistributionQueue(
+                "aname",
+                JobHandlingDistributionQueue.DISTRIBUTION_QUEUE_TOPIC + "/aname",
+                jobManager,
+                true,
+                DistributionQueueType.ORDERED);
+
+        List<String> ids = new ArrayList<String>();
+        for (int skip = 0; skip < 10; skip += 3) {
+            for (DistributionQueueEntry entry : queue.getEntries(skip, 3)) {
+                ids.add(JobHandlingUtils.unescapeId(entry.getId()));
+            }
+        }
+        assertEquals(10, ids.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("id-" + i, ids.get(i));
+        }
+        // the pages after the first one are looked up from the end of the previous one
+        for (long limit : limits.subList(1, limits.size())) {
+            assertTrue(limit <= 5);
+        }
+    }
+
+    @Test
+    public void testRemoveAfterHead() throws Exception {
+        String topic = JobHandlingDistributionQueue.DISTRIBUTION_QUEUE_TOPIC + "/aname";
+        Job job = mock(Job.class);
+        when(job.getId()).thenReturn("id-0");
+        JobManager jobManager = mock(JobManager.class);
+        when(jobManager.findJobs(JobManager.QueryType.ALL, topic, 1, (Map<String, Object>[]) null))
+                .thenReturn(Collections.singletonList(job));
+        when(jobManager.removeJobById("id-0")).thenReturn(true);
+        JobHandlingJobCache jobCache = new JobHandlingJobCache();
+        DistributionQueue queue = new JobHandlingDistributionQueue(
+                "aname",
+                topic,
+                jobManager,
+                true,
+                DistributionQueueType.ORDERED,
+                new JobHandlingPageCursors(),
+                jobCache);
+
+        DistributionQueueEntry head = queue.getHead();
+        assertNotNull(head);
+        assertNotNull(queue.getEntry(head.getId()));
+        assertNotNull(queue.remove(head.getId()));
+        verify(jobManager, never()).getJobById(anyString());
+        verify(jobManager).removeJobById("id-0");
+
+        // the removed job is not cached anymore
+        assertNull(jobCache.get("id-0"));
+    }
 }
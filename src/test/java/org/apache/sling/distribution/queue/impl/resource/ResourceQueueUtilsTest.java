@@ -18,10 +18,17 @@
  */
 package org.apache.sling.distribution.queue.impl.resource;
 
+import java.util.ArrayList;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.apache.sling.testing.resourceresolver.MockResourceResolverFactory;
@@ -33,6 +40,8 @@ import static java.util.UUID.randomUUID;
 import static org.apache.sling.distribution.queue.impl.resource.ResourceQueueProvider.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class ResourceQueueUtilsTest {
@@ -79,6 +88,148 @@ public class ResourceQueueUtilsTest {
         assertEquals(3, ResourceQueueUtils.getResourceCount(root));
     }
 
+    @Test
+    public void testMaintainedItemCount() throws Exception {
+        String agentPath = QUEUES_ROOT + QUEUE_NAME;
+        DistributionQueue queue = new ResourceQueue(rrf, "test", QUEUE_NAME, agentPath);
+
+        DistributionQueueEntry first =
+                queue.add(new DistributionQueueItem(randomUUID().toString(), emptyMap()));
+        queue.add(new DistributionQueueItem(randomUUID().toString(), emptyMap()));
+        queue.add(new DistributionQueueItem(randomUUID().toString(), emptyMap()));
+        queue.remove(first.getId());
+        assertEquals(2, queue.getStatus().getItemsCount());
+
+        ResourceResolver rr = rrf.getResourceResolver(null);
+        Resource root = ResourceQueueUtils.getRootResource(rr, agentPath + "/" + QUEUE_NAME);
+        assertEquals(2, ResourceQueueUtils.getItemCount(root));
+        assertFalse(root.getValueMap().containsKey("items.count"));
+        assertFalse(ResourceQueueUtils.reconcileItemCount(root));
+
+        Resource folder = root.getChild(ResourceQueueUtils.getFolderPath(first.getId()));
+        folder.adaptTo(ModifiableValueMap.class).put("items.count", 5L);
+        rr.commit();
+        assertEquals(5, ResourceQueueUtils.getItemCount(root));
+        assertTrue(ResourceQueueUtils.reconcileItemCount(root));
+        assertEquals(2, ResourceQueueUtils.getItemCount(root));
+    }
+
+    @Test
+    public void testShardedQueueOrder() throws Exception {
+        String agentPath = QUEUES_ROOT + QUEUE_NAME;
+        ResourceQueue queue = new ActiveResourceQueue(
+                rrf, new ResourceResolverPool(rrf, "test", 1), "test", "sharded-queue", agentPath, 4);
+
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            List<DistributionQueueItem> batch = new ArrayList<DistributionQueueItem>();
+            for (int j = 0; j < 3; j++) {
+                batch.add(new DistributionQueueItem(randomUUID().toString(), emptyMap()));
+            }
+            for (DistributionQueueEntry entry : queue.addAll(batch)) {
+                ids.add(entry.getId());
+            }
+            ids.add(queue.add(new DistributionQueueItem(randomUUID().toString(), emptyMap()))
+                    .getId());
+        }
+        assertEquals(20, queue.getStatus().getItemsCount());
+        assertTrue(ids.get(0).contains(ResourceQueueUtils.SHARD_PREFIX));
+        // the items are counted on the shard folders only
+        Resource root = ResourceQueueUtils.getRootResource(rrf.getResourceResolver(null), agentPath + "/sharded-queue");
+        Resource shard = ResourceQueueUtils.getResourceById(root, ids.get(0)).getParent();
+        assertNotNull(shard.getValueMap().get("items.count", Long.class));
+        assertNull(shard.getParent().getValueMap().get("items.count", Long.class));
+
+        List<String> listed = new ArrayList<String>();
+        for (DistributionQueueEntry entry : queue.getEntries(0, -1)) {
+            listed.add(entry.getId());
+        }
+        assertEquals(ids, listed);
+
+        for (String id : ids) {
+            assertEquals(id, queue.getHead().getId());
+            queue.remove(id);
+        }
+        assertNull(queue.getHead());
+        assertTrue(queue.getStatus().isEmpty());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        String agentPath = QUEUES_ROOT + QUEUE_NAME;
+        ResourceQueue queue = new ActiveResourceQueue(rrf, "test", "clear-queue", agentPath);
+        ResourceResolver rr = rrf.getResourceResolver(null);
+        Resource root = ResourceQueueUtils.getRootResource(rr, agentPath + "/clear-queue");
+
+        // entries left in a past minute, which is deleted as a whole
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            Map<String, Object> properties = new HashMap<String, Object>();
+            properties.put("sling:resourceType", "nt:unstructured");
+            properties.put("distribution.item.id", "past-" + i);
+            String path = root.getPath() + "/2000/01/01/00/00/past-" + i;
+            ResourceUtil.getOrCreateResource(rr, path, properties, ResourceQueueUtils.RESOURCE_FOLDER, true);
+            ids.add("distrq-2000--01--01--00--00--past-" + i);
+        }
+        assertTrue(ResourceQueueUtils.reconcileItemCount(root));
+        for (int i = 0; i < 4; i++) {
+            ids.add(queue.add(new DistributionQueueItem(randomUUID().toString(), emptyMap()))
+                    .getId());
+        }
+        assertEquals(ids.get(0), queue.getHead().getId());
+
+        List<String> removed = new ArrayList<String>();
+        assertEquals(2, queue.clear(2, entry -> removed.add(entry.getId())));
+        assertEquals(5, queue.getStatus().getItemsCount());
+        assertEquals(ids.get(2), queue.getHead().getId());
+
+        assertEquals(5, queue.clear(-1, entry -> removed.add(entry.getId())));
+        assertEquals(ids, removed);
+        assertTrue(queue.getStatus().isEmpty());
+        assertNull(queue.getHead());
+
+        rr.refresh();
+        assertNull(rr.getResource(root.getPath() + "/2000/01/01/00/00"));
+    }
+
+    @Test
+    public void testGetHeadFromFolder() throws Exception {
+        String agentPath = QUEUES_ROOT + QUEUE_NAME;
+        DistributionQueue queue = new ResourceQueue(rrf, "test", QUEUE_NAME, agentPath);
+        DistributionQueueEntry first =
+                queue.add(new DistributionQueueItem(randomUUID().toString(), emptyMap()));
+        queue.add(new DistributionQueueItem(randomUUID().toString(), emptyMap()));
+
+        ResourceResolver rr = rrf.getResourceResolver(null);
+        Resource root = ResourceQueueUtils.getRootResource(rr, agentPath + "/" + QUEUE_NAME);
+        String folderPath = ResourceQueueUtils.getFolderPath(first.getId());
+        assertEquals(first.getId(), ResourceQueueUtils.getHead(root, null).getId());
+        assertEquals(first.getId(), ResourceQueueUtils.getHead(root, "2000").getId());
+        assertEquals(first.getId(), ResourceQueueUtils.getHead(root, folderPath).getId());
+        assertNull(ResourceQueueUtils.getHead(root, "9999"));
+    }
+
+    @Test
+    public void testActiveQueueHead() throws Exception {
+        String agentPath = QUEUES_ROOT + QUEUE_NAME;
+        DistributionQueue queue = new ActiveResourceQueue(rrf, "test", QUEUE_NAME, agentPath);
+        assertNull(queue.getHead());
+
+        DistributionQueueEntry first =
+                queue.add(new DistributionQueueItem(randomUUID().toString(), emptyMap()));
+        DistributionQueueEntry second =
+                queue.add(new DistributionQueueItem(randomUUID().toString(), emptyMap()));
+        assertEquals(first.getId(), queue.getHead().getId());
+        assertEquals(first.getId(), queue.getHead().getId());
+
+        queue.remove(first.getId());
+        assertEquals(second.getId(), queue.getHead().getId());
+
+        queue.remove(second.getId());
+        assertNull(queue.getHead());
+        assertTrue(queue.getStatus().isEmpty());
+    }
+
     @Test
     public void testIsSafeToDelete() throws Exception {
 
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl.resource;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.distribution.queue.DistributionQueueItem;
+import org.apache.sling.distribution.queue.spi.DistributionQueue;
+import org.apache.sling.testing.resourceresolver.MockResourceResolverFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.Collections.emptyMap;
+import static java.util.UUID.randomUUID;
+import static org.apache.sling.distribution.queue.impl.resource.ResourceQueueProvider.QUEUES_ROOT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ResourceResolverPoolTest {
+
+    private MockResourceResolverFactory rrf;
+
+    @Before
+    public void setUp() throws Exception {
+        rrf = new MockResourceResolverFactory();
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        ResourceResolverPool pool = new ResourceResolverPool(rrf, "test", 2);
+        ResourceResolver first = pool.acquire();
+        pool.release(first);
+        ResourceResolver second = pool.acquire();
+        assertSame(first, second);
+        pool.release(second);
+        assertEquals(1, pool.getLoginCount());
+    }
+
+    @Test
+    public void testConcurrentCallers() throws Exception {
+        ResourceResolverPool pool = new ResourceResolverPool(rrf, "test", 1);
+        ResourceResolver first = pool.acquire();
+        ResourceResolver second = pool.acquire();
+        assertNotSame(first, second);
+        assertEquals(2, pool.getLoginCount());
+
+        pool.release(first);
+        // the pool is full, the second resolver is closed
+        pool.release(second);
+        assertSame(first, pool.acquire());
+        pool.acquire();
+        assertEquals(3, pool.getLoginCount());
+    }
+
+    @Test
+    public void testQueueOperations() throws Exception {
+        ResourceResolverPool pool = new ResourceResolverPool(rrf, "test", ResourceResolverPool.DEFAULT_SIZE);
+        DistributionQueue queue =
+                new ActiveResourceQueue(rrf, pool, "test", "pool-queue", QUEUES_ROOT + "pool-agent", 1);
+        for (int i = 0; i < 10; i++) {
+            queue.add(new DistributionQueueItem(randomUUID().toString(), emptyMap()));
+            queue.remove(queue.getHead().getId());
+        }
+        assertEquals(0, queue.getStatus().getItemsCount());
+        assertEquals(1, pool.getLoginCount());
+    }
+}
@@ -18,14 +18,22 @@
  */
 package org.apache.sling.distribution.queue.impl.simple;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.sling.distribution.DistributionRequestType;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.junit.Test;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class QueueItemMapperTest {
 
@@ -51,4 +59,69 @@ public class QueueItemMapperTest {
             }
         }
     }
+
+    @Test
+    public void testReadWriteBinaryQueueItems() throws Exception {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("string-1", "some string");
+        properties.put("null", null);
+        properties.put("long", 200L);
+        properties.put("int", 12);
+        properties.put("double", 300.3d);
+        properties.put("boolean", true);
+        properties.put("type", DistributionRequestType.DELETE);
+        properties.put("array", new String[] {"one", "two", "\u00e9"});
+        DistributionQueueItem first = new DistributionQueueItem("packageId-1", 42, properties);
+        DistributionQueueItem second = new DistributionQueueItem("packageId-2", properties);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        QueueItemMapper.BinaryWriter writer = new QueueItemMapper.BinaryWriter(out);
+        writer.write(first);
+        writer.write(second);
+        byte[] bytes = out.toByteArray();
+
+        QueueItemMapper.BinaryReader reader = new QueueItemMapper.BinaryReader(ByteBuffer.wrap(bytes));
+        for (DistributionQueueItem expected : Arrays.asList(first, second)) {
+            DistributionQueueItem actual = reader.read();
+            assertEquals(expected.getPackageId(), actual.getPackageId());
+            assertEquals(expected.getSize(), actual.getSize());
+            assertEquals(expected.size(), actual.size());
+            assertEquals(DistributionRequestType.DELETE, actual.get("type"));
+            assertEquals(12, actual.get("int"));
+            assertEquals(true, actual.get("boolean"));
+            assertEquals(200L, actual.get("long"));
+            assertNull(actual.get("null"));
+            assertArrayEquals((String[]) expected.get("array"), (String[]) actual.get("array"));
+        }
+        assertNull(reader.read());
+
+        // a record torn while writing is ignored
+        reader = new QueueItemMapper.BinaryReader(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 3)));
+        assertEquals("packageId-1", reader.read().getPackageId());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testReadCheckpoint() throws Exception {
+        QueueItemMapper mapper = new QueueItemMapper();
+        File binary = File.createTempFile("binary", "-checkpoint");
+        File json = File.createTempFile("json", "-checkpoint");
+        try {
+            DistributionQueueItem item = new DistributionQueueItem("packageId", new HashMap<String, Object>());
+            try (FileOutputStream out = new FileOutputStream(binary)) {
+                new QueueItemMapper.BinaryWriter(out).write(item);
+            }
+            try (FileOutputStream out = new FileOutputStream(json)) {
+                out.write((mapper.writeQueueItem(item) + "\n").getBytes());
+            }
+            for (File file : Arrays.asList(binary, json)) {
+                List<DistributionQueueItem> items = mapper.readCheckpoint(file);
+                assertEquals(1, items.size());
+                assertEquals("packageId", items.get(0).getPackageId());
+            }
+        } finally {
+            binary.delete();
+            json.delete();
+        }
+    }
 }
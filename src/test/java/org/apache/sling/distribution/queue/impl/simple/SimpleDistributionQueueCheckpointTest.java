@@ -21,6 +21,7 @@ package org.apache.sling.distribution.queue.impl.simple;
 import java.io.File;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
@@ -31,6 +32,8 @@ import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -73,4 +76,95 @@ public class SimpleDistributionQueueCheckpointTest {
         File checkpointFile = new File(checkpointDirectory, "sample-queue-checkpoint");
         assertTrue(checkpointFile.exists());
     }
+
+    @Test
+    public void testIncrementalCheckpoints() throws Exception {
+        File checkpointDirectory = new File(FileUtils.getTempDirectory(), "checkpoints-" + System.nanoTime());
+        assertTrue(checkpointDirectory.mkdirs());
+        try {
+            SimpleDistributionQueue queue = new SimpleDistributionQueue("agent", "incremental-queue");
+            for (int i = 0; i < 10; i++) {
+                queue.add(new DistributionQueueItem("pid-" + i, new HashMap<String, Object>()));
+            }
+            SimpleDistributionQueueCheckpoint checkpoint =
+                    new SimpleDistributionQueueCheckpoint(queue, checkpointDirectory, 2);
+            File checkpointFile = new File(checkpointDirectory, "incremental-queue-checkpoint");
+            File deltaFile = new File(checkpointDirectory, "incremental-queue-checkpoint-delta");
+
+            checkpoint.run();
+            assertTrue(checkpointFile.exists());
+            assertFalse(deltaFile.exists());
+
+            // clean queues are skipped
+            assertTrue(checkpointFile.delete());
+            checkpoint.run();
+            assertFalse(checkpointFile.exists());
+            checkpoint.run();
+
+            // a full checkpoint is forced on a fresh checkpoint
+            checkpoint = new SimpleDistributionQueueCheckpoint(queue, checkpointDirectory, 2);
+            checkpoint.run();
+            long checkpointLength = checkpointFile.length();
+
+            queue.remove("pid-0");
+            queue.add(new DistributionQueueItem("pid-10", new HashMap<String, Object>()));
+            checkpoint.run();
+            assertEquals(checkpointLength, checkpointFile.length());
+            assertTrue(deltaFile.exists());
+            assertRecovered(queue, checkpointFile, deltaFile);
+
+            queue.clear(3);
+            checkpoint.run();
+            assertRecovered(queue, checkpointFile, deltaFile);
+
+            // the deltas are folded into the checkpoint
+            queue.remove("pid-4");
+            checkpoint.run();
+            assertFalse(deltaFile.exists());
+            assertRecovered(queue, checkpointFile, deltaFile);
+        } finally {
+            FileUtils.deleteDirectory(checkpointDirectory);
+        }
+    }
+
+    @Test
+    public void testStaleDeltaIgnored() throws Exception {
+        File checkpointDirectory = new File(FileUtils.getTempDirectory(), "checkpoints-" + System.nanoTime());
+        assertTrue(checkpointDirectory.mkdirs());
+        try {
+            SimpleDistributionQueue queue = new SimpleDistributionQueue("agent", "stale-queue");
+            for (int i = 0; i < 3; i++) {
+                queue.add(new DistributionQueueItem("pid-" + i, new HashMap<String, Object>()));
+            }
+            SimpleDistributionQueueCheckpoint checkpoint =
+                    new SimpleDistributionQueueCheckpoint(queue, checkpointDirectory, 1);
+            File checkpointFile = new File(checkpointDirectory, "stale-queue-checkpoint");
+            File deltaFile = new File(checkpointDirectory, "stale-queue-checkpoint-delta");
+            checkpoint.run();
+            queue.add(new DistributionQueueItem("pid-3", new HashMap<String, Object>()));
+            checkpoint.run();
+            assertTrue(deltaFile.exists());
+            File staleDelta = new File(checkpointDirectory, "stale-delta");
+            FileUtils.copyFile(deltaFile, staleDelta);
+
+            // a crash after the fold leaves the delta of the previous checkpoint next to the new one
+            queue.remove("pid-3");
+            checkpoint.run();
+            assertFalse(deltaFile.exists());
+            FileUtils.copyFile(staleDelta, deltaFile);
+            assertRecovered(queue, checkpointFile, deltaFile);
+        } finally {
+            FileUtils.deleteDirectory(checkpointDirectory);
+        }
+    }
+
+    private static void assertRecovered(SimpleDistributionQueue queue, File checkpointFile, File deltaFile)
+            throws Exception {
+        List<DistributionQueueItem> expected = queue.getItems();
+        List<DistributionQueueItem> recovered = new QueueItemMapper().readCheckpoint(checkpointFile, deltaFile);
+        assertEquals(expected.size(), recovered.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getPackageId(), recovered.get(i).getPackageId());
+        }
+    }
 }
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl.simple;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.sling.distribution.queue.DistributionQueueEntry;
+import org.apache.sling.distribution.queue.DistributionQueueItem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SimpleDistributionQueueJournal}
+ */
+public class SimpleDistributionQueueJournalTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File(FileUtils.getTempDirectory(), "simple-queue-journal-" + System.nanoTime());
+        assertTrue(directory.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        SimpleDistributionQueueJournal journal = new SimpleDistributionQueueJournal(directory, "queue", 1024 * 1024);
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agent", "queue", journal);
+        for (int i = 0; i < 5; i++) {
+            queue.add(newItem("id-" + i));
+        }
+        queue.remove("id-1");
+        queue.recordProcessingAttempt(queue.getHead());
+        queue.recordProcessingAttempt(queue.getHead());
+        journal.close();
+
+        SimpleDistributionQueue recovered = recover();
+        assertEquals(4, recovered.getStatus().getItemsCount());
+        DistributionQueueEntry head = recovered.getHead();
+        assertEquals("id-0", head.getId());
+        assertEquals(2, head.getStatus().getAttempts());
+        assertArrayEquals(new String[] {"/foo"}, (String[]) head.getItem().get("request.paths"));
+        assertNull(recovered.getEntry("id-1"));
+    }
+
+    @Test
+    public void testReplayKeepsEnteredTime() throws Exception {
+        SimpleDistributionQueueJournal journal = new SimpleDistributionQueueJournal(directory, "queue", 1024 * 1024);
+        Calendar entered = Calendar.getInstance();
+        entered.add(Calendar.HOUR, -1);
+        journal.sync(journal.logAdd(new QueueItemRecord(newItem("id-0"), entered, 0)));
+        journal.close();
+
+        DistributionQueueEntry head = recover().getHead();
+        assertEquals(entered.getTimeInMillis(), head.getStatus().getEntered().getTimeInMillis());
+        assertFalse(head.getItem().containsKey(QueueItemRecord.PROPERTY_ENTERED));
+    }
+
+    @Test
+    public void testReplayIgnoresTornRecord() throws Exception {
+        SimpleDistributionQueueJournal journal = new SimpleDistributionQueueJournal(directory, "queue", 1024 * 1024);
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agent", "queue", journal);
+        queue.add(newItem("id-0"));
+        journal.close();
+        File[] segments = directory.listFiles();
+        assertEquals(1, segments.length);
+        try (FileOutputStream out = new FileOutputStream(segments[0], true)) {
+            out.write("A 0 id-1 {\"request.pa".getBytes(StandardCharsets.UTF_8));
+        }
+
+        SimpleDistributionQueue recovered = recover();
+        assertEquals(1, recovered.getStatus().getItemsCount());
+        assertEquals("id-0", recovered.getHead().getId());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        SimpleDistributionQueueJournal journal = new SimpleDistributionQueueJournal(directory, "queue", 512);
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agent", "queue", journal);
+        for (int i = 0; i < 100; i++) {
+            queue.add(newItem("id-" + i));
+        }
+        queue.clear(90);
+        assertTrue(journal.needsCompaction());
+        assertTrue(directory.listFiles().length > 1);
+
+        queue.compactJournal();
+        assertFalse(journal.needsCompaction());
+        queue.add(newItem("id-100"));
+        journal.close();
+        // the snapshot and the segment started with it
+        assertEquals(2, directory.listFiles().length);
+
+        SimpleDistributionQueue recovered = recover();
+        assertEquals(11, recovered.getStatus().getItemsCount());
+        assertEquals("id-90", recovered.getHead().getId());
+    }
+
+    @Test
+    public void testFailedSyncKeepsRecords() throws Exception {
+        SimpleDistributionQueueJournal journal = new SimpleDistributionQueueJournal(directory, "queue", 1024 * 1024);
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agent", "queue", journal);
+        FileUtils.deleteDirectory(directory);
+        assertNull(queue.add(newItem("id-0")));
+        assertEquals(0, queue.getStatus().getItemsCount());
+
+        assertTrue(directory.mkdirs());
+        assertNotNull(queue.add(newItem("id-1")));
+        journal.close();
+
+        SimpleDistributionQueue recovered = recover();
+        assertEquals(1, recovered.getStatus().getItemsCount());
+        assertEquals("id-1", recovered.getHead().getId());
+    }
+
+    private SimpleDistributionQueue recover() throws Exception {
+        SimpleDistributionQueueJournal journal = new SimpleDistributionQueueJournal(directory, "queue", 1024 * 1024);
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agent", "queue", journal);
+        queue.restore(journal.replay());
+        return queue;
+    }
+
+    private static DistributionQueueItem newItem(String id) {
+        Map<String, Object> base = new HashMap<String, Object>();
+        base.put("request.paths", new String[] {"/foo"});
+        base.put("request.type", "ADD");
+        return new DistributionQueueItem(id, base);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.distribution.queue.impl.simple;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.sling.distribution.queue.DistributionQueueEntry;
+import org.apache.sling.distribution.queue.DistributionQueueItem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SimpleDistributionQueueLog}
+ */
+public class SimpleDistributionQueueLogTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File(FileUtils.getTempDirectory(), "simple-queue-log-" + System.nanoTime());
+        assertTrue(directory.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        SimpleDistributionQueueLog log = new SimpleDistributionQueueLog(directory, "queue", 1024 * 1024);
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agent", "queue", log);
+        for (int i = 0; i < 5; i++) {
+            queue.add(newItem("id-" + i));
+        }
+        queue.remove("id-1");
+        log.close();
+
+        SimpleDistributionQueue recovered = recover();
+        assertEquals(4, recovered.getStatus().getItemsCount());
+        DistributionQueueEntry head = recovered.getHead();
+        assertEquals("id-0", head.getId());
+        assertArrayEquals(new String[] {"/foo"}, (String[]) head.getItem().get("request.paths"));
+        assertNull(recovered.getEntry("id-1"));
+    }
+
+    @Test
+    public void testReplayKeepsEnteredTime() throws Exception {
+        SimpleDistributionQueueLog log = new SimpleDistributionQueueLog(directory, "queue", 1024 * 1024);
+        Calendar entered = Calendar.getInstance();
+        entered.add(Calendar.HOUR, -1);
+        log.sync(log.logAdd(new QueueItemRecord(newItem("id-0"), entered, 0)));
+        log.close();
+
+        DistributionQueueEntry head = recover().getHead();
+        assertEquals(entered.getTimeInMillis(), head.getStatus().getEntered().getTimeInMillis());
+        assertFalse(head.getItem().containsKey(QueueItemRecord.PROPERTY_ENTERED));
+    }
+
+    @Test
+    public void testReplayIgnoresTornRecord() throws Exception {
+        SimpleDistributionQueueLog log = new SimpleDistributionQueueLog(directory, "queue", 1024 * 1024);
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agent", "queue", log);
+        queue.add(newItem("id-0"));
+        log.close();
+        File[] segments = directory.listFiles();
+        assertEquals(1, segments.length);
+        try (FileOutputStream out = new FileOutputStream(segments[0], true)) {
+            // the length of a record whose content was not written
+            out.write(new byte[] {0, 0, 0, 42, 0, 0});
+        }
+
+        SimpleDistributionQueue recovered = recover();
+        assertEquals(1, recovered.getStatus().getItemsCount());
+        assertEquals("id-0", recovered.getHead().getId());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        SimpleDistributionQueueLog log = new SimpleDistributionQueueLog(directory, "queue", 512);
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agent", "queue", log);
+        for (int i = 0; i < 100; i++) {
+            queue.add(newItem("id-" + i));
+        }
+        int segments = directory.listFiles().length;
+        assertTrue(segments > 2);
+        queue.clear(90);
+        assertTrue(log.needsCompaction());
+
+        queue.compactJournal();
+        assertFalse(log.needsCompaction());
+        // only the segments holding the remaining items and the cursor are left
+        int compacted = directory.listFiles().length;
+        assertTrue(compacted < segments);
+        assertTrue(new File(directory, "queue.cursor").exists());
+        queue.add(newItem("id-100"));
+        log.close();
+
+        SimpleDistributionQueue recovered = recover();
+        assertEquals(11, recovered.getStatus().getItemsCount());
+        assertEquals("id-90", recovered.getHead().getId());
+    }
+
+    @Test
+    public void testRestarts() throws Exception {
+        SimpleDistributionQueueLog log = new SimpleDistributionQueueLog(directory, "queue", 512);
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agent", "queue", log);
+        for (int i = 0; i < 20; i++) {
+            queue.add(newItem("id-" + i));
+        }
+        log.close();
+
+        for (int run = 1; run < 4; run++) {
+            log = new SimpleDistributionQueueLog(directory, "queue", 512);
+            queue = new SimpleDistributionQueue("agent", "queue", log);
+            queue.restore(log.replay());
+            queue.remove(queue.getHead().getId());
+            queue.add(newItem("id-run-" + run));
+            queue.compactJournal();
+            log.close();
+        }
+
+        SimpleDistributionQueue recovered = recover();
+        assertEquals(20, recovered.getStatus().getItemsCount());
+        assertEquals("id-3", recovered.getHead().getId());
+        DistributionQueueEntry last = null;
+        for (DistributionQueueEntry entry : recovered.getEntries(0, -1)) {
+            last = entry;
+        }
+        assertEquals("id-run-3", last.getId());
+    }
+
+    @Test
+    public void testFailedSyncKeepsRecords() throws Exception {
+        SimpleDistributionQueueLog log = new SimpleDistributionQueueLog(directory, "queue", 1024 * 1024);
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agent", "queue", log);
+        FileUtils.deleteDirectory(directory);
+        assertNull(queue.add(newItem("id-0")));
+        assertEquals(0, queue.getStatus().getItemsCount());
+
+        assertTrue(directory.mkdirs());
+        assertNotNull(queue.add(newItem("id-1")));
+        assertNotNull(queue.add(newItem("id-2")));
+        log.close();
+
+        // the keys of the records written after the failure are defined in the new segment
+        SimpleDistributionQueue recovered = recover();
+        assertEquals(2, recovered.getStatus().getItemsCount());
+        DistributionQueueEntry head = recovered.getHead();
+        assertEquals("id-1", head.getId());
+        assertArrayEquals(new String[] {"/foo"}, (String[]) head.getItem().get("request.paths"));
+    }
+
+    private SimpleDistributionQueue recover() throws Exception {
+        SimpleDistributionQueueLog log = new SimpleDistributionQueueLog(directory, "queue", 1024 * 1024);
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agent", "queue", log);
+        queue.restore(log.replay());
+        return queue;
+    }
+
+    private static DistributionQueueItem newItem(String id) {
+        Map<String, Object> base = new HashMap<String, Object>();
+        base.put("request.paths", new String[] {"/foo"});
+        base.put("request.type", "ADD");
+        return new DistributionQueueItem(id, base);
+    }
+}
@@ -18,19 +18,43 @@
  */
 package org.apache.sling.distribution.queue.impl.simple;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.sling.commons.scheduler.ScheduleOptions;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.apache.sling.distribution.packaging.DistributionPackageInfo;
 import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
 import org.apache.sling.distribution.queue.DistributionQueueItemState;
 import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
+import org.apache.sling.distribution.queue.DistributionQueueType;
+import org.apache.sling.distribution.queue.impl.DistributionQueueLanes;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProcessor;
+import org.apache.sling.distribution.queue.impl.DistributionQueueRetryBackoff;
+import org.apache.sling.distribution.queue.impl.DistributionQueueSettings;
+import org.apache.sling.distribution.queue.impl.DistributionQueueUtils;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -80,4 +104,262 @@ public class SimpleDistributionQueueProcessorTest {
                 new SimpleDistributionQueueProcessor(queue, queueProcessor, queue::recordProcessingAttempt);
         simpleDistributionQueueProcessor.run();
     }
+
+    @Test
+    public void testBatchAcknowledgedWhenProcessingThrows() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "queueName");
+        for (int i = 0; i < 5; i++) {
+            queue.add(new DistributionQueueItem("id-" + i, new HashMap<String, Object>()));
+        }
+        final RuntimeException error = new RuntimeException("delivery failed");
+        final List<String> processed = new ArrayList<String>();
+        DistributionQueueProcessor queueProcessor = (queueName, entry) -> {
+            if ("id-2".equals(entry.getId())) {
+                throw error;
+            }
+            processed.add(entry.getId());
+            return true;
+        };
+        SimpleDistributionQueueProcessor simpleDistributionQueueProcessor = new SimpleDistributionQueueProcessor(
+                queue,
+                queueProcessor,
+                queue::recordProcessingAttempt,
+                10,
+                settings(1, new DistributionQueueRetryBackoff(60000, 60000), false));
+        try {
+            simpleDistributionQueueProcessor.run();
+        } finally {
+            simpleDistributionQueueProcessor.close();
+        }
+
+        // the entries delivered before the failure are not delivered again
+        assertEquals(Arrays.asList("id-0", "id-1"), processed);
+        DistributionQueueEntry head = queue.getHead();
+        assertEquals("id-2", head.getId());
+        assertEquals(1, head.getStatus().getAttempts());
+        assertEquals(error, head.getStatus().getError());
+        assertEquals(3, queue.getStatus().getItemsCount());
+    }
+
+    @Test
+    public void testRunInBatches() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "queueName");
+        for (int i = 0; i < 25; i++) {
+            queue.add(new DistributionQueueItem("id-" + i, new HashMap<String, Object>()));
+        }
+        final List<String> processed = new ArrayList<String>();
+        DistributionQueueProcessor queueProcessor = (queueName, entry) -> {
+            processed.add(entry.getId());
+            // the first attempt on id-12 fails, the batch is interrupted and the item is reattempted
+            return !"id-12".equals(entry.getId()) || entry.getStatus().getAttempts() > 0;
+        };
+        // reattempt without delay
+        SimpleDistributionQueueProcessor simpleDistributionQueueProcessor = new SimpleDistributionQueueProcessor(
+                queue,
+                queueProcessor,
+                queue::recordProcessingAttempt,
+                10,
+                settings(1, new DistributionQueueRetryBackoff(0, 0), false));
+        simpleDistributionQueueProcessor.run();
+
+        assertNull(queue.getHead());
+        assertEquals(26, processed.size());
+        for (int i = 0; i < 13; i++) {
+            assertEquals("id-" + i, processed.get(i));
+        }
+        for (int i = 12; i < 25; i++) {
+            assertEquals("id-" + i, processed.get(i + 1));
+        }
+    }
+
+    @Test
+    public void testEntriesClaimedBeforeProcessing() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "queueName");
+        for (int i = 0; i < 5; i++) {
+            queue.add(new DistributionQueueItem("id-" + i, new HashMap<String, Object>()));
+        }
+        final List<String> unclaimed = new ArrayList<String>();
+        DistributionQueueProcessor queueProcessor = (queueName, entry) -> {
+            if (!DistributionQueueUtils.isClaimed(queue.getEntry(entry.getId()))) {
+                unclaimed.add(entry.getId());
+            }
+            return true;
+        };
+        SimpleDistributionQueueProcessor simpleDistributionQueueProcessor = new SimpleDistributionQueueProcessor(
+                queue,
+                queueProcessor,
+                queue::recordProcessingAttempt,
+                2,
+                settings(1, DistributionQueueRetryBackoff.DEFAULT, false));
+        simpleDistributionQueueProcessor.setClaimer(queue::claim);
+        simpleDistributionQueueProcessor.run();
+
+        assertNull(queue.getHead());
+        assertTrue(unclaimed.isEmpty());
+    }
+
+    @Test
+    public void testRunParallel() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "queueName");
+        queue.setType(DistributionQueueType.PARALLEL);
+        for (int i = 0; i < 50; i++) {
+            queue.add(new DistributionQueueItem("id-" + i, new HashMap<String, Object>()));
+        }
+        final Map<String, AtomicInteger> processed = new ConcurrentHashMap<String, AtomicInteger>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        DistributionQueueProcessor queueProcessor = (queueName, entry) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            processed.computeIfAbsent(entry.getId(), id -> new AtomicInteger()).incrementAndGet();
+            return true;
+        };
+        SimpleDistributionQueueProcessor simpleDistributionQueueProcessor = new SimpleDistributionQueueProcessor(
+                queue,
+                queueProcessor,
+                queue::recordProcessingAttempt,
+                10,
+                settings(4, DistributionQueueRetryBackoff.DEFAULT, false));
+        simpleDistributionQueueProcessor.run();
+        simpleDistributionQueueProcessor.close();
+
+        assertNull(queue.getHead());
+        assertEquals(50, processed.size());
+        for (AtomicInteger count : processed.values()) {
+            assertEquals(1, count.get());
+        }
+        assertTrue(maxRunning.get() > 1);
+    }
+
+    @Test
+    public void testWakeUpOnAdd() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "queueName");
+        final CountDownLatch latch = new CountDownLatch(3);
+        DistributionQueueProcessor queueProcessor = (queueName, entry) -> {
+            latch.countDown();
+            return true;
+        };
+        SimpleDistributionQueueProcessor simpleDistributionQueueProcessor = new SimpleDistributionQueueProcessor(
+                queue, queueProcessor, queue::recordProcessingAttempt, 10, DistributionQueueSettings.DEFAULT);
+        queue.setAddListener(simpleDistributionQueueProcessor::wakeUp);
+        try {
+            for (int i = 0; i < 3; i++) {
+                queue.add(new DistributionQueueItem("id-" + i, new HashMap<String, Object>()));
+            }
+            // processed without any scheduled run
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            simpleDistributionQueueProcessor.close();
+        }
+    }
+
+    @Test
+    public void testWakeUpScheduledOnSingleInstance() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "queueName");
+        DistributionQueueProcessor queueProcessor = mock(DistributionQueueProcessor.class);
+        Scheduler scheduler = mock(Scheduler.class);
+        ScheduleOptions options = mock(ScheduleOptions.class);
+        when(scheduler.NOW()).thenReturn(options);
+        when(options.name("job-wakeup")).thenReturn(options);
+        when(options.canRunConcurrently(false)).thenReturn(options);
+        when(options.onSingleInstanceOnly(true)).thenReturn(options);
+        when(scheduler.schedule(any(Runnable.class), eq(options))).thenReturn(true);
+        SimpleDistributionQueueProcessor simpleDistributionQueueProcessor = new SimpleDistributionQueueProcessor(
+                queue, queueProcessor, queue::recordProcessingAttempt, 10, DistributionQueueSettings.DEFAULT);
+        simpleDistributionQueueProcessor.setScheduler(scheduler, "job", true);
+        queue.setAddListener(simpleDistributionQueueProcessor::wakeUp);
+
+        queue.add(new DistributionQueueItem("id-0", new HashMap<String, Object>()));
+        // the wake up is left to the scheduler, which only runs it on the instance processing the queue
+        verify(options).onSingleInstanceOnly(true);
+        verify(scheduler).schedule(any(Runnable.class), eq(options));
+        verify(queueProcessor, never()).process(anyString(), any(DistributionQueueEntry.class));
+
+        simpleDistributionQueueProcessor.close();
+        verify(scheduler).unschedule("job-wakeup");
+    }
+
+    @Test
+    public void testRetryBackoff() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "queueName");
+        queue.add(new DistributionQueueItem("id-0", new HashMap<String, Object>()));
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        DistributionQueueProcessor queueProcessor = (queueName, entry) -> {
+            if (attempts.incrementAndGet() == 1) {
+                return false;
+            }
+            latch.countDown();
+            return true;
+        };
+        SimpleDistributionQueueProcessor simpleDistributionQueueProcessor = new SimpleDistributionQueueProcessor(
+                queue,
+                queueProcessor,
+                queue::recordProcessingAttempt,
+                10,
+                settings(1, new DistributionQueueRetryBackoff(200, 200), false));
+        try {
+            long start = System.currentTimeMillis();
+            simpleDistributionQueueProcessor.run();
+
+            // the run returns without waiting for the failed item to be due
+            assertEquals(1, attempts.get());
+            assertEquals(1, queue.getHead().getStatus().getAttempts());
+
+            // reattempted by a scheduled wake up
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertTrue(System.currentTimeMillis() - start >= 100);
+            assertEquals(2, attempts.get());
+        } finally {
+            simpleDistributionQueueProcessor.close();
+        }
+    }
+
+    @Test
+    public void testSkipAhead() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "queueName");
+        String[][] paths = {{"/content/a"}, {"/content/b"}, {"/content/a/c"}, {"/content/d"}, null, {"/content/e"}};
+        for (int i = 0; i < paths.length; i++) {
+            Map<String, Object> properties = new HashMap<String, Object>();
+            if (paths[i] != null) {
+                properties.put(DistributionPackageInfo.PROPERTY_REQUEST_PATHS, paths[i]);
+            }
+            queue.add(new DistributionQueueItem("id-" + i, properties));
+        }
+        final List<String> processed = new ArrayList<String>();
+        DistributionQueueProcessor queueProcessor = (queueName, entry) -> {
+            processed.add(entry.getId());
+            // id-0 is blocked
+            return !"id-0".equals(entry.getId());
+        };
+        SimpleDistributionQueueProcessor simpleDistributionQueueProcessor = new SimpleDistributionQueueProcessor(
+                queue,
+                queueProcessor,
+                queue::recordProcessingAttempt,
+                10,
+                settings(1, new DistributionQueueRetryBackoff(60000, 60000), true));
+        try {
+            simpleDistributionQueueProcessor.run();
+        } finally {
+            simpleDistributionQueueProcessor.close();
+        }
+
+        // id-2 overlaps the blocked id-0, id-4 has unknown paths and id-5 is behind it
+        assertEquals(Arrays.asList("id-0", "id-1", "id-3"), processed);
+        List<String> left = new ArrayList<String>();
+        for (DistributionQueueEntry entry : queue.getEntries(0, -1)) {
+            left.add(entry.getId());
+        }
+        assertEquals(Arrays.asList("id-0", "id-2", "id-4", "id-5"), left);
+    }
+
+    private DistributionQueueSettings settings(
+            int parallelism, DistributionQueueRetryBackoff retryBackoff, boolean skipAhead) {
+        return new DistributionQueueSettings(parallelism, retryBackoff, skipAhead, DistributionQueueLanes.NONE);
+    }
 }
@@ -19,19 +19,30 @@
 package org.apache.sling.distribution.queue.impl.simple;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.sling.commons.scheduler.ScheduleOptions;
 import org.apache.sling.commons.scheduler.Scheduler;
 import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
+import org.apache.sling.distribution.queue.impl.DistributionQueueLanes;
 import org.apache.sling.distribution.queue.impl.DistributionQueueProcessor;
+import org.apache.sling.distribution.queue.impl.DistributionQueueRetryBackoff;
+import org.apache.sling.distribution.queue.impl.DistributionQueueSettings;
+import org.apache.sling.distribution.queue.impl.DistributionQueueUtils;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
+import static java.util.Collections.singletonList;
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -64,7 +75,8 @@ public class SimpleDistributionQueueProviderTest {
     public void testEnableQueueProcessing() throws Exception {
         Scheduler scheduler = mock(Scheduler.class);
         ScheduleOptions options = mock(ScheduleOptions.class);
-        when(scheduler.NOW(-1, 1)).thenReturn(options);
+        when(scheduler.NOW(-1, SimpleDistributionQueueProcessor.SAFETY_NET_PERIOD))
+                .thenReturn(options);
         when(options.canRunConcurrently(false)).thenReturn(options);
         when(options.name(any(String.class))).thenReturn(options);
         String name = "dummy-agent";
@@ -74,6 +86,41 @@ public class SimpleDistributionQueueProviderTest {
         simpledistributionQueueProvider.enableQueueProcessing(processor);
     }
 
+    @Test
+    public void testEntriesClaimedOnlyWhenCoalescing() throws Exception {
+        assertEquals(singletonList(false), processFirstEntry(false));
+        assertEquals(singletonList(true), processFirstEntry(true));
+    }
+
+    private List<Boolean> processFirstEntry(boolean coalesce) throws Exception {
+        Scheduler scheduler = mock(Scheduler.class);
+        ScheduleOptions options = mock(ScheduleOptions.class);
+        when(scheduler.NOW(-1, SimpleDistributionQueueProcessor.SAFETY_NET_PERIOD))
+                .thenReturn(options);
+        when(options.canRunConcurrently(false)).thenReturn(options);
+        when(options.name(any(String.class))).thenReturn(options);
+        DistributionQueueSettings settings = new DistributionQueueSettings(
+                1, DistributionQueueRetryBackoff.DEFAULT, false, DistributionQueueLanes.NONE, coalesce);
+        SimpleDistributionQueueProvider provider = new SimpleDistributionQueueProvider(
+                scheduler, "claiming-agent", SimpleDistributionQueueProvider.TYPE, settings);
+        DistributionQueue queue = provider.getQueue("default");
+        List<Boolean> claimed = new ArrayList<>();
+        DistributionQueueProcessor processor = mock(DistributionQueueProcessor.class);
+        when(processor.process(anyString(), any(DistributionQueueEntry.class))).thenAnswer(invocation -> {
+            DistributionQueueEntry entry = invocation.getArgument(1);
+            claimed.add(DistributionQueueUtils.isClaimed(queue.getEntry(entry.getId())));
+            return true;
+        });
+        provider.enableQueueProcessing(processor, "default");
+        queue.add(new DistributionQueueItem("id", new HashMap<>()));
+
+        ArgumentCaptor<Runnable> scheduled = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(scheduled.capture(), any(ScheduleOptions.class));
+        scheduled.getValue().run();
+        provider.disableQueueProcessing();
+        return claimed;
+    }
+
     @Test
     public void testEnableQueueProcessingWithCheckpointRecovery() throws Exception {
         File checkpointDirectory = new File("dummy-agent-simple-queues-checkpoints");
@@ -82,7 +129,8 @@ public class SimpleDistributionQueueProviderTest {
 
         Scheduler scheduler = mock(Scheduler.class);
         ScheduleOptions options = mock(ScheduleOptions.class);
-        when(scheduler.NOW(-1, 1)).thenReturn(options);
+        when(scheduler.NOW(-1, SimpleDistributionQueueProcessor.SAFETY_NET_PERIOD))
+                .thenReturn(options);
         when(scheduler.NOW(-1, 15)).thenReturn(options);
         when(options.canRunConcurrently(false)).thenReturn(options);
         when(options.name(any(String.class))).thenReturn(options);
@@ -119,7 +167,8 @@ public class SimpleDistributionQueueProviderTest {
         try {
             Scheduler scheduler = mock(Scheduler.class);
             ScheduleOptions options = mock(ScheduleOptions.class);
-            when(scheduler.NOW(-1, 1)).thenReturn(options);
+            when(scheduler.NOW(-1, SimpleDistributionQueueProcessor.SAFETY_NET_PERIOD))
+                    .thenReturn(options);
             when(options.canRunConcurrently(false)).thenReturn(options);
             when(options.name(any(String.class))).thenReturn(options);
             SimpleDistributionQueueProvider simpledistributionQueueProvider =
@@ -159,4 +208,90 @@ public class SimpleDistributionQueueProviderTest {
             new File(name + "-simple-queues-checkpoints").deleteOnExit();
         }
     }
+
+    @Test
+    public void testEnableQueueProcessingWithJournalRecovery() throws Exception {
+        String name = "dummy-wal-agent";
+        Scheduler scheduler = mock(Scheduler.class);
+        ScheduleOptions options = mock(ScheduleOptions.class);
+        when(scheduler.NOW(-1, SimpleDistributionQueueProcessor.SAFETY_NET_PERIOD))
+                .thenReturn(options);
+        when(scheduler.NOW(-1, 15)).thenReturn(options);
+        when(options.canRunConcurrently(false)).thenReturn(options);
+        when(options.name(any(String.class))).thenReturn(options);
+        try {
+            SimpleDistributionQueueProvider provider =
+                    new SimpleDistributionQueueProvider(scheduler, name, SimpleDistributionQueueProvider.TYPE_WAL);
+            provider.getQueue(name).add(new DistributionQueueItem("pid", new HashMap<String, Object>()));
+
+            SimpleDistributionQueueProvider restarted =
+                    new SimpleDistributionQueueProvider(scheduler, name, SimpleDistributionQueueProvider.TYPE_WAL);
+            restarted.enableQueueProcessing(mock(DistributionQueueProcessor.class), name);
+            DistributionQueue queue = restarted.getQueue(name);
+            assertEquals(1, queue.getStatus().getItemsCount());
+            assertEquals("pid", queue.getHead().getId());
+        } finally {
+            FileUtils.deleteDirectory(new File(name + "-simple-queues-wal"));
+        }
+    }
+
+    @Test
+    public void testDisableQueueProcessingClosesJournals() throws Exception {
+        String name = "dummy-wal-disable-agent";
+        Scheduler scheduler = mock(Scheduler.class);
+        ScheduleOptions options = mock(ScheduleOptions.class);
+        when(scheduler.NOW(-1, SimpleDistributionQueueProcessor.SAFETY_NET_PERIOD))
+                .thenReturn(options);
+        when(scheduler.NOW(-1, 15)).thenReturn(options);
+        when(options.canRunConcurrently(false)).thenReturn(options);
+        when(options.name(any(String.class))).thenReturn(options);
+        try {
+            SimpleDistributionQueueProvider provider =
+                    new SimpleDistributionQueueProvider(scheduler, name, SimpleDistributionQueueProvider.TYPE_WAL);
+            provider.enableQueueProcessing(mock(DistributionQueueProcessor.class), name);
+            provider.getQueue(name).add(new DistributionQueueItem("pid", new HashMap<String, Object>()));
+            provider.disableQueueProcessing();
+            assertTrue(provider.getQueues().isEmpty());
+
+            provider.enableQueueProcessing(mock(DistributionQueueProcessor.class), name);
+            DistributionQueue queue = provider.getQueue(name);
+            assertEquals(1, queue.getStatus().getItemsCount());
+            assertEquals("pid", queue.getHead().getId());
+        } finally {
+            FileUtils.deleteDirectory(new File(name + "-simple-queues-wal"));
+        }
+    }
+
+    @Test
+    public void testEnableQueueProcessingWithParallelCheckpointRecovery() throws Exception {
+        String name = "dummy-parallel-agent";
+        Scheduler scheduler = mock(Scheduler.class);
+        ScheduleOptions options = mock(ScheduleOptions.class);
+        when(scheduler.NOW(-1, SimpleDistributionQueueProcessor.SAFETY_NET_PERIOD))
+                .thenReturn(options);
+        when(scheduler.NOW(-1, 15)).thenReturn(options);
+        when(options.canRunConcurrently(false)).thenReturn(options);
+        when(options.name(any(String.class))).thenReturn(options);
+        String[] queueNames = new String[] {"queue-1", "queue-2", "queue-3"};
+        try {
+            SimpleDistributionQueueProvider provider = new SimpleDistributionQueueProvider(scheduler, name, true);
+            for (int q = 0; q < queueNames.length; q++) {
+                DistributionQueue queue = provider.getQueue(queueNames[q]);
+                for (int i = 0; i <= q * 100; i++) {
+                    queue.add(new DistributionQueueItem("pid-" + i, new HashMap<String, Object>()));
+                }
+                new SimpleDistributionQueueCheckpoint(queue, new File(name + "-simple-queues-checkpoints")).run();
+            }
+
+            SimpleDistributionQueueProvider restarted = new SimpleDistributionQueueProvider(scheduler, name, true);
+            restarted.enableQueueProcessing(mock(DistributionQueueProcessor.class), queueNames);
+            for (int q = 0; q < queueNames.length; q++) {
+                DistributionQueue queue = restarted.getQueue(queueNames[q]);
+                assertEquals(q * 100 + 1, queue.getStatus().getItemsCount());
+                assertEquals("pid-0", queue.getHead().getId());
+            }
+        } finally {
+            FileUtils.deleteDirectory(new File(name + "-simple-queues-checkpoints"));
+        }
+    }
 }
@@ -18,11 +18,25 @@
  */
 package org.apache.sling.distribution.queue.impl.simple;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.sling.distribution.packaging.DistributionPackageInfo;
 import org.apache.sling.distribution.queue.DistributionQueueEntry;
 import org.apache.sling.distribution.queue.DistributionQueueItem;
+import org.apache.sling.distribution.queue.DistributionQueueItemState;
 import org.apache.sling.distribution.queue.DistributionQueueItemStatus;
+import org.apache.sling.distribution.queue.DistributionQueueState;
+import org.apache.sling.distribution.queue.impl.DistributionQueueLanes;
 import org.apache.sling.distribution.queue.spi.DistributionQueue;
 import org.junit.Test;
 
@@ -80,4 +94,226 @@ public class SimpleDistributionQueueTest {
         assertNotNull(status);
         assertEquals(1, status.getAttempts());
     }
+
+    @Test
+    public void testFailedAttemptStatus() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "default");
+        queue.add(new DistributionQueueItem("id", new HashMap<String, Object>()));
+        DistributionQueueEntry entry = queue.getHead();
+        assertEquals(DistributionQueueItemState.QUEUED, entry.getStatus().getItemState());
+
+        Exception error = new Exception("import failed");
+        queue.recordProcessingAttempt(entry, error);
+
+        DistributionQueueItemStatus status = queue.getEntry("id").getStatus();
+        assertEquals(1, status.getAttempts());
+        assertEquals(DistributionQueueItemState.ERROR, status.getItemState());
+        assertEquals(error, status.getError());
+
+        // an attempt without a known error keeps the last error
+        queue.recordProcessingAttempt(queue.getHead());
+        status = queue.getEntry("id").getStatus();
+        assertEquals(2, status.getAttempts());
+        assertEquals(error, status.getError());
+    }
+
+    @Test
+    public void testEntriesPaging() throws Exception {
+        DistributionQueue queue = new SimpleDistributionQueue("agentName", "default");
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(queue.add(new DistributionQueueItem("id-" + i, new HashMap<String, Object>())));
+        }
+        Iterator<DistributionQueueEntry> page = queue.getEntries(3, 4).iterator();
+        for (int i = 3; i < 7; i++) {
+            assertEquals("id-" + i, page.next().getId());
+        }
+        assertFalse(page.hasNext());
+        assertFalse(queue.getEntries(10, 5).iterator().hasNext());
+        assertEquals("id-9", queue.getEntries(9, -1).iterator().next().getId());
+    }
+
+    @Test
+    public void testBulkRemovalAndClear() throws Exception {
+        DistributionQueue queue = new SimpleDistributionQueue("agentName", "default");
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(queue.add(new DistributionQueueItem("id-" + i, new HashMap<String, Object>())));
+        }
+        Iterator<DistributionQueueEntry> removed = queue.remove(
+                        new HashSet<String>(Arrays.asList("id-0", "id-5", "id-42")))
+                .iterator();
+        assertNotNull(removed.next());
+        assertNotNull(removed.next());
+        assertFalse(removed.hasNext());
+        assertEquals(8, queue.getStatus().getItemsCount());
+        assertEquals("id-1", queue.getHead().getId());
+
+        Iterator<DistributionQueueEntry> cleared = queue.clear(3).iterator();
+        assertEquals("id-1", cleared.next().getId());
+        assertEquals("id-2", cleared.next().getId());
+        assertEquals("id-3", cleared.next().getId());
+        assertFalse(cleared.hasNext());
+        assertEquals("id-4", queue.getHead().getId());
+
+        queue.clear(-1);
+        assertTrue(queue.getStatus().isEmpty());
+        assertNull(queue.getHead());
+    }
+
+    @Test
+    public void testConcurrentProcessingAttempts() throws Exception {
+        final SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "default");
+        assertNotNull(queue.add(new DistributionQueueItem("id", new HashMap<String, Object>())));
+        final DistributionQueueEntry head = queue.getHead();
+        assertEquals(DistributionQueueState.RUNNING, queue.getStatus().getState());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 1000; i++) {
+            executor.submit(() -> queue.recordProcessingAttempt(head));
+            executor.submit(() -> queue.getStatus());
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(1000, queue.getEntry("id").getStatus().getAttempts());
+        assertEquals(DistributionQueueState.BLOCKED, queue.getStatus().getState());
+    }
+
+    @Test
+    public void testPriorityLanes() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "default");
+        queue.setLanes(new DistributionQueueLanes(new String[] {"3=/content/news/.*"}, 1, 0));
+        for (int i = 0; i < 3; i++) {
+            queue.add(newItem("bulk-" + i, "/content/site/page-" + i));
+        }
+        for (int i = 0; i < 4; i++) {
+            queue.add(newItem("news-" + i, "/content/news/item-" + i));
+        }
+        // the lane property overrides the path selectors
+        DistributionQueueItem pinned = newItem("pinned", "/content/news/pinned");
+        pinned.put(DistributionQueueLanes.PROPERTY_LANE, 1);
+        queue.add(pinned);
+
+        List<String> expected =
+                Arrays.asList("news-0", "news-1", "bulk-0", "news-2", "news-3", "bulk-1", "bulk-2", "pinned");
+        // the dequeue order is stable until the head is removed
+        assertEquals(expected, getIds(queue.getEntries(0, -1)));
+        assertEquals(expected.subList(2, 5), getIds(queue.getEntries(2, 3)));
+        assertEquals("news-0", queue.getHead().getId());
+
+        List<String> dequeued = new ArrayList<String>();
+        DistributionQueueEntry head;
+        while ((head = queue.getHead()) != null) {
+            dequeued.add(head.getId());
+            assertNotNull(queue.remove(head.getId()));
+        }
+        assertEquals(expected, dequeued);
+    }
+
+    @Test
+    public void testPriorityLanesMaxWait() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "default");
+        queue.setLanes(new DistributionQueueLanes(new String[] {"100=/content/news/.*"}, 1, 60000));
+        for (int i = 0; i < 3; i++) {
+            queue.add(newItem("news-" + i, "/content/news/item-" + i));
+        }
+        Calendar entered = Calendar.getInstance();
+        entered.add(Calendar.HOUR, -1);
+        queue.restore(
+                Collections.singletonList(new QueueItemRecord(newItem("bulk-0", "/content/site/page-0"), entered, 0)));
+
+        // the bulk item waited longer than the max wait and overtakes the lane with the higher weight
+        assertEquals("bulk-0", queue.getHead().getId());
+        assertEquals(Arrays.asList("bulk-0", "news-0"), getIds(queue.getEntries(0, 2)));
+        assertEquals(Collections.singletonList("bulk-0"), getIds(queue.clear(1)));
+        assertEquals("news-0", queue.getHead().getId());
+        assertEquals(3, queue.getStatus().getItemsCount());
+    }
+
+    @Test
+    public void testPriorityLanesKeepPathOrder() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "default");
+        queue.setLanes(new DistributionQueueLanes(new String[] {"10=/content/news/.*"}, 1, 0));
+        queue.add(newItem("delete-news", "/content/news"));
+        queue.add(newItem("news-0", "/content/news/a"));
+        queue.add(newItem("news-1", "/content/other/b", "/content/news/b"));
+        queue.add(newItem("bulk-0", "/content/site/page-0"));
+        // the lane property does not reorder the same paths either
+        DistributionQueueItem pinned = newItem("pinned", "/content/site/page-0");
+        pinned.put(DistributionQueueLanes.PROPERTY_LANE, 0);
+        queue.add(pinned);
+        queue.add(newItem("news-2", "/content/news/c"));
+
+        // the news wait for the deletion of their parent, the pinned item in the news lane waits for bulk-0
+        List<String> expected = Arrays.asList("delete-news", "news-0", "news-1", "bulk-0", "pinned", "news-2");
+        assertEquals(expected, getIds(queue.getEntries(0, -1)));
+        List<String> dequeued = new ArrayList<String>();
+        DistributionQueueEntry head;
+        while ((head = queue.getHead()) != null) {
+            dequeued.add(head.getId());
+            assertNotNull(queue.remove(head.getId()));
+        }
+        assertEquals(expected, dequeued);
+    }
+
+    @Test
+    public void testPriorityLanesListInDequeueOrder() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "default");
+        queue.setLanes(new DistributionQueueLanes(new String[] {"5=/content/news/.*", "2=/content/dam/.*"}, 1, 0));
+        String[] roots = {"/content/news", "/content/dam", "/content/site"};
+        for (int i = 0; i < 300; i++) {
+            String root = roots[i % roots.length];
+            if (i % 50 == 7) {
+                // unknown paths
+                queue.add(new DistributionQueueItem("item-" + i, new HashMap<String, Object>()));
+            } else if (i % 10 == 3) {
+                queue.add(newItem("item-" + i, root));
+            } else {
+                queue.add(newItem("item-" + i, root + "/page-" + (i % 7), roots[(i / 3) % roots.length] + "/x"));
+            }
+        }
+
+        List<String> listed = getIds(queue.getEntries(0, -1));
+        assertEquals(300, listed.size());
+        assertEquals(listed.subList(20, 30), getIds(queue.getEntries(20, 10)));
+        List<String> dequeued = new ArrayList<String>();
+        DistributionQueueEntry head;
+        while ((head = queue.getHead()) != null) {
+            dequeued.add(head.getId());
+            assertNotNull(queue.remove(head.getId()));
+        }
+        assertEquals(listed, dequeued);
+    }
+
+    @Test
+    public void testPriorityLanesStableHead() throws Exception {
+        SimpleDistributionQueue queue = new SimpleDistributionQueue("agentName", "default");
+        queue.setLanes(new DistributionQueueLanes(new String[] {"100=/content/news/.*"}, 1, 60000));
+        queue.add(newItem("news-0", "/content/news/item-0"));
+        assertEquals("news-0", queue.getHead().getId());
+
+        // the bulk item is overdue, but the head is already handed out
+        Calendar entered = Calendar.getInstance();
+        entered.add(Calendar.HOUR, -1);
+        queue.restore(
+                Collections.singletonList(new QueueItemRecord(newItem("bulk-0", "/content/site/page-0"), entered, 0)));
+        assertEquals("news-0", queue.getHead().getId());
+        assertEquals(Arrays.asList("news-0", "bulk-0"), getIds(queue.getEntries(0, -1)));
+
+        assertNotNull(queue.remove("news-0"));
+        assertEquals("bulk-0", queue.getHead().getId());
+    }
+
+    private DistributionQueueItem newItem(String id, String... paths) {
+        DistributionQueueItem item = new DistributionQueueItem(id, new HashMap<String, Object>());
+        item.put(DistributionPackageInfo.PROPERTY_REQUEST_PATHS, paths);
+        return item;
+    }
+
+    private List<String> getIds(Iterable<DistributionQueueEntry> entries) {
+        List<String> ids = new ArrayList<String>();
+        for (DistributionQueueEntry entry : entries) {
+            ids.add(entry.getId());
+        }
+        return ids;
+    }
 }